@@ -46,6 +46,7 @@ public class AboutFragment extends Fragment {
             Map<String, String> m = Tools.getCPUInfo();
 
             String i = "ABI: " + Tools.getABI() + "\n";
+            i += "CPU clusters: " + CpuTopology.get() + "\n";
             for (Map.Entry<String, String> pair : m.entrySet()) {
                 i += pair.getKey() + ": " + pair.getValue() + "\n";
             }
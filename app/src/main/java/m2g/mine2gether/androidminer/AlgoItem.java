@@ -12,12 +12,19 @@ public class AlgoItem {
     private String mAlgo = "";
     private ArrayList<MinerItem> mMiners;
     private String mDefaultMiner = "";
+    // memory one hash works on, 0 if unknown
+    private int mScratchpadKb = 0;
 
     public AlgoItem(String algo, String defaultMiner, ArrayList<MinerItem> miners) {
+        this(algo, defaultMiner, miners, 0);
+    }
+
+    public AlgoItem(String algo, String defaultMiner, ArrayList<MinerItem> miners, int scratchpadKb) {
         this.mAlgo = algo;
         this.mId = 0;
         mMiners = miners;
         mDefaultMiner = defaultMiner;
+        mScratchpadKb = scratchpadKb;
     }
 
     public int getId() {
@@ -36,6 +43,10 @@ public class AlgoItem {
         return this.mDefaultMiner;
     }
 
+    public int getScratchpadKb() {
+        return this.mScratchpadKb;
+    }
+
     public ArrayList<MinerItem> getMiners() {
         return this.mMiners;
     }
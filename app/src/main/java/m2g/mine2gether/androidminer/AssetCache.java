@@ -0,0 +1,392 @@
+// Copyright (c) 2019, Mine2Gether.com
+//
+// Please see the included LICENSE file for more information.
+
+package m2g.mine2gether.androidminer;
+
+import android.content.Context;
+import android.content.pm.PackageInfo;
+import android.content.pm.PackageManager;
+import android.os.Build;
+import android.system.ErrnoException;
+import android.system.Os;
+import android.util.Log;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Keeps the miner binaries extracted in the private directory across service
+ * restarts and miner switches.
+ * <p>
+ * File contents live once in a content addressed store ({@code .store/<sha256>}),
+ * the private directory only holds symlinks into it, one directory per miner
+ * so miners running side by side never see each other's files. The libuv.so
+ * that several miners ship, or the xmrig inside xmrig-upx, is written once;
+ * switching miners only relinks, and only bytes that are not in the store yet
+ * are extracted. Before API 21 there is no symlink() and the files are copied out
+ * of the store instead.
+ * <p>
+ * A manifest records the APK version, the link and asset directories, which asset has
+ * which hash for this APK and size and mtime of every blob:
+ * <ul>
+ * <li>same APK, same miner: only stats, broken blobs or links are repaired</li>
+ * <li>other miner: assets seen before are linked, new ones are hashed and only
+ * extracted if their content is not in the store</li>
+ * <li>app update: the assets are hashed again, unchanged content is kept</li>
+ * </ul>
+ * Blobs are extracted by {@link AssetExtractor}, synced and renamed before the
+ * manifest lists them, so a crash halfway leaves nothing the manifest trusts.
+ */
+public class AssetCache {
+
+    private static final String LOG_TAG = "MiningSvc";
+
+    static final String MANIFEST_NAME = ".assets.json";
+    static final String STORE_NAME = ".store";
+    private static final int MANIFEST_VERSION = 3;
+
+    private static final boolean SYMLINKS = Build.VERSION.SDK_INT >= Build.VERSION_CODES.LOLLIPOP;
+
+    private final File dir;
+    private final File store;
+    private final AssetExtractor extractor;
+    // null if the package info is not available, nothing is trusted without hashing then
+    private final String apkVersion;
+
+    private Manifest manifest;
+
+    public AssetCache(Context context, File dir) {
+        this.dir = dir;
+        this.store = new File(dir, STORE_NAME);
+        this.extractor = new AssetExtractor(context, MinerExecutors.disk(), Config.assetExtractThreads);
+        this.apkVersion = getApkVersion(context);
+    }
+
+    /**
+     * Makes each link directory hold the files under its asset directories.
+     * Where two asset directories have a file of the same name, the later one
+     * is linked. With no directories only the links go; the store keeps the
+     * blobs of this APK's assets and drops the rest.
+     *
+     * @param linkDirs link directory, relative to the cache directory, to the
+     *                 asset directories flattened into it
+     * @return number of files written to the store
+     */
+    public synchronized int sync(Map<String, List<String>> linkDirs) {
+        if (manifest == null) manifest = loadManifest();
+
+        boolean sameApk = apkVersion != null && apkVersion.equals(manifest.apkVersion);
+        boolean sameDirs = linkDirs.equals(manifest.linkDirs);
+        boolean changed = !sameApk || !sameDirs;
+
+        // which asset has which content only holds for one APK
+        if (!sameApk) manifest.hashes.clear();
+
+        List<AssetExtractor.Item> wanted = new ArrayList<>();
+        if (sameApk && sameDirs) {
+            for (Map.Entry<String, String> file : manifest.files.entrySet()) {
+                wanted.add(new AssetExtractor.Item(file.getKey(), file.getValue()));
+            }
+        } else {
+            for (Map.Entry<String, List<String>> linkDir : linkDirs.entrySet()) {
+                List<AssetExtractor.Item> listed = new ArrayList<>();
+                for (String assetDir : linkDir.getValue()) {
+                    extractor.listFiles(assetDir, linkDir.getKey() + "/", listed);
+                }
+                // the miner's own copy of a library wins over the shared one
+                Map<String, AssetExtractor.Item> byName = new LinkedHashMap<>();
+                for (AssetExtractor.Item item : listed) {
+                    byName.put(item.name, item);
+                }
+                wanted.addAll(byName.values());
+            }
+        }
+
+        // find the content of every file in the store, or extract it
+        List<AssetExtractor.Item> missing = new ArrayList<>();
+        for (AssetExtractor.Item item : wanted) {
+            String sha256 = manifest.hashes.get(item.assetPath);
+            if (sha256 == null && !manifest.blobs.isEmpty()) {
+                // read, not written: it may be in the store under another name already
+                sha256 = extractor.hash(item.assetPath);
+                if (!sha256.isEmpty()) manifest.hashes.put(item.assetPath, sha256);
+                changed = true;
+            }
+            if (sha256 == null || sha256.isEmpty() || !isBlobIntact(sha256)) {
+                missing.add(new AssetExtractor.Item("new-" + missing.size(), item.assetPath));
+            }
+        }
+
+        if (!missing.isEmpty()) {
+            store.mkdirs();
+            extractor.extract(store, missing);
+            for (AssetExtractor.Item blob : missing) {
+                File staged = new File(store, blob.name);
+                File target = new File(store, blob.sha256);
+                // two assets with the same content in one batch
+                if (isBlobIntact(blob.sha256) || !staged.renameTo(target)) {
+                    staged.delete();
+                } else {
+                    manifest.blobs.put(blob.sha256, new Blob(target.length(), target.lastModified()));
+                }
+                manifest.hashes.put(blob.assetPath, blob.sha256);
+            }
+            changed = true;
+        }
+
+        Map<String, String> files = new HashMap<>();
+        for (AssetExtractor.Item item : wanted) {
+            files.put(item.name, item.assetPath);
+            File blob = new File(store, manifest.hashes.get(item.assetPath));
+            File file = new File(dir, item.name);
+            if (!isLinked(file, blob)) {
+                link(blob, file);
+                changed = true;
+            }
+        }
+
+        // whatever the last miner needed and this one does not
+        for (String stale : manifest.files.keySet()) {
+            if (!files.containsKey(stale)) {
+                Log.i(LOG_TAG, "asset cache: unlinking " + stale);
+                File file = new File(dir, stale);
+                file.delete();
+                // only goes if it was the last file in the link directory
+                if (!file.getParentFile().equals(dir)) file.getParentFile().delete();
+            }
+        }
+
+        if (changed) {
+            manifest = new Manifest(apkVersion, linkDirs, files, manifest.hashes, manifest.blobs);
+            collectGarbage();
+            saveManifest(manifest);
+        }
+
+        return missing.size();
+    }
+
+    // blobs no asset of this APK has, switching back to a miner of this APK stays cheap
+    private void collectGarbage() {
+        Set<String> live = new HashSet<>(manifest.hashes.values());
+        Iterator<String> blobs = manifest.blobs.keySet().iterator();
+        while (blobs.hasNext()) {
+            String sha256 = blobs.next();
+            if (!live.contains(sha256)) {
+                Log.i(LOG_TAG, "asset cache: dropping blob " + sha256);
+                new File(store, sha256).delete();
+                blobs.remove();
+            }
+        }
+    }
+
+    private boolean isBlobIntact(String sha256) {
+        Blob blob = manifest.blobs.get(sha256);
+        if (blob == null) return false;
+        File file = new File(store, sha256);
+        return file.isFile() && file.length() == blob.size && file.lastModified() == blob.modified;
+    }
+
+    private static boolean isLinked(File file, File blob) {
+        try {
+            if (file.getCanonicalPath().equals(blob.getCanonicalPath())) return true;
+        } catch (IOException e) {
+            return false;
+        }
+        // a copy where there are no symlinks
+        return !SYMLINKS && file.isFile() && file.length() == blob.length();
+    }
+
+    private static void link(File blob, File file) {
+        file.delete();
+        file.getParentFile().mkdirs();
+
+        if (SYMLINKS) {
+            try {
+                Os.symlink(blob.getAbsolutePath(), file.getAbsolutePath());
+                return;
+            } catch (ErrnoException e) {
+                Log.w(LOG_TAG, "asset cache: can't link " + file + ", copying: " + e);
+            }
+        }
+
+        try {
+            FileChannel in = new FileInputStream(blob).getChannel();
+            FileOutputStream out = new FileOutputStream(file);
+            try {
+                long size = in.size();
+                for (long position = 0; position < size; ) {
+                    position += in.transferTo(position, size - position, out.getChannel());
+                }
+                out.getFD().sync();
+            } finally {
+                out.close();
+                in.close();
+            }
+            file.setExecutable(true);
+        } catch (IOException e) {
+            file.delete();
+            throw new RuntimeException(e);
+        }
+    }
+
+    private static String getApkVersion(Context context) {
+        try {
+            PackageInfo info = context.getPackageManager().getPackageInfo(context.getPackageName(), 0);
+            // lastUpdateTime catches reinstalls of the same versionCode during development
+            return info.versionCode + "/" + info.lastUpdateTime;
+        } catch (PackageManager.NameNotFoundException e) {
+            return null;
+        }
+    }
+
+    private Manifest loadManifest() {
+        File file = new File(dir, MANIFEST_NAME);
+
+        try {
+            if (!file.exists()) throw new IOException("no manifest");
+
+            byte[] data = new byte[(int) file.length()];
+            FileInputStream in = new FileInputStream(file);
+            try {
+                int offset = 0;
+                int read;
+                while (offset < data.length && (read = in.read(data, offset, data.length - offset)) > 0) {
+                    offset += read;
+                }
+            } finally {
+                in.close();
+            }
+
+            JSONObject json = new JSONObject(new String(data, "UTF-8"));
+            if (json.getInt("version") != MANIFEST_VERSION) throw new JSONException("manifest version " + json.getInt("version"));
+
+            Map<String, List<String>> linkDirs = new HashMap<>();
+            JSONObject dirsJson = json.getJSONObject("dirs");
+            for (Iterator<String> names = dirsJson.keys(); names.hasNext(); ) {
+                String name = names.next();
+                JSONArray dirs = dirsJson.getJSONArray(name);
+                List<String> assetDirs = new ArrayList<>();
+                for (int i = 0; i < dirs.length(); i++) {
+                    assetDirs.add(dirs.getString(i));
+                }
+                linkDirs.put(name, assetDirs);
+            }
+
+            Map<String, String> files = new HashMap<>();
+            JSONObject filesJson = json.getJSONObject("files");
+            for (Iterator<String> names = filesJson.keys(); names.hasNext(); ) {
+                String name = names.next();
+                files.put(name, filesJson.getString(name));
+            }
+
+            Map<String, String> hashes = new HashMap<>();
+            JSONObject hashesJson = json.getJSONObject("hashes");
+            for (Iterator<String> assets = hashesJson.keys(); assets.hasNext(); ) {
+                String asset = assets.next();
+                hashes.put(asset, hashesJson.getString(asset));
+            }
+
+            Map<String, Blob> blobs = new HashMap<>();
+            JSONObject blobsJson = json.getJSONObject("blobs");
+            for (Iterator<String> names = blobsJson.keys(); names.hasNext(); ) {
+                String sha256 = names.next();
+                JSONObject blob = blobsJson.getJSONObject(sha256);
+                blobs.put(sha256, new Blob(blob.getLong("size"), blob.getLong("mtime")));
+            }
+
+            return new Manifest(json.optString("apk", null), linkDirs, files, hashes, blobs);
+        } catch (IOException | JSONException e) {
+            // first start, an older layout or a broken manifest: start clean once
+            Log.w(LOG_TAG, "asset cache: extracting everything: " + e);
+            file.delete();
+            Tools.deleteDirectoryContents(dir);
+            return new Manifest(null, new HashMap<String, List<String>>(), new HashMap<String, String>(), new HashMap<String, String>(), new HashMap<String, Blob>());
+        }
+    }
+
+    private void saveManifest(Manifest manifest) {
+        File tmp = new File(dir, MANIFEST_NAME + ".tmp");
+        try {
+            JSONObject json = new JSONObject();
+            json.put("version", MANIFEST_VERSION);
+            json.put("apk", apkVersion);
+
+            JSONObject dirs = new JSONObject();
+            for (Map.Entry<String, List<String>> linkDir : manifest.linkDirs.entrySet()) {
+                dirs.put(linkDir.getKey(), new JSONArray(linkDir.getValue()));
+            }
+            json.put("dirs", dirs);
+
+            json.put("files", new JSONObject(manifest.files));
+            json.put("hashes", new JSONObject(manifest.hashes));
+
+            JSONObject blobs = new JSONObject();
+            for (Map.Entry<String, Blob> blob : manifest.blobs.entrySet()) {
+                JSONObject b = new JSONObject();
+                b.put("size", blob.getValue().size);
+                b.put("mtime", blob.getValue().modified);
+                blobs.put(blob.getKey(), b);
+            }
+            json.put("blobs", blobs);
+
+            FileOutputStream out = new FileOutputStream(tmp);
+            try {
+                out.write(json.toString().getBytes("UTF-8"));
+                out.getFD().sync();
+            } finally {
+                out.close();
+            }
+            if (!tmp.renameTo(new File(dir, MANIFEST_NAME))) throw new IOException("rename failed: " + tmp);
+        } catch (IOException | JSONException e) {
+            // the next start extracts again, nothing worse
+            Log.w(LOG_TAG, "asset cache: can't write manifest: " + e);
+            tmp.delete();
+        }
+    }
+
+    private static class Manifest {
+        final String apkVersion;
+        // link directory -> asset directories, as passed to sync()
+        final Map<String, List<String>> linkDirs;
+        // file path in dir -> asset path
+        final Map<String, String> files;
+        // asset path -> sha256, for apkVersion
+        final Map<String, String> hashes;
+        // sha256 -> blob in the store
+        final Map<String, Blob> blobs;
+
+        Manifest(String apkVersion, Map<String, List<String>> linkDirs, Map<String, String> files, Map<String, String> hashes, Map<String, Blob> blobs) {
+            this.apkVersion = apkVersion;
+            this.linkDirs = linkDirs;
+            this.files = files;
+            this.hashes = hashes;
+            this.blobs = blobs;
+        }
+    }
+
+    private static class Blob {
+        final long size;
+        final long modified;
+
+        Blob(long size, long modified) {
+            this.size = size;
+            this.modified = modified;
+        }
+    }
+}
@@ -0,0 +1,301 @@
+// Copyright (c) 2019, Mine2Gether.com
+//
+// Please see the included LICENSE file for more information.
+
+package m2g.mine2gether.androidminer;
+
+import android.content.Context;
+import android.content.res.AssetFileDescriptor;
+import android.content.res.AssetManager;
+import android.os.SystemClock;
+import android.util.Log;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+
+/**
+ * Copies asset files to disk, {@link Config#assetExtractThreads} at a time.
+ * <p>
+ * Assets stored uncompressed in the APK (the miner binaries, see aaptOptions
+ * in build.gradle) are mapped and written from the mapping, everything else is
+ * streamed through a large buffer. The SHA-256
+ * of every file is computed on the way. Nothing is synced per file: all
+ * files are written first, then synced in one pass, then renamed into place.
+ * <p>
+ * The calling thread copies too, helpers on the executor only speed it up,
+ * so waiting for them can't dead lock a busy executor.
+ */
+public class AssetExtractor {
+
+    private static final String LOG_TAG = "MiningSvc";
+    private static final int BUFFER_SIZE = 256 * 1024;
+    private static final String TMP_SUFFIX = ".tmp";
+
+    private final AssetManager assets;
+    private final Executor executor;
+    private final int threads;
+
+    public AssetExtractor(Context context, Executor executor, int threads) {
+        this.assets = context.getAssets();
+        this.executor = executor;
+        this.threads = threads;
+    }
+
+    /**
+     * Lists the files in assetDir with one {@code list()} call. The miner
+     * directories are flat ({@code <miner>/<abi>/<file>}, the same layout
+     * packageMinersAsNativeLibs in build.gradle relies on), every entry is a file.
+     *
+     * @param prefix prepended to the file names, relative to the target directory
+     */
+    public void listFiles(String assetDir, String prefix, List<Item> out) {
+        String[] names;
+        try {
+            names = assets.list(assetDir);
+        } catch (IOException e) {
+            return;
+        }
+        if (names == null) return;
+
+        for (String name : names) {
+            out.add(new Item(prefix + name, assetDir.isEmpty() ? name : assetDir + "/" + name));
+        }
+    }
+
+    /**
+     * Extracts the items into dir and fills in their size and hash.
+     * Either every file is in place afterwards or the call throws.
+     */
+    public Stats extract(final File dir, List<Item> items) {
+        long start = SystemClock.elapsedRealtime();
+
+        final ConcurrentLinkedQueue<Item> queue = new ConcurrentLinkedQueue<>(items);
+        final CountDownLatch done = new CountDownLatch(items.size());
+        final List<Throwable> errors = new ArrayList<>();
+
+        Runnable worker = new Runnable() {
+            @Override
+            public void run() {
+                Item item;
+                while ((item = queue.poll()) != null) {
+                    try {
+                        copy(dir, item);
+                    } catch (Throwable e) {
+                        synchronized (errors) {
+                            errors.add(e);
+                        }
+                        // the other files are useless now, let the waiting caller go
+                        while (queue.poll() != null) {
+                            done.countDown();
+                        }
+                    } finally {
+                        done.countDown();
+                    }
+                }
+            }
+        };
+
+        for (int i = 1; i < Math.min(threads, items.size()); i++) {
+            try {
+                executor.execute(worker);
+            } catch (RejectedExecutionException e) {
+                break;
+            }
+        }
+        worker.run();
+
+        try {
+            // the copies the helpers are still busy with
+            done.await();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            errors.add(e);
+        }
+
+        try {
+            if (!errors.isEmpty()) throw errors.get(0);
+
+            long bytes = 0;
+            for (Item item : items) {
+                syncFile(new File(dir, item.name + TMP_SUFFIX));
+                bytes += item.size;
+            }
+            for (Item item : items) {
+                File target = new File(dir, item.name);
+                if (!new File(dir, item.name + TMP_SUFFIX).renameTo(target)) throw new IOException("rename failed: " + target);
+                target.setExecutable(true);
+                item.modified = target.lastModified();
+            }
+
+            Stats stats = new Stats(items.size(), bytes, SystemClock.elapsedRealtime() - start);
+            if (stats.files > 0) Log.i(LOG_TAG, "asset extractor: " + stats);
+            return stats;
+        } catch (Throwable e) {
+            for (Item item : items) {
+                new File(dir, item.name + TMP_SUFFIX).delete();
+            }
+            throw e instanceof RuntimeException ? (RuntimeException) e : new RuntimeException(e);
+        }
+    }
+
+    /**
+     * SHA-256 of an asset without writing it anywhere, empty if it can't be read.
+     */
+    public String hash(String assetPath) {
+        MessageDigest digest = newDigest();
+        try {
+            AssetFileDescriptor fd = openFd(assetPath);
+            if (fd != null) {
+                try {
+                    FileChannel in = fd.createInputStream().getChannel();
+                    try {
+                        digest.update(in.map(FileChannel.MapMode.READ_ONLY, fd.getStartOffset(), fd.getLength()));
+                    } finally {
+                        in.close();
+                    }
+                } finally {
+                    fd.close();
+                }
+            } else {
+                InputStream in = assets.open(assetPath);
+                try {
+                    byte[] buffer = new byte[BUFFER_SIZE];
+                    int read;
+                    while ((read = in.read(buffer)) > 0) {
+                        digest.update(buffer, 0, read);
+                    }
+                } finally {
+                    in.close();
+                }
+            }
+        } catch (IOException e) {
+            Log.w(LOG_TAG, "asset extractor: can't hash " + assetPath + ": " + e);
+            return "";
+        }
+        return Tools.toHex(digest.digest());
+    }
+
+    private void copy(File dir, Item item) throws IOException {
+        File tmp = new File(dir, item.name + TMP_SUFFIX);
+        tmp.getParentFile().mkdirs();
+        MessageDigest digest = newDigest();
+
+        FileOutputStream out = new FileOutputStream(tmp);
+        try {
+            FileChannel target = out.getChannel();
+            AssetFileDescriptor fd = openFd(item.assetPath);
+
+            if (fd != null) {
+                // stored uncompressed: the bytes are a slice of the APK, map it instead of reading it
+                try {
+                    FileChannel in = fd.createInputStream().getChannel();
+                    try {
+                        ByteBuffer mapped = in.map(FileChannel.MapMode.READ_ONLY, fd.getStartOffset(), fd.getLength());
+                        digest.update(mapped.duplicate());
+                        while (mapped.hasRemaining()) {
+                            target.write(mapped);
+                        }
+                    } finally {
+                        in.close();
+                    }
+                } finally {
+                    fd.close();
+                }
+            } else {
+                InputStream in = assets.open(item.assetPath);
+                try {
+                    byte[] buffer = new byte[BUFFER_SIZE];
+                    int read;
+                    while ((read = in.read(buffer)) > 0) {
+                        out.write(buffer, 0, read);
+                        digest.update(buffer, 0, read);
+                    }
+                } finally {
+                    in.close();
+                }
+            }
+        } finally {
+            out.close();
+        }
+
+        item.size = tmp.length();
+        item.sha256 = Tools.toHex(digest.digest());
+    }
+
+    // null for compressed assets, openFd() only works on stored ones
+    private AssetFileDescriptor openFd(String assetPath) throws IOException {
+        try {
+            return assets.openFd(assetPath);
+        } catch (FileNotFoundException e) {
+            return null;
+        }
+    }
+
+    private static void syncFile(File file) throws IOException {
+        FileInputStream in = new FileInputStream(file);
+        try {
+            in.getFD().sync();
+        } finally {
+            in.close();
+        }
+    }
+
+    private static MessageDigest newDigest() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    public static class Item {
+        // relative to the target directory
+        public final String name;
+        public final String assetPath;
+        // filled in by extract()
+        public long size;
+        public long modified;
+        public String sha256;
+
+        public Item(String name, String assetPath) {
+            this.name = name;
+            this.assetPath = assetPath;
+        }
+    }
+
+    public static class Stats {
+        public final int files;
+        public final long bytes;
+        public final long ms;
+
+        Stats(int files, long bytes, long ms) {
+            this.files = files;
+            this.bytes = bytes;
+            this.ms = ms;
+        }
+
+        public double getMegabytesPerSecond() {
+            return ms > 0 ? bytes / 1048576.0 / (ms / 1000.0) : 0;
+        }
+
+        @Override
+        public String toString() {
+            return String.format(Locale.US, "%d files, %d KB in %d ms (%.1f MB/s)", files, bytes / 1024, ms, getMegabytesPerSecond());
+        }
+    }
+}
@@ -0,0 +1,123 @@
+// Copyright (c) 2019, Mine2Gether.com
+//
+// Please see the included LICENSE file for more information.
+
+package m2g.mine2gether.androidminer;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Which thread layout fits in the CPU caches for an algorithm.
+ * <p>
+ * Every thread works on intensity scratchpads at once
+ * ({@link AlgoItem#getScratchpadKb()} each). Once the scratchpads of all
+ * threads on the CPUs behind a last level cache outgrow it, every hash waits
+ * on DRAM and more threads make the total slower, not faster.
+ * <p>
+ * {@link #fit} shrinks a layout until every last level cache holds its
+ * threads' scratchpads: threads per CPU first where even one CPU's threads
+ * don't fit, then intensity per cache, then the slowest CPUs of that cache
+ * are dropped. One hash per cache always keeps running, even where a single
+ * scratchpad is larger than the cache. CPUs without cache information are
+ * left as they are.
+ */
+public class CacheModel {
+
+    public static Layout fit(CpuTopology topology, int[] cpus, int threads, int intensity, int scratchpadKb) {
+        int[] clusterIntensity = new int[topology.getClusters().length];
+        Arrays.fill(clusterIntensity, intensity);
+
+        // the CPUs behind each last level cache, fastest first as in cpus
+        Map<CpuTopology.Cache, List<Integer>> byCache = new LinkedHashMap<>();
+        for (int cpu : cpus) {
+            CpuTopology.Cache cache = topology.getLastLevelCache(cpu);
+            if (cache == null) continue;
+            List<Integer> members = byCache.get(cache);
+            if (members == null) {
+                members = new ArrayList<>();
+                byCache.put(cache, members);
+            }
+            members.add(cpu);
+        }
+
+        if (scratchpadKb <= 0 || byCache.isEmpty()) {
+            return new Layout(cpus, threads, intensity, clusterIntensity, false);
+        }
+
+        // threads per CPU are the same everywhere, the smallest cache decides
+        int fitThreads = threads;
+        for (CpuTopology.Cache cache : byCache.keySet()) {
+            fitThreads = Math.min(fitThreads, getHashes(cache, scratchpadKb));
+        }
+
+        Set<Integer> dropped = new HashSet<>();
+        for (Map.Entry<CpuTopology.Cache, List<Integer>> entry : byCache.entrySet()) {
+            int hashes = getHashes(entry.getKey(), scratchpadKb);
+            List<Integer> members = entry.getValue();
+
+            int cacheIntensity = Math.max(1, Math.min(intensity, hashes / (members.size() * fitThreads)));
+            int keep = Math.min(members.size(), Math.max(1, hashes / (fitThreads * cacheIntensity)));
+
+            for (int i = 0; i < members.size(); i++) {
+                if (i >= keep) {
+                    dropped.add(members.get(i));
+                    continue;
+                }
+                int cluster = topology.getCpu(members.get(i)).cluster;
+                clusterIntensity[cluster] = Math.min(clusterIntensity[cluster], cacheIntensity);
+            }
+        }
+
+        int[] kept = new int[cpus.length - dropped.size()];
+        int n = 0;
+        for (int cpu : cpus) {
+            if (!dropped.contains(cpu)) kept[n++] = cpu;
+        }
+
+        // the intensity every kept CPU can run, for settings that only have one
+        int uniform = intensity;
+        for (int cpu : kept) {
+            uniform = Math.min(uniform, clusterIntensity[topology.getCpu(cpu).cluster]);
+        }
+
+        boolean reduced = !dropped.isEmpty() || fitThreads < threads || uniform < intensity;
+        return new Layout(kept, fitThreads, uniform, clusterIntensity, reduced);
+    }
+
+    // scratchpads that fit in the cache, at least one
+    private static int getHashes(CpuTopology.Cache cache, int scratchpadKb) {
+        return Math.max(1, cache.sizeKb / scratchpadKb);
+    }
+
+    public static class Layout {
+        // fastest first
+        public final int[] cpus;
+        public final int threads;
+        // the lowest of clusterIntensity over the used clusters
+        public final int intensity;
+        // by cluster id, for MiningService.createCpuConfig
+        public final int[] clusterIntensity;
+        // smaller than what was asked for
+        public final boolean reduced;
+
+        Layout(int[] cpus, int threads, int intensity, int[] clusterIntensity, boolean reduced) {
+            this.cpus = cpus;
+            this.threads = threads;
+            this.intensity = intensity;
+            this.clusterIntensity = clusterIntensity;
+            this.reduced = reduced;
+        }
+
+        @Override
+        public String toString() {
+            return String.format(Locale.US, "%d cores x %d threads, intensity %d", cpus.length, threads, intensity);
+        }
+    }
+}
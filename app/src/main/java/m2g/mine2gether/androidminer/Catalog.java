@@ -0,0 +1,245 @@
+// Copyright (c) 2019, Mine2Gether.com
+//
+// Please see the included LICENSE file for more information.
+
+package m2g.mine2gether.androidminer;
+
+import android.content.Context;
+import android.util.Log;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * The pools and algorithms the app offers, from the versioned catalog.json
+ * asset. An update saved with {@link #install(Context, String)} replaces it
+ * as long as its version is newer than the bundled one, so adding a pool
+ * needs no new build.
+ * <p>
+ * Loaded on first use and never changed afterwards, except by swapping in a
+ * whole new catalog. Pools, algos and miners are indexed so every lookup is a
+ * hash lookup.
+ */
+public class Catalog {
+
+    private static final String LOG_TAG = "MiningSvc";
+
+    static final String ASSET_NAME = "catalog.json";
+
+    private static volatile Catalog instance;
+
+    public final int version;
+
+    private final PoolItem[] pools;
+    private final AlgoItem[] algos;
+
+    private final Map<String, Integer> poolByKey = new HashMap<>();
+    // "host:port|algo"
+    private final Map<String, Integer> poolByAddress = new HashMap<>();
+    private final Map<String, Integer> algoByName = new HashMap<>();
+    // "miner|miner algo"
+    private final Map<String, MinerItem> minerByAlgo = new HashMap<>();
+
+    private Catalog(int version, PoolItem[] pools, AlgoItem[] algos) {
+        this.version = version;
+        this.pools = pools;
+        this.algos = algos;
+
+        for (int i = 0; i < pools.length; i++) {
+            poolByKey.put(pools[i].getKey(), i);
+            String address = addressKey(pools[i].getPool(), pools[i].getAlgo());
+            // the first of two identical entries wins, like the linear scan did
+            if (!poolByAddress.containsKey(address)) poolByAddress.put(address, i);
+        }
+
+        for (int i = 0; i < algos.length; i++) {
+            algoByName.put(algos[i].getAlgo(), i);
+            for (MinerItem miner : algos[i].getMiners()) {
+                String key = miner.getMiner() + "|" + miner.getAlgo();
+                if (!minerByAlgo.containsKey(key)) minerByAlgo.put(key, miner);
+            }
+        }
+    }
+
+    public static Catalog get(Context context) {
+        Catalog catalog = instance;
+        if (catalog == null) {
+            synchronized (Catalog.class) {
+                catalog = instance;
+                if (catalog == null) {
+                    catalog = load(context.getApplicationContext());
+                    instance = catalog;
+                }
+            }
+        }
+        return catalog;
+    }
+
+    /**
+     * Saves a downloaded catalog and uses it from now on.
+     *
+     * @return false if it does not parse or is not newer than the current one
+     */
+    public static boolean install(Context context, String json) {
+        Catalog update;
+        try {
+            update = parse(json);
+        } catch (JSONException e) {
+            Log.w(LOG_TAG, "catalog: update rejected: " + e);
+            return false;
+        }
+
+        synchronized (Catalog.class) {
+            if (update.version <= get(context).version) return false;
+
+            File file = getUpdateFile(context);
+            File tmp = new File(file.getPath() + ".tmp");
+            try {
+                FileOutputStream out = new FileOutputStream(tmp);
+                try {
+                    out.write(json.getBytes("UTF-8"));
+                } finally {
+                    out.close();
+                }
+                if (!tmp.renameTo(file)) throw new IOException("rename failed: " + tmp);
+            } catch (IOException e) {
+                Log.w(LOG_TAG, "catalog: can't save update: " + e);
+                tmp.delete();
+                return false;
+            }
+
+            instance = update;
+        }
+        return true;
+    }
+
+    public PoolItem[] getPools() {
+        return pools.clone();
+    }
+
+    public AlgoItem[] getAlgos() {
+        return algos.clone();
+    }
+
+    public PoolItem getPool(String key) {
+        Integer index = poolByKey.get(key);
+        return index != null ? pools[index] : null;
+    }
+
+    /**
+     * @return position of the pool with this address and algo, -1 if there is none
+     */
+    public int indexOfPool(String address, String algo) {
+        Integer index = poolByAddress.get(addressKey(address, algo));
+        return index != null ? index : -1;
+    }
+
+    public int indexOfAlgo(String algo) {
+        Integer index = algoByName.get(algo);
+        return index != null ? index : -1;
+    }
+
+    public AlgoItem getAlgo(String algo) {
+        Integer index = algoByName.get(algo);
+        return index != null ? algos[index] : null;
+    }
+
+    public MinerItem findMiner(String miner, String minerAlgo) {
+        return minerByAlgo.get(miner + "|" + minerAlgo);
+    }
+
+    private static String addressKey(String address, String algo) {
+        return address + "|" + algo;
+    }
+
+    private static File getUpdateFile(Context context) {
+        return new File(context.getDir("catalog", Context.MODE_PRIVATE), ASSET_NAME);
+    }
+
+    // the newer of the bundled catalog and a saved update
+    private static Catalog load(Context context) {
+        Catalog bundled;
+        try {
+            bundled = parse(read(context.getAssets().open(ASSET_NAME)));
+        } catch (IOException | JSONException e) {
+            throw new RuntimeException(e);
+        }
+
+        File file = getUpdateFile(context);
+        if (file.exists()) {
+            try {
+                Catalog update = parse(read(new FileInputStream(file)));
+                if (update.version > bundled.version) {
+                    Log.i(LOG_TAG, "catalog: using update version " + update.version);
+                    return update;
+                }
+            } catch (IOException | JSONException e) {
+                Log.w(LOG_TAG, "catalog: ignoring broken update: " + e);
+            }
+            // an app update brought a newer catalog
+            file.delete();
+        }
+
+        return bundled;
+    }
+
+    private static Catalog parse(String json) throws JSONException {
+        JSONObject root = new JSONObject(json);
+
+        JSONArray algosJson = root.getJSONArray("algos");
+        AlgoItem[] algos = new AlgoItem[algosJson.length()];
+        for (int i = 0; i < algos.length; i++) {
+            JSONObject algo = algosJson.getJSONObject(i);
+            JSONArray minersJson = algo.getJSONArray("miners");
+            ArrayList<MinerItem> miners = new ArrayList<>(minersJson.length());
+            for (int j = 0; j < minersJson.length(); j++) {
+                JSONObject miner = minersJson.getJSONObject(j);
+                miners.add(new MinerItem(miner.getString("miner"), miner.getString("algo"), miner.getString("asset")));
+            }
+            algos[i] = new AlgoItem(algo.getString("algo"), algo.getString("defaultMiner"), miners, algo.optInt("scratchpadKb", 0));
+        }
+
+        JSONArray poolsJson = root.getJSONArray("pools");
+        PoolItem[] pools = new PoolItem[poolsJson.length()];
+        for (int i = 0; i < pools.length; i++) {
+            JSONObject pool = poolsJson.getJSONObject(i);
+            pools[i] = new PoolItem(
+                    pool.getString("key"),
+                    pool.getString("coin"),
+                    pool.optString("pool", ""),
+                    pool.optString("algo", ""),
+                    pool.optString("apiUrl", ""),
+                    pool.optString("poolUrl", ""),
+                    pool.optString("statsUrl", ""),
+                    pool.optString("startUrl", ""),
+                    pool.optString("apiUrlMerged", ""));
+        }
+
+        return new Catalog(root.getInt("version"), pools, algos);
+    }
+
+    private static String read(InputStream in) throws IOException {
+        try {
+            ByteArrayOutputStream out = new ByteArrayOutputStream(8192);
+            byte[] buffer = new byte[8192];
+            int read;
+            while ((read = in.read(buffer)) > 0) {
+                out.write(buffer, 0, read);
+            }
+            return out.toString("UTF-8");
+        } finally {
+            in.close();
+        }
+    }
+}
@@ -0,0 +1,198 @@
+// Copyright (c) 2019, Mine2Gether.com
+//
+// Please see the included LICENSE file for more information.
+
+package m2g.mine2gether.androidminer;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * A miner config.json with $name$ placeholders, parsed once into literal
+ * text and slots.
+ * <p>
+ * A slot inside a JSON string ({@code "user": "$username$"}) takes its value
+ * as string content and escapes it. A slot outside of one
+ * ({@code "port": $httpport$}) writes numbers and booleans as they are, null
+ * as null, {@link Raw} values verbatim and anything else as a quoted string,
+ * so a password with a quote in it can't break the file.
+ * <p>
+ * {@link #bind(Map)} fills in some of the slots and returns a smaller
+ * template, {@link #render(Map)} fills in the rest. Placeholders without a
+ * value are left in the output as they were.
+ */
+public class ConfigTemplate {
+
+    // literals.length == slots.length + 1, literal i comes before slot i
+    private final String[] literals;
+    private final Slot[] slots;
+    private final int literalLength;
+
+    // reused by render()
+    private final StringBuilder buffer = new StringBuilder();
+
+    private ConfigTemplate(List<String> literals, List<Slot> slots) {
+        this.literals = literals.toArray(new String[0]);
+        this.slots = slots.toArray(new Slot[0]);
+
+        int length = 0;
+        for (String literal : this.literals) {
+            length += literal.length();
+        }
+        this.literalLength = length;
+    }
+
+    public static ConfigTemplate compile(String source) {
+        List<String> literals = new ArrayList<>();
+        List<Slot> slots = new ArrayList<>();
+
+        int literalStart = 0;
+        boolean inString = false;
+
+        for (int i = 0; i < source.length(); i++) {
+            char c = source.charAt(i);
+
+            if (c == '\\' && inString) {
+                i++;
+            } else if (c == '"') {
+                inString = !inString;
+            } else if (c == '$') {
+                int end = i + 1;
+                while (end < source.length() && isNameChar(source.charAt(end))) end++;
+
+                if (end > i + 1 && end < source.length() && source.charAt(end) == '$') {
+                    literals.add(source.substring(literalStart, i));
+                    slots.add(new Slot(source.substring(i + 1, end), inString));
+                    literalStart = end + 1;
+                    i = end;
+                }
+            }
+        }
+        literals.add(source.substring(literalStart));
+
+        return new ConfigTemplate(literals, slots);
+    }
+
+    /**
+     * The template with the slots that have a value in values filled in.
+     */
+    public ConfigTemplate bind(Map<String, ?> values) {
+        List<String> literals = new ArrayList<>();
+        List<Slot> slots = new ArrayList<>();
+
+        StringBuilder literal = new StringBuilder(this.literals[0]);
+        for (int i = 0; i < this.slots.length; i++) {
+            Slot slot = this.slots[i];
+            if (values.containsKey(slot.name)) {
+                appendValue(literal, slot, values.get(slot.name));
+            } else {
+                literals.add(literal.toString());
+                slots.add(slot);
+                literal.setLength(0);
+            }
+            literal.append(this.literals[i + 1]);
+        }
+        literals.add(literal.toString());
+
+        return new ConfigTemplate(literals, slots);
+    }
+
+    public synchronized String render(Map<String, ?> values) {
+        StringBuilder out = buffer;
+        out.setLength(0);
+        out.ensureCapacity(literalLength + slots.length * 32);
+
+        out.append(literals[0]);
+        for (int i = 0; i < slots.length; i++) {
+            Slot slot = slots[i];
+            if (values.containsKey(slot.name)) {
+                appendValue(out, slot, values.get(slot.name));
+            } else {
+                out.append('$').append(slot.name).append('$');
+            }
+            out.append(literals[i + 1]);
+        }
+
+        return out.toString();
+    }
+
+    private static void appendValue(StringBuilder out, Slot slot, Object value) {
+        if (slot.inString) {
+            appendEscaped(out, String.valueOf(value));
+        } else if (value == null) {
+            out.append("null");
+        } else if (value instanceof Raw) {
+            out.append(((Raw) value).json);
+        } else if (value instanceof Number || value instanceof Boolean) {
+            out.append(value);
+        } else {
+            out.append('"');
+            appendEscaped(out, value.toString());
+            out.append('"');
+        }
+    }
+
+    public static String quote(String value) {
+        StringBuilder out = new StringBuilder(value.length() + 2);
+        out.append('"');
+        appendEscaped(out, value);
+        out.append('"');
+        return out.toString();
+    }
+
+    public static void appendEscaped(StringBuilder out, String value) {
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            switch (c) {
+                case '"':
+                    out.append("\\\"");
+                    break;
+                case '\\':
+                    out.append("\\\\");
+                    break;
+                case '\n':
+                    out.append("\\n");
+                    break;
+                case '\r':
+                    out.append("\\r");
+                    break;
+                case '\t':
+                    out.append("\\t");
+                    break;
+                default:
+                    if (c < 0x20) {
+                        out.append(String.format(Locale.US, "\\u%04x", (int) c));
+                    } else {
+                        out.append(c);
+                    }
+            }
+        }
+    }
+
+    private static boolean isNameChar(char c) {
+        return (c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z') || (c >= '0' && c <= '9') || c == '_';
+    }
+
+    private static class Slot {
+        final String name;
+        final boolean inString;
+
+        Slot(String name, boolean inString) {
+            this.name = name;
+            this.inString = inString;
+        }
+    }
+
+    /**
+     * A value that already is JSON, like the CPU thread array.
+     */
+    public static class Raw {
+        public final String json;
+
+        public Raw(String json) {
+            this.json = json;
+        }
+    }
+}
@@ -0,0 +1,388 @@
+// Copyright (c) 2019, Mine2Gether.com
+//
+// Please see the included LICENSE file for more information.
+
+package m2g.mine2gether.androidminer;
+
+import android.util.Log;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileReader;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * The CPUs and clusters of the device, read from sysfs once and cached.
+ * <p>
+ * A cluster is a set of CPUs that share a clock (cpufreq related_cpus), on
+ * big.LITTLE SoCs that is one per core type. CPUs are ranked by
+ * cpu_capacity where the kernel has it and by cpuinfo_max_freq where not.
+ * Without any of it all CPUs end up in one cluster in index order, which is
+ * what the miner config used before.
+ * <p>
+ * The data and unified caches come from cpuN/cache/indexM, each cache once
+ * with the CPUs that share it, see {@link CacheModel}.
+ * <p>
+ * {@link #probe(File)} reads any directory laid out like
+ * /sys/devices/system/cpu, so fixture trees work too.
+ */
+public class CpuTopology {
+
+    private static final String LOG_TAG = "MiningSvc";
+
+    private static volatile CpuTopology instance;
+
+    // by CPU index
+    private final Cpu[] cpus;
+    // fastest first
+    private final Cluster[] clusters;
+    // by level, then by first CPU
+    private final Cache[] caches;
+
+    private CpuTopology(Cpu[] cpus, Cluster[] clusters, Cache[] caches) {
+        this.cpus = cpus;
+        this.clusters = clusters;
+        this.caches = caches;
+    }
+
+    public static CpuTopology get() {
+        CpuTopology topology = instance;
+        if (topology == null) {
+            synchronized (CpuTopology.class) {
+                topology = instance;
+                if (topology == null) {
+                    topology = probe(new File(Config.cpuSysfsPath));
+                    Log.i(LOG_TAG, "cpu topology: " + topology);
+                    instance = topology;
+                }
+            }
+        }
+        return topology;
+    }
+
+    public static CpuTopology probe(File root) {
+        int[] indexes = readCpuList(new File(root, "present"));
+        if (indexes.length == 0) indexes = listCpuDirs(root);
+        if (indexes.length == 0) {
+            indexes = new int[Runtime.getRuntime().availableProcessors()];
+            for (int i = 0; i < indexes.length; i++) indexes[i] = i;
+        }
+
+        Cpu[] cpus = new Cpu[indexes[indexes.length - 1] + 1];
+        for (int index : indexes) {
+            File dir = new File(root, "cpu" + index);
+            cpus[index] = new Cpu(index,
+                    readInt(new File(dir, "cpufreq/cpuinfo_max_freq")),
+                    readInt(new File(dir, "cpu_capacity")));
+        }
+
+        // group by shared clock, falling back to the topology siblings and then to equal speed
+        Map<String, List<Cpu>> groups = new LinkedHashMap<>();
+        for (Cpu cpu : cpus) {
+            if (cpu == null) continue;
+            File dir = new File(root, "cpu" + cpu.index);
+            int[] siblings = readCpuList(new File(dir, "cpufreq/related_cpus"));
+            if (siblings.length == 0) siblings = readCpuList(new File(dir, "topology/cluster_cpus_list"));
+            if (siblings.length == 0) siblings = readCpuList(new File(dir, "topology/core_siblings_list"));
+            String key = siblings.length > 0 ? Arrays.toString(siblings) : "speed " + cpu.capacity + "/" + cpu.maxFreqKhz;
+
+            List<Cpu> group = groups.get(key);
+            if (group == null) {
+                group = new ArrayList<>();
+                groups.put(key, group);
+            }
+            group.add(cpu);
+        }
+
+        List<Cluster> clusters = new ArrayList<>();
+        for (List<Cpu> group : groups.values()) {
+            clusters.add(new Cluster(group));
+        }
+        final boolean byCapacity = allHaveCapacity(cpus);
+        Collections.sort(clusters, new Comparator<Cluster>() {
+            @Override
+            public int compare(Cluster a, Cluster b) {
+                int speed = byCapacity ? compareInt(b.capacity, a.capacity) : compareInt(b.maxFreqKhz, a.maxFreqKhz);
+                return speed != 0 ? speed : compareInt(a.cpus[0], b.cpus[0]);
+            }
+        });
+
+        for (int i = 0; i < clusters.size(); i++) {
+            clusters.get(i).id = i;
+            for (int index : clusters.get(i).cpus) {
+                cpus[index].cluster = i;
+            }
+        }
+
+        return new CpuTopology(cpus, clusters.toArray(new Cluster[0]), readCaches(root, cpus));
+    }
+
+    private static Cache[] readCaches(File root, Cpu[] cpus) {
+        Map<String, Cache> caches = new LinkedHashMap<>();
+        for (Cpu cpu : cpus) {
+            if (cpu == null) continue;
+            String[] names = new File(root, "cpu" + cpu.index + "/cache").list();
+            if (names == null) continue;
+
+            for (String name : names) {
+                if (!name.startsWith("index")) continue;
+                File dir = new File(root, "cpu" + cpu.index + "/cache/" + name);
+                if ("Instruction".equals(readLine(new File(dir, "type")))) continue;
+
+                int level = readInt(new File(dir, "level"));
+                int sizeKb = parseSizeKb(readLine(new File(dir, "size")));
+                if (level <= 0 || sizeKb <= 0) continue;
+
+                int[] shared = readCpuList(new File(dir, "shared_cpu_list"));
+                if (shared.length == 0) shared = new int[]{cpu.index};
+
+                String key = level + " " + Arrays.toString(shared);
+                if (!caches.containsKey(key)) caches.put(key, new Cache(level, sizeKb, shared));
+            }
+        }
+
+        List<Cache> sorted = new ArrayList<>(caches.values());
+        Collections.sort(sorted, new Comparator<Cache>() {
+            @Override
+            public int compare(Cache a, Cache b) {
+                return a.level != b.level ? compareInt(a.level, b.level) : compareInt(a.cpus[0], b.cpus[0]);
+            }
+        });
+        return sorted.toArray(new Cache[0]);
+    }
+
+    // "512K", "2M" or bytes, 0 if it does not parse
+    static int parseSizeKb(String value) {
+        if (value == null || value.isEmpty()) return 0;
+        try {
+            char unit = Character.toUpperCase(value.charAt(value.length() - 1));
+            if (unit == 'K') return Integer.parseInt(value.substring(0, value.length() - 1));
+            if (unit == 'M') return Integer.parseInt(value.substring(0, value.length() - 1)) * 1024;
+            return Integer.parseInt(value) / 1024;
+        } catch (NumberFormatException e) {
+            return 0;
+        }
+    }
+
+    public int getCpuCount() {
+        int count = 0;
+        for (Cpu cpu : cpus) {
+            if (cpu != null) count++;
+        }
+        return count;
+    }
+
+    public Cpu getCpu(int index) {
+        return index >= 0 && index < cpus.length ? cpus[index] : null;
+    }
+
+    public Cluster[] getClusters() {
+        return clusters.clone();
+    }
+
+    public Cache[] getCaches() {
+        return caches.clone();
+    }
+
+    /**
+     * The outermost data cache the CPU can use, the larger one if two are on
+     * the same level. Null if sysfs has no cache information.
+     */
+    public Cache getLastLevelCache(int cpu) {
+        Cache last = null;
+        for (Cache cache : caches) {
+            if (!cache.contains(cpu)) continue;
+            if (last == null || cache.level > last.level || (cache.level == last.level && cache.sizeKb > last.sizeKb)) {
+                last = cache;
+            }
+        }
+        return last;
+    }
+
+    /**
+     * CPU indexes, the fastest cluster first and by index within a cluster.
+     *
+     * @param count at most this many
+     */
+    public int[] getFastestCpus(int count) {
+        int[] out = new int[Math.min(count, getCpuCount())];
+        int n = 0;
+        for (Cluster cluster : clusters) {
+            for (int i = 0; i < cluster.cpus.length && n < out.length; i++) {
+                out[n++] = cluster.cpus[i];
+            }
+        }
+        return out;
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder out = new StringBuilder();
+        for (Cluster cluster : clusters) {
+            if (out.length() > 0) out.append(" + ");
+            out.append(cluster);
+        }
+        for (Cache cache : caches) {
+            if (cache.level >= 2) out.append(", ").append(cache);
+        }
+        return out.toString();
+    }
+
+    private static boolean allHaveCapacity(Cpu[] cpus) {
+        for (Cpu cpu : cpus) {
+            if (cpu != null && cpu.capacity <= 0) return false;
+        }
+        return true;
+    }
+
+    private static int compareInt(int a, int b) {
+        return a < b ? -1 : (a == b ? 0 : 1);
+    }
+
+    private static int[] listCpuDirs(File root) {
+        String[] names = root.list();
+        if (names == null) return new int[0];
+
+        List<Integer> indexes = new ArrayList<>();
+        for (String name : names) {
+            if (name.matches("cpu\\d+")) indexes.add(Integer.parseInt(name.substring(3)));
+        }
+        Collections.sort(indexes);
+
+        int[] out = new int[indexes.size()];
+        for (int i = 0; i < out.length; i++) out[i] = indexes.get(i);
+        return out;
+    }
+
+    // "0-3,6", sorted; empty if the file is missing or unreadable
+    static int[] readCpuList(File file) {
+        String value = readLine(file);
+        if (value == null || value.isEmpty()) return new int[0];
+
+        List<Integer> indexes = new ArrayList<>();
+        try {
+            for (String part : value.split(",")) {
+                int dash = part.indexOf('-');
+                if (dash < 0) {
+                    indexes.add(Integer.parseInt(part.trim()));
+                } else {
+                    int last = Integer.parseInt(part.substring(dash + 1).trim());
+                    for (int i = Integer.parseInt(part.substring(0, dash).trim()); i <= last; i++) {
+                        indexes.add(i);
+                    }
+                }
+            }
+        } catch (NumberFormatException e) {
+            Log.w(LOG_TAG, "cpu topology: bad cpu list in " + file + ": " + value);
+            return new int[0];
+        }
+        Collections.sort(indexes);
+
+        int[] out = new int[indexes.size()];
+        for (int i = 0; i < out.length; i++) out[i] = indexes.get(i);
+        return out;
+    }
+
+    // 0 if missing
+    static int readInt(File file) {
+        String value = readLine(file);
+        if (value == null) return 0;
+        try {
+            return Integer.parseInt(value);
+        } catch (NumberFormatException e) {
+            return 0;
+        }
+    }
+
+    static String readLine(File file) {
+        if (!file.canRead()) return null;
+        try {
+            BufferedReader in = new BufferedReader(new FileReader(file));
+            try {
+                String line = in.readLine();
+                return line != null ? line.trim() : null;
+            } finally {
+                in.close();
+            }
+        } catch (IOException e) {
+            return null;
+        }
+    }
+
+    public static class Cpu {
+        public final int index;
+        // 0 where sysfs does not tell
+        public final int maxFreqKhz;
+        public final int capacity;
+        // position in getClusters()
+        public int cluster;
+
+        Cpu(int index, int maxFreqKhz, int capacity) {
+            this.index = index;
+            this.maxFreqKhz = maxFreqKhz;
+            this.capacity = capacity;
+        }
+    }
+
+    public static class Cluster {
+        // position in getClusters(), 0 is the fastest
+        public int id;
+        public final int[] cpus;
+        // of the fastest CPU in the cluster
+        public final int maxFreqKhz;
+        public final int capacity;
+
+        Cluster(List<Cpu> members) {
+            cpus = new int[members.size()];
+            int freq = 0;
+            int capacity = 0;
+            for (int i = 0; i < cpus.length; i++) {
+                Cpu cpu = members.get(i);
+                cpus[i] = cpu.index;
+                freq = Math.max(freq, cpu.maxFreqKhz);
+                capacity = Math.max(capacity, cpu.capacity);
+            }
+            Arrays.sort(cpus);
+            this.maxFreqKhz = freq;
+            this.capacity = capacity;
+        }
+
+        @Override
+        public String toString() {
+            String out = cpus.length + "x";
+            if (maxFreqKhz > 0) out += String.format(Locale.US, "%.2fGHz", maxFreqKhz / 1e6);
+            if (capacity > 0) out += "(" + capacity + ")";
+            return out + " " + Arrays.toString(cpus);
+        }
+    }
+
+    public static class Cache {
+        public final int level;
+        public final int sizeKb;
+        // the CPUs sharing it
+        public final int[] cpus;
+
+        Cache(int level, int sizeKb, int[] cpus) {
+            this.level = level;
+            this.sizeKb = sizeKb;
+            this.cpus = cpus;
+        }
+
+        public boolean contains(int cpu) {
+            return Arrays.binarySearch(cpus, cpu) >= 0;
+        }
+
+        @Override
+        public String toString() {
+            return "L" + level + " " + sizeKb + "K " + Arrays.toString(cpus);
+        }
+    }
+}
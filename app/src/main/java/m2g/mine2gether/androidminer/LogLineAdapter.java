@@ -0,0 +1,188 @@
+// Copyright (c) 2019, Mine2Gether.com
+//
+// Please see the included LICENSE file for more information.
+
+package m2g.mine2gether.androidminer;
+
+import android.support.v7.widget.RecyclerView;
+import android.view.LayoutInflater;
+import android.view.View;
+import android.view.ViewGroup;
+import android.widget.TextView;
+
+/**
+ * Shows the service's {@link LogRingBuffer} in a RecyclerView. Only the visible
+ * rows are bound, straight from the buffer, and the line sequence number is
+ * used as the stable id.
+ * <p>
+ * The adapter keeps its own window of sequence numbers and only moves it in
+ * {@link #sync()}, so the item count never changes behind RecyclerView's back
+ * while the reader thread keeps appending.
+ */
+public class LogLineAdapter extends RecyclerView.Adapter<LogLineAdapter.Holder> {
+
+    public static final int FILTER_ALL = MiningEventBus.MASK_ALL;
+
+    private final StringBuilder lineText = new StringBuilder();
+
+    private LogRingBuffer log;
+    private int filter = FILTER_ALL;
+    // lines before this one were cleared from the view, not from the buffer
+    private long floor = 0;
+
+    // unfiltered window [first, end)
+    private long first = 0;
+    private long end = 0;
+
+    // filtered window, sequences of matching lines in [filteredHead, filteredHead + filteredCount)
+    private long[] filtered = new long[64];
+    private int filteredHead = 0;
+    private int filteredCount = 0;
+
+    public LogLineAdapter() {
+        setHasStableIds(true);
+    }
+
+    public void setLog(LogRingBuffer log) {
+        this.log = log;
+        reload();
+    }
+
+    public void clear() {
+        if (log != null) floor = log.getNextSequence();
+        reload();
+    }
+
+    public void setFilter(int typeMask) {
+        filter = typeMask;
+        reload();
+    }
+
+    public int getFilter() {
+        return filter;
+    }
+
+    private boolean isFiltered() {
+        return filter != FILTER_ALL;
+    }
+
+    /**
+     * Catches up with the buffer.
+     *
+     * @return number of rows added at the end
+     */
+    public int sync() {
+        if (log == null) return 0;
+
+        long bufferFirst = Math.max(floor, log.getFirstSequence());
+        long bufferEnd = log.getNextSequence();
+
+        if (bufferEnd < end || bufferFirst > end) {
+            // cleared or we fell behind by more than the whole buffer
+            reload();
+            return getItemCount();
+        }
+
+        int removed;
+        int inserted;
+
+        if (isFiltered()) {
+            removed = 0;
+            while (filteredCount > 0 && filteredAt(0) < bufferFirst) {
+                filteredHead = (filteredHead + 1) % filtered.length;
+                filteredCount--;
+                removed++;
+            }
+            inserted = collect(end, bufferEnd);
+        } else {
+            removed = (int) (bufferFirst - first);
+            inserted = (int) (bufferEnd - end);
+        }
+
+        first = bufferFirst;
+        end = bufferEnd;
+
+        if (removed > 0) notifyItemRangeRemoved(0, removed);
+        if (inserted > 0) notifyItemRangeInserted(getItemCount() - inserted, inserted);
+
+        return inserted;
+    }
+
+    private void reload() {
+        filteredHead = 0;
+        filteredCount = 0;
+        if (log == null) {
+            first = 0;
+            end = 0;
+        } else {
+            first = Math.max(floor, log.getFirstSequence());
+            end = log.getNextSequence();
+            if (isFiltered()) collect(first, end);
+        }
+        notifyDataSetChanged();
+    }
+
+    private int collect(long from, long to) {
+        int added = 0;
+        for (long sequence = from; sequence < to; sequence++) {
+            int type = log.getType(sequence);
+            if (type >= 0 && (filter & (1 << type)) != 0) {
+                if (filteredCount == filtered.length) grow();
+                filtered[(filteredHead + filteredCount) % filtered.length] = sequence;
+                filteredCount++;
+                added++;
+            }
+        }
+        return added;
+    }
+
+    private void grow() {
+        long[] grown = new long[filtered.length * 2];
+        for (int i = 0; i < filteredCount; i++) {
+            grown[i] = filteredAt(i);
+        }
+        filtered = grown;
+        filteredHead = 0;
+    }
+
+    private long filteredAt(int position) {
+        return filtered[(filteredHead + position) % filtered.length];
+    }
+
+    private long sequenceAt(int position) {
+        return isFiltered() ? filteredAt(position) : first + position;
+    }
+
+    @Override
+    public int getItemCount() {
+        return isFiltered() ? filteredCount : (int) (end - first);
+    }
+
+    @Override
+    public long getItemId(int position) {
+        return sequenceAt(position);
+    }
+
+    @Override
+    public Holder onCreateViewHolder(ViewGroup parent, int viewType) {
+        View view = LayoutInflater.from(parent.getContext()).inflate(R.layout.log_line, parent, false);
+        return new Holder(view);
+    }
+
+    @Override
+    public void onBindViewHolder(Holder holder, int position) {
+        lineText.setLength(0);
+        // a line evicted since the last sync just shows up empty until the next one
+        if (log != null) log.getLine(sequenceAt(position), lineText);
+        holder.text.setText(lineText.toString());
+    }
+
+    static class Holder extends RecyclerView.ViewHolder {
+        final TextView text;
+
+        Holder(View itemView) {
+            super(itemView);
+            text = (TextView) itemView;
+        }
+    }
+}
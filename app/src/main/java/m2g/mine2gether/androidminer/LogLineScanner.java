@@ -0,0 +1,91 @@
+// Copyright (c) 2019, Mine2Gether.com
+//
+// Please see the included LICENSE file for more information.
+
+package m2g.mine2gether.androidminer;
+
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Splits a raw process stream into lines inside one reusable byte buffer.
+ * No objects are created per line; the handler gets the same {@link MinerLogLine}
+ * view every time and decides itself whether the text is worth decoding.
+ */
+public class LogLineScanner {
+
+    private static final int INITIAL_BUFFER = 8192;
+    private static final int MAX_LINE_LENGTH = 65536;
+
+    private final InputStream inputStream;
+    private final MinerLogLine line = new MinerLogLine();
+    private byte[] buf = new byte[INITIAL_BUFFER];
+
+    public LogLineScanner(InputStream inputStream) {
+        this.inputStream = inputStream;
+    }
+
+    /**
+     * Reads until end of stream or until the calling thread is interrupted.
+     */
+    public void scan(LineHandler handler) throws IOException {
+        int filled = 0;
+        int lineStart = 0;
+        int searchFrom = 0;
+
+        while (!Thread.currentThread().isInterrupted()) {
+
+            if (filled == buf.length) {
+                if (lineStart > 0) {
+                    System.arraycopy(buf, lineStart, buf, 0, filled - lineStart);
+                    filled -= lineStart;
+                    searchFrom -= lineStart;
+                    lineStart = 0;
+                } else if (buf.length < MAX_LINE_LENGTH) {
+                    byte[] grown = new byte[buf.length * 2];
+                    System.arraycopy(buf, 0, grown, 0, filled);
+                    buf = grown;
+                } else {
+                    // overlong line, hand out what we have
+                    emit(handler, 0, filled);
+                    filled = 0;
+                    searchFrom = 0;
+                }
+            }
+
+            int read = inputStream.read(buf, filled, buf.length - filled);
+            if (read < 0) break;
+            filled += read;
+
+            for (int i = searchFrom; i < filled; i++) {
+                if (buf[i] == '\n') {
+                    emit(handler, lineStart, i - lineStart);
+                    lineStart = i + 1;
+                }
+            }
+            searchFrom = filled;
+
+            if (lineStart == filled) {
+                filled = 0;
+                lineStart = 0;
+                searchFrom = 0;
+            }
+        }
+
+        if (filled > lineStart) {
+            emit(handler, lineStart, filled - lineStart);
+        }
+    }
+
+    private void emit(LineHandler handler, int start, int length) {
+        if (length > 0 && buf[start + length - 1] == '\r') {
+            length--;
+        }
+        line.set(buf, start, length);
+        handler.onLine(line);
+    }
+
+    public interface LineHandler {
+        void onLine(MinerLogLine line);
+    }
+}
@@ -0,0 +1,179 @@
+// Copyright (c) 2019, Mine2Gether.com
+//
+// Please see the included LICENSE file for more information.
+
+package m2g.mine2gether.androidminer;
+
+/**
+ * Fixed capacity store for the miner log. Text goes into one circular char
+ * array and every line gets a small record (start, length, type), so appending
+ * and evicting a line are O(1) no matter how full the log is.
+ * <p>
+ * Lines are addressed by a sequence number that keeps counting up across
+ * evictions, which makes it usable as a stable id by views.
+ */
+public class LogRingBuffer {
+
+    private final char[] chars;
+    private final int[] lineStart;
+    private final int[] lineLength;
+    private final int[] lineType;
+
+    // slot of the oldest line and number of lines held
+    private int head = 0;
+    private int count = 0;
+    private long firstSequence = 0;
+
+    private int charHead = 0;
+    private int charCount = 0;
+
+    public LogRingBuffer(int maxChars, int maxLines) {
+        chars = new char[maxChars];
+        lineStart = new int[maxLines];
+        lineLength = new int[maxLines];
+        lineType = new int[maxLines];
+    }
+
+    public long append(MinerLogLine line, int type) {
+        // non ascii lines have to be decoded, charAt() only maps single bytes
+        return append(line.isAscii() ? line : line.toString(), type);
+    }
+
+    /**
+     * @return the sequence number of the new line
+     */
+    public synchronized long append(CharSequence text, int type) {
+        int length = Math.min(text.length(), chars.length);
+
+        while (count > 0 && (count == lineStart.length || charCount + length > chars.length)) {
+            evictOldest();
+        }
+
+        int slot = (head + count) % lineStart.length;
+        int start = (charHead + charCount) % chars.length;
+
+        lineStart[slot] = start;
+        lineLength[slot] = length;
+        lineType[slot] = type;
+
+        int firstPart = Math.min(length, chars.length - start);
+        for (int i = 0; i < firstPart; i++) {
+            chars[start + i] = text.charAt(i);
+        }
+        for (int i = firstPart; i < length; i++) {
+            chars[i - firstPart] = text.charAt(i);
+        }
+
+        charCount += length;
+        count++;
+
+        return firstSequence + count - 1;
+    }
+
+    private void evictOldest() {
+        // lines are stored back to back, so the oldest one always starts at charHead
+        charHead = (charHead + lineLength[head]) % chars.length;
+        charCount -= lineLength[head];
+        head = (head + 1) % lineStart.length;
+        count--;
+        firstSequence++;
+
+        if (count == 0) {
+            charHead = 0;
+            charCount = 0;
+        }
+    }
+
+    public synchronized void clear() {
+        firstSequence += count;
+        head = 0;
+        count = 0;
+        charHead = 0;
+        charCount = 0;
+    }
+
+    public synchronized int size() {
+        return count;
+    }
+
+    public synchronized long getFirstSequence() {
+        return firstSequence;
+    }
+
+    // sequence number the next appended line will get
+    public synchronized long getNextSequence() {
+        return firstSequence + count;
+    }
+
+    /**
+     * Copies line {@code sequence} into {@code out}.
+     *
+     * @return false if the line has already been evicted or does not exist yet
+     */
+    public synchronized boolean getLine(long sequence, StringBuilder out) {
+        int slot = slotOf(sequence);
+        if (slot < 0) return false;
+        copyLine(slot, out);
+        return true;
+    }
+
+    public synchronized String getLine(long sequence) {
+        StringBuilder out = new StringBuilder();
+        return getLine(sequence, out) ? out.toString() : null;
+    }
+
+    // type of the line or -1 if it is not held anymore
+    public synchronized int getType(long sequence) {
+        int slot = slotOf(sequence);
+        return slot < 0 ? -1 : lineType[slot];
+    }
+
+    /**
+     * Visits the held lines oldest first without copying them. The visitor runs
+     * under the buffer lock and must not keep the array or call back into the buffer.
+     */
+    public synchronized void forEach(LineVisitor visitor) {
+        for (int i = 0; i < count; i++) {
+            int slot = (head + i) % lineStart.length;
+            int start = lineStart[slot];
+            int length = lineLength[slot];
+            int firstPart = Math.min(length, chars.length - start);
+            visitor.onLine(firstSequence + i, lineType[slot], chars, start, firstPart, length - firstPart);
+        }
+    }
+
+    public synchronized void appendTo(StringBuilder out, String separator) {
+        for (int i = 0; i < count; i++) {
+            copyLine((head + i) % lineStart.length, out);
+            out.append(separator);
+        }
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder out = new StringBuilder();
+        appendTo(out, System.lineSeparator());
+        return out.toString();
+    }
+
+    private int slotOf(long sequence) {
+        if (sequence < firstSequence || sequence >= firstSequence + count) return -1;
+        return (int) ((head + (sequence - firstSequence)) % lineStart.length);
+    }
+
+    private void copyLine(int slot, StringBuilder out) {
+        int start = lineStart[slot];
+        int length = lineLength[slot];
+        int firstPart = Math.min(length, chars.length - start);
+        out.append(chars, start, firstPart);
+        if (length > firstPart) {
+            out.append(chars, 0, length - firstPart);
+        }
+    }
+
+    public interface LineVisitor {
+        // a line that wraps around the end of the array arrives in two parts,
+        // the second one always starting at index 0
+        void onLine(long sequence, int type, char[] chars, int start, int length, int wrappedLength);
+    }
+}
@@ -31,7 +31,6 @@ import android.content.Context;
 import android.content.Intent;
 import android.content.IntentFilter;
 import android.content.ServiceConnection;
-import android.content.SharedPreferences;
 import android.graphics.Color;
 import android.graphics.drawable.Drawable;
 import android.os.BatteryManager;
@@ -46,12 +45,13 @@ import android.support.v4.view.GravityCompat;
 import android.support.v4.widget.DrawerLayout;
 import android.support.v7.app.ActionBarDrawerToggle;
 import android.support.v7.app.AppCompatActivity;
+import android.support.v7.widget.LinearLayoutManager;
+import android.support.v7.widget.RecyclerView;
 import android.support.v7.widget.Toolbar;
 import android.util.Log;
 import android.view.MenuItem;
 import android.view.View;
 import android.widget.Button;
-import android.widget.ScrollView;
 import android.widget.TextView;
 import android.widget.Toast;
 
@@ -60,23 +60,26 @@ import java.util.Arrays;
 public class MainActivity extends AppCompatActivity implements NavigationView.OnNavigationItemSelectedListener {
     private static final String LOG_TAG = "MiningSvc";
     private final static String[] SUPPORTED_ARCHITECTURES = {"arm64-v8a", "armeabi-v7a", "x86", "x86_64"};
-    public static SharedPreferences preferences;
     public static Context contextOfApplication;
     static boolean lastIsCharging = false;
     boolean accepted = false;
     private DrawerLayout drawer;
-    private TextView tvLog;
+    private RecyclerView rvLog;
+    private LogLineAdapter logAdapter;
     private TextView edStatus;
     private TextView tvMiningTo;
     private TextView tvSpeed, tvAccepted;
     private boolean validArchitecture = true;
     private MiningService.MiningServiceBinder binder;
-    private ScrollView svOutput;
     private PowerManager pm;
     private PowerManager.WakeLock wl;
     private Button minerBtn1, minerBtn2, minerBtn3;
+    private Button logFilterBtn;
     private boolean minerPaused = false;
     private boolean clearMinerLog = true;
+    private MiningEventBus.Subscription eventSubscription;
+    private MiningEventBus.Subscription logSubscription;
+    private StatusRenderer statusRenderer;
     private ServiceConnection serverConnection = new ServiceConnection() {
         @Override
         public void onServiceConnected(ComponentName componentName, IBinder iBinder) {
@@ -96,46 +99,53 @@ public class MainActivity extends AppCompatActivity implements NavigationView.On
 
                 setMiningButtonState(binder.getService().getMiningServiceState());
 
-                binder.getService().setMiningServiceStateListener(new MiningService.MiningServiceStateListener() {
-                    @Override
-                    public void onStateChange(Boolean state) {
-                        Log.i(LOG_TAG, "onMiningStateChange: " + state);
-                        runOnUiThread(() -> {
-                            setMiningButtonState(state);
-                            if (state) {
-                                if (clearMinerLog == true) {
-                                    tvLog.setText("");
-                                    tvAccepted.setText("0");
-                                    tvSpeed.setText("0");
-                                }
-                                clearMinerLog = true;
-                                Toast.makeText(contextOfApplication, "Miner Started", Toast.LENGTH_SHORT).show();
-                            } else {
-                                Toast.makeText(contextOfApplication, "Miner Stopped", Toast.LENGTH_SHORT).show();
+                eventSubscription = binder.getService().getEventBus().subscribe(
+                        new MiningEventBus.Subscriber() {
+                            @Override
+                            public void onMiningEvent(MiningEvent event) {
+                                onMinerEvent(event);
                             }
-                        });
-                    }
-
-                    @Override
-                    public void onStatusChange(String status, String speed, Integer accepted) {
-                        runOnUiThread(() -> {
-                            appendLogOutputText(status);
-                            tvAccepted.setText(Integer.toString(accepted));
-                            tvSpeed.setText(speed);
-                        });
-                    }
+                        },
+                        MiningEventBus.mainThread(),
+                        MiningEventBus.mask(MiningEvent.TYPE_STATE_CHANGE, MiningEvent.TYPE_HASHRATE,
+                                MiningEvent.TYPE_SHARE_ACCEPTED, MiningEvent.TYPE_SHARE_REJECTED),
+                        Config.uiEventQueueSize,
+                        MiningEventBus.POLICY_DROP_OLDEST);
+
+                // the log view reads the lines from the service, it only needs to know that there are new ones
+                logAdapter.setLog(binder.getService().getLog());
+                logSubscription = binder.getService().getEventBus().subscribe(
+                        new MiningEventBus.Subscriber() {
+                            @Override
+                            public void onMiningEvent(MiningEvent event) {
+                                statusRenderer.onLogAppended();
+                            }
+                        },
+                        MiningEventBus.mainThread(),
+                        MiningEventBus.mask(MiningEvent.TYPE_LOG_APPENDED),
+                        1,
+                        MiningEventBus.POLICY_COALESCE);
 
-                });
+                binder.getService().requestStats();
 
             }
         }
 
         @Override
         public void onServiceDisconnected(ComponentName componentName) {
+            eventSubscription = null;
+            logSubscription = null;
             binder = null;
             enableButtons(false);
         }
     };
+    private ProfileStore profileStore;
+    private final ProfileStore.Listener profileListener = new ProfileStore.Listener() {
+        @Override
+        public void onProfileChanged(MiningProfile profile) {
+            updateUI();
+        }
+    };
     private BroadcastReceiver batteryInfoReceiver = new BroadcastReceiver() {
         @Override
         public void onReceive(Context c, Intent batteryStatus) {
@@ -148,7 +158,7 @@ public class MainActivity extends AppCompatActivity implements NavigationView.On
 
             Toast.makeText(contextOfApplication, (isCharging ? "Device Charging" : "Device on Battery"), Toast.LENGTH_SHORT).show();
 
-            if (PreferenceHelper.getName("pauseonbattery").equals("0") == true) {
+            if (!profileStore.getProfile().pauseOnBattery) {
                 minerPaused = false;
                 clearMinerLog = true;
                 return;
@@ -182,9 +192,8 @@ public class MainActivity extends AppCompatActivity implements NavigationView.On
 
     @Override
     protected void onCreate(Bundle savedInstanceState) {
-        preferences = getSharedPreferences(getPackageName() + "_preferences", MODE_PRIVATE);
-
-        //PreferenceHelper.clear();
+        profileStore = ProfileStore.get(this);
+        profileStore.addListener(profileListener);
 
         contextOfApplication = getApplicationContext();
 
@@ -200,15 +209,13 @@ public class MainActivity extends AppCompatActivity implements NavigationView.On
 
         registerReceiver(batteryInfoReceiver, new IntentFilter(Intent.ACTION_BATTERY_CHANGED));
 
-        String isshowagain = PreferenceHelper.getName("show_again");
-
-        if (isshowagain.equals("")) {
+        if (!profileStore.getProfile().disclaimerAccepted) {
             showdialog();
         }
 
         super.onCreate(savedInstanceState);
 
-        if (PreferenceHelper.getName("address").equals("")) {
+        if (profileStore.getProfile().address.equals("")) {
             setContentView(R.layout.activity_main);
             getSupportFragmentManager().beginTransaction().replace(R.id.fragment_container, new SettingsFragment()).commit();
         } else {
@@ -232,12 +239,19 @@ public class MainActivity extends AppCompatActivity implements NavigationView.On
         enableButtons(false);
 
         // wire views
-        tvLog = findViewById(R.id.output);
+        rvLog = findViewById(R.id.output);
         tvSpeed = findViewById(R.id.speed);
         tvAccepted = findViewById(R.id.accepted);
         edStatus = findViewById(R.id.status);
         tvMiningTo = findViewById(R.id.miningTo);
-        svOutput = findViewById(R.id.outputScrollView);
+        logFilterBtn = (Button) findViewById(R.id.logFilter);
+
+        logAdapter = new LogLineAdapter();
+        rvLog.setLayoutManager(new LinearLayoutManager(this));
+        rvLog.setItemAnimator(null);
+        rvLog.setAdapter(logAdapter);
+
+        statusRenderer = new StatusRenderer(rvLog, logAdapter, tvSpeed, tvAccepted, Config.uiFlushIntervalMs);
 
         minerBtn1 = (Button) findViewById(R.id.minerBtn1);
         minerBtn2 = (Button) findViewById(R.id.minerBtn2);
@@ -273,6 +287,12 @@ public class MainActivity extends AppCompatActivity implements NavigationView.On
             }
         });
 
+        logFilterBtn.setOnClickListener(new View.OnClickListener() {
+            public void onClick(View v) {
+                toggleLogFilter();
+            }
+        });
+
     }
 
     private void setStatusText(String status) {
@@ -288,17 +308,19 @@ public class MainActivity extends AppCompatActivity implements NavigationView.On
 
     public void updateUI() {
 
+        MiningProfile profile = profileStore.getProfile();
+
         String status = "";
-        if (PreferenceHelper.getName("address").equals("")) {
+        if (profile.address.equals("")) {
             status = "Update your Wallet Address in 'Settings'";
         }
 
         setStatusText(status);
 
         String miningTo = "Mining to:";
-        String pool = PreferenceHelper.getName("pool");
-        String algo = PreferenceHelper.getName("algo");
-        String miner = PreferenceHelper.getName("miner");
+        String pool = profile.pool;
+        String algo = profile.algo;
+        String miner = profile.miner;
 
         if (pool.equals("") == false) {
             miningTo += "\n" + pool;
@@ -389,7 +411,9 @@ public class MainActivity extends AppCompatActivity implements NavigationView.On
             @Override
             public void onClick(View v) {
                 accepted = true;
-                PreferenceHelper.setName("show_again", "1");
+                MiningProfile.Builder profile = profileStore.getProfile().edit();
+                profile.disclaimerAccepted = true;
+                profileStore.update(profile.build());
                 dialog.dismiss();
             }
         });
@@ -405,21 +429,12 @@ public class MainActivity extends AppCompatActivity implements NavigationView.On
     private void startMining(View view) {
         if (binder == null) return;
 
-        if (PreferenceHelper.getName("init").equals("1") == false) {
+        MiningProfile profile = profileStore.getProfile();
+        if (!profile.saved) {
             Toast.makeText(contextOfApplication, "Save settings before mining.", Toast.LENGTH_SHORT).show();
             return;
         }
 
-        String pool = PreferenceHelper.getName("pool");
-        String pass = PreferenceHelper.getName("pass");
-        String address = PreferenceHelper.getName("address");
-        String algo = PreferenceHelper.getName("minerAlgo");
-        String assetExtension = PreferenceHelper.getName("assetExtension");
-
-        int cores = Integer.parseInt(PreferenceHelper.getName("cores"));
-        int threads = Integer.parseInt(PreferenceHelper.getName("threads"));
-        int intensity = Integer.parseInt(PreferenceHelper.getName("intensity"));
-
         /*
         int av = 1;
 
@@ -428,15 +443,7 @@ public class MainActivity extends AppCompatActivity implements NavigationView.On
         }
         */
 
-        MiningService.MiningConfig cfg = binder.getService().newConfig(
-                address,
-                pool,
-                pass,
-                cores,
-                threads,
-                intensity,
-                algo,
-                assetExtension);
+        MiningService.MiningConfig cfg = binder.getService().newConfig(profile);
 
         binder.getService().startMining(cfg);
 
@@ -459,6 +466,19 @@ public class MainActivity extends AppCompatActivity implements NavigationView.On
         super.onPause();
     }
 
+    @Override
+    protected void onDestroy() {
+        statusRenderer.cancel();
+        profileStore.removeListener(profileListener);
+        if (binder != null) {
+            binder.getService().getEventBus().unsubscribe(eventSubscription);
+            binder.getService().getEventBus().unsubscribe(logSubscription);
+            eventSubscription = null;
+            logSubscription = null;
+        }
+        super.onDestroy();
+    }
+
     private void setMiningState(View view) {
         if (binder == null) return;
         if (binder.getService().getMiningServiceState()) {
@@ -492,23 +512,46 @@ public class MainActivity extends AppCompatActivity implements NavigationView.On
 
     }
 
-    private void appendLogOutputText(String line) {
+    // runs on the main thread
+    private void onMinerEvent(MiningEvent event) {
+        switch (event.getType()) {
+            case MiningEvent.TYPE_STATE_CHANGE:
+                boolean state = ((MiningEvent.StateChange) event).running;
+                Log.i(LOG_TAG, "onMiningStateChange: " + state);
+                // between a crash and the supervisor's restart the button still stops mining
+                setMiningButtonState(state || (binder != null && binder.getService().getMiningServiceState()));
+                if (state) {
+                    if (clearMinerLog == true) {
+                        statusRenderer.reset();
+                    }
+                    clearMinerLog = true;
+                    Toast.makeText(contextOfApplication, "Miner Started", Toast.LENGTH_SHORT).show();
+                } else {
+                    Toast.makeText(contextOfApplication, "Miner Stopped", Toast.LENGTH_SHORT).show();
+                }
+                break;
+            case MiningEvent.TYPE_HASHRATE:
+                double speed = ((MiningEvent.HashrateSample) event).current();
+                if (!Double.isNaN(speed)) statusRenderer.setSpeed(speed);
+                break;
+            case MiningEvent.TYPE_SHARE_ACCEPTED:
+                statusRenderer.setAccepted(((MiningEvent.ShareAccepted) event).accepted);
+                break;
+            case MiningEvent.TYPE_SHARE_REJECTED:
+                statusRenderer.setAccepted(((MiningEvent.ShareRejected) event).accepted);
+                break;
+        }
+    }
 
-        if (tvLog.length() > Config.logMaxLength) {
-            if (binder != null) {
-                tvLog.setText(binder.getService().getOutput());
-            }
+    private void toggleLogFilter() {
+        if (logAdapter.getFilter() == LogLineAdapter.FILTER_ALL) {
+            logAdapter.setFilter(Config.logEventFilter);
+            Toast.makeText(contextOfApplication, "Showing miner events only", Toast.LENGTH_SHORT).show();
         } else {
-            tvLog.append(line + System.lineSeparator());
+            logAdapter.setFilter(LogLineAdapter.FILTER_ALL);
+            Toast.makeText(contextOfApplication, "Showing full log", Toast.LENGTH_SHORT).show();
         }
-
-        svOutput.postDelayed(new Runnable() {
-            @Override
-            public void run() {
-                svOutput.fullScroll(View.FOCUS_DOWN);
-            }
-        }, 50);
-
+        rvLog.scrollToPosition(Math.max(0, logAdapter.getItemCount() - 1));
     }
 
     private void enableButtons(boolean enabled) {
@@ -0,0 +1,247 @@
+// Copyright (c) 2019, Mine2Gether.com
+//
+// Please see the included LICENSE file for more information.
+
+package m2g.mine2gether.androidminer;
+
+import android.util.Log;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.io.BufferedReader;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.util.Arrays;
+
+/**
+ * Polls the miner's HTTP API (/1/summary and /2/backends) on the loopback
+ * interface and publishes the result as {@link MiningEvent.MinerApiStats} and
+ * {@link MiningEvent.HashrateSample}. With a {@link Listener} the stats go to
+ * the listener instead, which publishes them itself, e.g. merged with other
+ * miners.
+ * <p>
+ * The schedule adapts: {@link Config#apiPollWarmupMs} until the miner reports a
+ * hashrate, {@link Config#apiPollIntervalMs} while someone on the bus listens
+ * for stats and {@link Config#apiPollIdleMs} otherwise. Failed polls back off
+ * up to the idle interval, so does the warm-up after
+ * {@link Config#apiPollWarmupLimitMs} without an answer. {@link #requestPoll()} polls right away, e.g. when
+ * the UI comes back.
+ */
+public class MinerApiPoller extends Thread {
+
+    private static final String LOG_TAG = "MiningSvc";
+
+    public interface Listener {
+        void onStats(MiningEvent.MinerApiStats stats);
+    }
+
+    private final String baseUrl;
+    private final String token;
+    private final MiningEventBus eventBus;
+    private final Listener listener;
+
+    private final Object lock = new Object();
+    private boolean pollRequested = false;
+
+    // xmrig 2.x only has /1/summary, its per-thread rates are in hashrate.threads
+    private boolean hasBackends = true;
+    private boolean connected = false;
+    private int warmupPolls = 0;
+    private int failures = 0;
+
+    public MinerApiPoller(String host, int port, String token, MiningEventBus eventBus, Listener listener) {
+        super("MinerApiPoller");
+        this.baseUrl = "http://" + host + ":" + port;
+        this.token = token;
+        this.eventBus = eventBus;
+        this.listener = listener;
+    }
+
+    // miners whose config template has the $httpport$ slot with the API bound to
+    // 127.0.0.1; xmrig 2.x cannot bind it, so it keeps the stdout parsing
+    public static boolean isSupported(String assetExtension) {
+        return Config.asset_xmrig.equals(assetExtension)
+                || Config.asset_xmrigcc.equals(assetExtension);
+    }
+
+    public void requestPoll() {
+        synchronized (lock) {
+            pollRequested = true;
+            lock.notify();
+        }
+    }
+
+    public void close() {
+        interrupt();
+    }
+
+    @Override
+    public void run() {
+        long delay = Config.apiPollWarmupMs;
+        try {
+            while (!isInterrupted()) {
+                synchronized (lock) {
+                    if (!pollRequested) lock.wait(delay);
+                    pollRequested = false;
+                }
+                delay = poll();
+            }
+        } catch (InterruptedException e) {
+            // closed
+        }
+    }
+
+    // one round trip, returns the delay until the next one
+    long poll() {
+        MiningEvent.MinerApiStats stats;
+        try {
+            JSONObject summary = new JSONObject(get("/1/summary"));
+            JSONArray backends = null;
+            if (hasBackends) {
+                try {
+                    backends = new JSONArray(get("/2/backends"));
+                } catch (FileNotFoundException e) {
+                    hasBackends = false;
+                }
+            }
+            stats = parse(summary, backends);
+        } catch (IOException | JSONException e) {
+            // the miner opens the port a moment after it starts, but not never
+            if (!connected && ++warmupPolls * Config.apiPollWarmupMs < Config.apiPollWarmupLimitMs) {
+                return Config.apiPollWarmupMs;
+            }
+            if (failures++ == 0) Log.w(LOG_TAG, "miner api: " + e + (connected ? "" : ", not answering since the start"));
+            return Math.min(Config.apiPollIdleMs, Config.apiPollIntervalMs << Math.min(failures, 4));
+        }
+
+        connected = true;
+        failures = 0;
+
+        if (listener != null) {
+            listener.onStats(stats);
+        } else {
+            eventBus.publish(stats);
+            if (!Double.isNaN(stats.hashrate.current())) eventBus.publish(stats.hashrate);
+        }
+
+        if (Double.isNaN(stats.hashrate.rate10s)) return Config.apiPollWarmupMs;
+        if (eventBus.isWanted(MiningEvent.TYPE_API_STATS) || eventBus.isWanted(MiningEvent.TYPE_HASHRATE)) {
+            return Config.apiPollIntervalMs;
+        }
+        return Config.apiPollIdleMs;
+    }
+
+    private String get(String path) throws IOException {
+        HttpURLConnection connection = (HttpURLConnection) new URL(baseUrl + path).openConnection();
+        try {
+            connection.setConnectTimeout(Config.apiTimeoutMs);
+            connection.setReadTimeout(Config.apiTimeoutMs);
+            connection.setUseCaches(false);
+            if (token != null) connection.setRequestProperty("Authorization", "Bearer " + token);
+
+            // 404 surfaces as FileNotFoundException
+            BufferedReader in = new BufferedReader(new InputStreamReader(connection.getInputStream(), "UTF-8"));
+            try {
+                StringBuilder body = new StringBuilder();
+                char[] buf = new char[4096];
+                int read;
+                while ((read = in.read(buf)) > 0) {
+                    body.append(buf, 0, read);
+                }
+                return body.toString();
+            } finally {
+                in.close();
+            }
+        } finally {
+            connection.disconnect();
+        }
+    }
+
+    static MiningEvent.MinerApiStats parse(JSONObject summary, JSONArray backends) {
+
+        JSONObject hashrate = summary.optJSONObject("hashrate");
+        JSONArray total = hashrate != null ? hashrate.optJSONArray("total") : null;
+        MiningEvent.HashrateSample sample = new MiningEvent.HashrateSample(
+                rate(total, 0), rate(total, 1), rate(total, 2),
+                hashrate != null ? hashrate.optDouble("highest", Double.NaN) : Double.NaN);
+
+        JSONObject results = summary.optJSONObject("results");
+        JSONObject connection = summary.optJSONObject("connection");
+
+        int good = results != null ? results.optInt("shares_good", 0) : 0;
+        int shares = results != null ? results.optInt("shares_total", good) : good;
+        int accepted = connection != null ? connection.optInt("accepted", good) : good;
+        int rejected = connection != null ? connection.optInt("rejected", shares - good) : shares - good;
+
+        JSONObject resources = summary.optJSONObject("resources");
+        JSONObject memory = resources != null ? resources.optJSONObject("memory") : null;
+
+        Threads threads = new Threads();
+        if (backends != null) {
+            for (int i = 0; i < backends.length(); i++) {
+                JSONObject backend = backends.optJSONObject(i);
+                if (backend == null || !"cpu".equals(backend.optString("type", "cpu"))) continue;
+                JSONArray list = backend.optJSONArray("threads");
+                if (list == null) continue;
+                for (int j = 0; j < list.length(); j++) {
+                    JSONObject thread = list.optJSONObject(j);
+                    if (thread == null) continue;
+                    threads.add(thread.optInt("affinity", -1), thread.optJSONArray("hashrate"));
+                }
+            }
+        } else if (hashrate != null && hashrate.optJSONArray("threads") != null) {
+            JSONArray list = hashrate.optJSONArray("threads");
+            for (int j = 0; j < list.length(); j++) {
+                threads.add(-1, list.optJSONArray(j));
+            }
+        }
+
+        return new MiningEvent.MinerApiStats(
+                sample,
+                accepted,
+                rejected,
+                results != null ? results.optLong("diff_current", 0) : 0,
+                connection != null ? connection.optInt("ping", -1) : -1,
+                summary.optLong("uptime", 0),
+                memory != null ? memory.optLong("resident_set_memory", -1) : -1,
+                memory != null ? memory.optLong("free", -1) : -1,
+                memory != null ? memory.optLong("total", -1) : -1,
+                Arrays.copyOf(threads.affinity, threads.count),
+                Arrays.copyOf(threads.rate10s, threads.count),
+                Arrays.copyOf(threads.rate60s, threads.count),
+                Arrays.copyOf(threads.rate15m, threads.count));
+    }
+
+    // the API sends null for windows that have no value yet
+    private static double rate(JSONArray values, int index) {
+        if (values == null || index >= values.length() || values.isNull(index)) return Double.NaN;
+        return values.optDouble(index, Double.NaN);
+    }
+
+    private static class Threads {
+        int count = 0;
+        int[] affinity = new int[8];
+        double[] rate10s = new double[8];
+        double[] rate60s = new double[8];
+        double[] rate15m = new double[8];
+
+        void add(int cpu, JSONArray rates) {
+            if (count == affinity.length) {
+                affinity = Arrays.copyOf(affinity, count * 2);
+                rate10s = Arrays.copyOf(rate10s, count * 2);
+                rate60s = Arrays.copyOf(rate60s, count * 2);
+                rate15m = Arrays.copyOf(rate15m, count * 2);
+            }
+            affinity[count] = cpu;
+            rate10s[count] = rate(rates, 0);
+            rate60s[count] = rate(rates, 1);
+            rate15m[count] = rate(rates, 2);
+            count++;
+        }
+    }
+}
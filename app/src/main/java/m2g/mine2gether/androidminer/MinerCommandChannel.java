@@ -0,0 +1,295 @@
+// Copyright (c) 2019, Mine2Gether.com
+//
+// Please see the included LICENSE file for more information.
+
+package m2g.mine2gether.androidminer;
+
+import android.util.Log;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Writes console commands ('h', 'p', 'r') to the miner's stdin on its own thread,
+ * which sleeps until a command is queued. Commands are sent one at a time and
+ * each one is answered from the output it produces: the output reader feeds
+ * every line to {@link #onOutputLine} and the pending command's future completes
+ * once its response has been seen. {@link #merge} joins the answers of
+ * several miners that got the same command.
+ */
+public class MinerCommandChannel extends Thread {
+
+    private static final String LOG_TAG = "MiningSvc";
+
+    public static final char COMMAND_HASHRATE = 'h';
+    public static final char COMMAND_PAUSE = 'p';
+    public static final char COMMAND_RESUME = 'r';
+
+    private static final Pattern THREAD_ROW = Pattern.compile("\\|\\s*(\\d+)\\s*\\|\\s*(-?\\d+)\\s*\\|\\s*(\\S+)\\s*\\|\\s*(\\S+)\\s*\\|\\s*(\\S+)\\s*\\|");
+    private static final byte[] MARK_PAUSED = MinerLogLine.marker("paused");
+    private static final byte[] MARK_RESUMED = MinerLogLine.marker("resumed");
+
+    private final OutputStream outputStream;
+    private final long timeoutMs;
+    private final BlockingQueue<Command> queue = new LinkedBlockingQueue<>();
+    private final Matcher threadRow = THREAD_ROW.matcher("");
+
+    private volatile Command inFlight;
+    private volatile boolean closed = false;
+
+    public MinerCommandChannel(OutputStream outputStream, long timeoutMs) {
+        super("MinerCommandChannel");
+        this.outputStream = outputStream;
+        this.timeoutMs = timeoutMs;
+    }
+
+    public Future<Response> send(char command) {
+        Command c = new Command(command);
+        queue.offer(c);
+        // lost the race with close(), nobody will ever answer it
+        if (closed && queue.remove(c)) c.cancel(false);
+        return c;
+    }
+
+    /**
+     * Called by the output reader for every stdout line, cheap when no command is pending.
+     */
+    public void onOutputLine(MinerLogLine line, MiningEvent event) {
+        Command c = inFlight;
+        if (c == null) return;
+
+        switch (c.response.command) {
+            case COMMAND_HASHRATE:
+                if (threadRow.reset(line).find()) {
+                    c.response.addThread(
+                            Integer.parseInt(threadRow.group(1)),
+                            Integer.parseInt(threadRow.group(2)),
+                            MinerOutputParsers.parseRate(threadRow.group(3)),
+                            MinerOutputParsers.parseRate(threadRow.group(4)),
+                            MinerOutputParsers.parseRate(threadRow.group(5)));
+                    c.response.lines.add(line.toString());
+                } else if (event != null && event.getType() == MiningEvent.TYPE_HASHRATE) {
+                    // the summary line closes the table
+                    c.response.total = (MiningEvent.HashrateSample) event;
+                    c.response.lines.add(line.toString());
+                    c.finish();
+                }
+                break;
+            case COMMAND_PAUSE:
+                if (line.containsIgnoreCase(MARK_PAUSED)) {
+                    c.response.lines.add(line.toString());
+                    c.finish();
+                }
+                break;
+            case COMMAND_RESUME:
+                if (line.containsIgnoreCase(MARK_RESUMED)) {
+                    c.response.lines.add(line.toString());
+                    c.finish();
+                }
+                break;
+            default:
+                c.finish();
+        }
+    }
+
+    /**
+     * One response for a command sent to several miners: their lines and
+     * threads one after the other and the summed total. Done once all are.
+     */
+    public static Future<Response> merge(char command, List<Future<Response>> parts) {
+        return new MergedResponse(command, parts);
+    }
+
+    public void close() {
+        closed = true;
+        interrupt();
+    }
+
+    @Override
+    public void run() {
+        try {
+            while (!isInterrupted()) {
+                Command c = queue.take();
+
+                inFlight = c;
+                try {
+                    outputStream.write(c.response.command);
+                    outputStream.flush();
+                } catch (IOException e) {
+                    Log.w(LOG_TAG, "exception", e);
+                    c.fail(e);
+                    inFlight = null;
+                    continue;
+                }
+
+                // don't interleave answers, wait for this one before sending the next command
+                try {
+                    c.get(timeoutMs, TimeUnit.MILLISECONDS);
+                } catch (TimeoutException e) {
+                    c.fail(e);
+                } catch (InterruptedException e) {
+                    throw e;
+                } catch (Exception e) {
+                    // failed or cancelled, the caller sees it through the future
+                }
+                inFlight = null;
+            }
+        } catch (InterruptedException e) {
+            // closed
+        } finally {
+            Command c = inFlight;
+            if (c != null) c.cancel(false);
+            while ((c = queue.poll()) != null) {
+                c.cancel(false);
+            }
+        }
+    }
+
+    /**
+     * What the miner printed in reply to a command. For 'h' the per-thread table
+     * is parsed into the thread arrays.
+     */
+    public static class Response {
+        public final char command;
+        public final List<String> lines = new ArrayList<>();
+        public MiningEvent.HashrateSample total;
+
+        public int threadCount = 0;
+        public int[] threadIds = new int[0];
+        public int[] affinity = new int[0];
+        public double[] rate10s = new double[0];
+        public double[] rate60s = new double[0];
+        public double[] rate15m = new double[0];
+
+        Response(char command) {
+            this.command = command;
+        }
+
+        void addThread(int id, int cpu, double r10s, double r60s, double r15m) {
+            if (threadCount == threadIds.length) {
+                int size = Math.max(4, threadCount * 2);
+                threadIds = Arrays.copyOf(threadIds, size);
+                affinity = Arrays.copyOf(affinity, size);
+                rate10s = Arrays.copyOf(rate10s, size);
+                rate60s = Arrays.copyOf(rate60s, size);
+                rate15m = Arrays.copyOf(rate15m, size);
+            }
+            threadIds[threadCount] = id;
+            affinity[threadCount] = cpu;
+            rate10s[threadCount] = r10s;
+            rate60s[threadCount] = r60s;
+            rate15m[threadCount] = r15m;
+            threadCount++;
+        }
+    }
+
+    private static class MergedResponse implements Future<Response> {
+
+        private final char command;
+        private final List<Future<Response>> parts;
+
+        MergedResponse(char command, List<Future<Response>> parts) {
+            this.command = command;
+            this.parts = parts;
+        }
+
+        @Override
+        public boolean cancel(boolean mayInterruptIfRunning) {
+            boolean cancelled = false;
+            for (Future<Response> part : parts) {
+                cancelled |= part.cancel(mayInterruptIfRunning);
+            }
+            return cancelled;
+        }
+
+        @Override
+        public boolean isCancelled() {
+            for (Future<Response> part : parts) {
+                if (part.isCancelled()) return true;
+            }
+            return false;
+        }
+
+        @Override
+        public boolean isDone() {
+            for (Future<Response> part : parts) {
+                if (!part.isDone()) return false;
+            }
+            return true;
+        }
+
+        @Override
+        public Response get() throws InterruptedException, ExecutionException {
+            Response[] responses = new Response[parts.size()];
+            for (int i = 0; i < responses.length; i++) {
+                responses[i] = parts.get(i).get();
+            }
+            return combine(responses);
+        }
+
+        @Override
+        public Response get(long timeout, TimeUnit unit) throws InterruptedException, ExecutionException, TimeoutException {
+            long deadline = System.nanoTime() + unit.toNanos(timeout);
+            Response[] responses = new Response[parts.size()];
+            for (int i = 0; i < responses.length; i++) {
+                responses[i] = parts.get(i).get(Math.max(0, deadline - System.nanoTime()), TimeUnit.NANOSECONDS);
+            }
+            return combine(responses);
+        }
+
+        private Response combine(Response[] responses) {
+            Response merged = new Response(command);
+            MiningEvent.HashrateSample[] totals = new MiningEvent.HashrateSample[responses.length];
+            boolean hasTotal = false;
+            for (int i = 0; i < responses.length; i++) {
+                Response r = responses[i];
+                merged.lines.addAll(r.lines);
+                for (int t = 0; t < r.threadCount; t++) {
+                    merged.addThread(r.threadIds[t], r.affinity[t], r.rate10s[t], r.rate60s[t], r.rate15m[t]);
+                }
+                totals[i] = r.total;
+                hasTotal |= r.total != null;
+            }
+            if (hasTotal) merged.total = MiningEvent.HashrateSample.sum(totals);
+            return merged;
+        }
+    }
+
+    private static class Command extends FutureTask<Response> {
+
+        private static final Callable<Response> UNUSED = new Callable<Response>() {
+            @Override
+            public Response call() {
+                return null;
+            }
+        };
+
+        final Response response;
+
+        Command(char command) {
+            super(UNUSED);
+            this.response = new Response(command);
+        }
+
+        void finish() {
+            set(response);
+        }
+
+        void fail(Throwable t) {
+            setException(t);
+        }
+    }
+}
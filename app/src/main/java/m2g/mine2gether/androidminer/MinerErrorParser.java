@@ -0,0 +1,74 @@
+// Copyright (c) 2019, Mine2Gether.com
+//
+// Please see the included LICENSE file for more information.
+
+package m2g.mine2gether.androidminer;
+
+/**
+ * Classifies the miner's stderr output. The diagnostics worth acting on look the
+ * same for all miners we ship since they mostly come from the dynamic linker,
+ * the kernel or libuv, so one parser covers them all.
+ */
+public class MinerErrorParser implements MinerOutputParser {
+
+    private static final byte[][] MARKS_ILLEGAL_INSTRUCTION = {
+            MinerLogLine.marker("illegal instruction"),
+            MinerLogLine.marker("sigill")
+    };
+    private static final byte[] MARK_HUGE_PAGES = MinerLogLine.marker("huge page");
+    private static final byte[][] MARKS_HUGE_PAGES_FAILED = {
+            MinerLogLine.marker("fail"),
+            MinerLogLine.marker("unavailable"),
+            MinerLogLine.marker("not available")
+    };
+    private static final byte[][] MARKS_BIND = {
+            MinerLogLine.marker("bind error"),
+            MinerLogLine.marker("bind failed"),
+            MinerLogLine.marker("address already in use")
+    };
+    private static final byte[][] MARKS_OUT_OF_MEMORY = {
+            MinerLogLine.marker("out of memory"),
+            MinerLogLine.marker("cannot allocate memory"),
+            MinerLogLine.marker("bad_alloc")
+    };
+    private static final byte[][] MARKS_LINKER = {
+            MinerLogLine.marker("cannot link executable"),
+            MinerLogLine.marker("cannot locate symbol"),
+            MinerLogLine.marker("error while loading shared libraries")
+    };
+
+    @Override
+    public MiningEvent parse(MinerLogLine line) {
+
+        if (line.isEmpty()) return null;
+
+        if (containsAny(line, MARKS_ILLEGAL_INSTRUCTION)) {
+            return new MiningEvent.MinerError(MiningEvent.MinerError.ILLEGAL_INSTRUCTION);
+        }
+
+        if (line.containsIgnoreCase(MARK_HUGE_PAGES) && containsAny(line, MARKS_HUGE_PAGES_FAILED)) {
+            return new MiningEvent.MinerError(MiningEvent.MinerError.HUGE_PAGES);
+        }
+
+        if (containsAny(line, MARKS_BIND)) {
+            return new MiningEvent.MinerError(MiningEvent.MinerError.BIND_FAILED);
+        }
+
+        if (containsAny(line, MARKS_OUT_OF_MEMORY)) {
+            return new MiningEvent.MinerError(MiningEvent.MinerError.OUT_OF_MEMORY);
+        }
+
+        if (containsAny(line, MARKS_LINKER)) {
+            return new MiningEvent.MinerError(MiningEvent.MinerError.LINKER);
+        }
+
+        return null;
+    }
+
+    private static boolean containsAny(MinerLogLine line, byte[][] marks) {
+        for (byte[] mark : marks) {
+            if (line.containsIgnoreCase(mark)) return true;
+        }
+        return false;
+    }
+}
@@ -0,0 +1,174 @@
+// Copyright (c) 2019, Mine2Gether.com
+//
+// Please see the included LICENSE file for more information.
+
+package m2g.mine2gether.androidminer;
+
+import android.os.SystemClock;
+import android.util.Log;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.RejectedExecutionHandler;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * The app's background threads, split by what they wait on so a hanging pool
+ * API can never hold up starting the miner:
+ * <ul>
+ * <li>control: one thread, every change to the miner process</li>
+ * <li>network: pool stats, M2G id lookups, DNS</li>
+ * <li>disk: miner extraction, session log compression</li>
+ * </ul>
+ * Queues are bounded, a full queue rejects the task. Every executor keeps
+ * queue depth and wait / run times, see {@link TrackedExecutor#getStats()}.
+ * AsyncTasks run here through {@code executeOnExecutor()}, never on
+ * AsyncTask's shared serial executor.
+ */
+public class MinerExecutors {
+
+    private static final String LOG_TAG = "MiningSvc";
+
+    private static final TrackedExecutor CONTROL = new TrackedExecutor("MinerControl", 1, 64);
+    private static final TrackedExecutor NETWORK = new TrackedExecutor("MinerNetwork", 3, 16);
+    private static final TrackedExecutor DISK = new TrackedExecutor("MinerDisk", 3, 64);
+
+    public static TrackedExecutor control() {
+        return CONTROL;
+    }
+
+    public static TrackedExecutor network() {
+        return NETWORK;
+    }
+
+    public static TrackedExecutor disk() {
+        return DISK;
+    }
+
+    public static TrackedExecutor.Stats[] getStats() {
+        return new TrackedExecutor.Stats[]{CONTROL.getStats(), NETWORK.getStats(), DISK.getStats()};
+    }
+
+    public static class TrackedExecutor extends ThreadPoolExecutor {
+
+        private final String name;
+        private final Stats stats;
+
+        TrackedExecutor(final String name, int threads, int queueSize) {
+            super(threads, threads, 30, TimeUnit.SECONDS, new ArrayBlockingQueue<Runnable>(queueSize));
+            this.name = name;
+            this.stats = new Stats(name);
+
+            allowCoreThreadTimeOut(true);
+
+            setThreadFactory(new ThreadFactory() {
+                private final AtomicInteger count = new AtomicInteger();
+
+                @Override
+                public Thread newThread(Runnable r) {
+                    Thread t = new Thread(r, threads == 1 ? name : name + "-" + count.incrementAndGet());
+                    t.setPriority(Thread.NORM_PRIORITY - 1);
+                    return t;
+                }
+            });
+
+            setRejectedExecutionHandler(new RejectedExecutionHandler() {
+                @Override
+                public void rejectedExecution(Runnable r, ThreadPoolExecutor executor) {
+                    synchronized (stats) {
+                        stats.rejected++;
+                    }
+                    Log.w(LOG_TAG, name + ": queue full, task rejected");
+                    throw new RejectedExecutionException(name + " queue full");
+                }
+            });
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        @Override
+        public void execute(Runnable command) {
+            super.execute(new TimedTask(command));
+        }
+
+        public Stats getStats() {
+            synchronized (stats) {
+                Stats copy = stats.copy();
+                copy.queued = getQueue().size();
+                copy.active = getActiveCount();
+                return copy;
+            }
+        }
+
+        private void record(long waitMs, long runMs) {
+            synchronized (stats) {
+                stats.completed++;
+                stats.totalWaitMs += waitMs;
+                stats.maxWaitMs = Math.max(stats.maxWaitMs, waitMs);
+                stats.totalRunMs += runMs;
+                stats.maxRunMs = Math.max(stats.maxRunMs, runMs);
+            }
+        }
+
+        private class TimedTask implements Runnable {
+            private final Runnable task;
+            private final long queuedAt = SystemClock.elapsedRealtime();
+
+            TimedTask(Runnable task) {
+                this.task = task;
+            }
+
+            @Override
+            public void run() {
+                long startedAt = SystemClock.elapsedRealtime();
+                try {
+                    task.run();
+                } finally {
+                    record(startedAt - queuedAt, SystemClock.elapsedRealtime() - startedAt);
+                }
+            }
+        }
+
+        public static class Stats {
+            public final String name;
+            public int queued = 0;
+            public int active = 0;
+            public long completed = 0;
+            public long rejected = 0;
+            public long totalWaitMs = 0;
+            public long maxWaitMs = 0;
+            public long totalRunMs = 0;
+            public long maxRunMs = 0;
+
+            Stats(String name) {
+                this.name = name;
+            }
+
+            public long averageWaitMs() {
+                return completed > 0 ? totalWaitMs / completed : 0;
+            }
+
+            public long averageRunMs() {
+                return completed > 0 ? totalRunMs / completed : 0;
+            }
+
+            Stats copy() {
+                Stats copy = new Stats(name);
+                copy.queued = queued;
+                copy.active = active;
+                copy.completed = completed;
+                copy.rejected = rejected;
+                copy.totalWaitMs = totalWaitMs;
+                copy.maxWaitMs = maxWaitMs;
+                copy.totalRunMs = totalRunMs;
+                copy.maxRunMs = maxRunMs;
+                return copy;
+            }
+        }
+    }
+}
@@ -9,12 +9,18 @@ public class MinerItem {
     private String mAlgo = "";
     private String mAssetExtenstion = "";
     private String mMiner = "";
+    private MinerOutputParser.Factory mOutputParser;
 
     public MinerItem(String miner, String algo, String assetExtension) {
+        this(miner, algo, assetExtension, MinerOutputParsers.forMiner(miner));
+    }
+
+    public MinerItem(String miner, String algo, String assetExtension, MinerOutputParser.Factory outputParser) {
         this.mAlgo = algo;
         this.mAssetExtenstion = assetExtension;
         this.mId = 0;
         this.mMiner = miner;
+        this.mOutputParser = outputParser;
     }
 
     public int getId() {
@@ -37,4 +43,8 @@ public class MinerItem {
         return this.mMiner;
     }
 
+    public MinerOutputParser.Factory getOutputParser() {
+        return this.mOutputParser;
+    }
+
 }
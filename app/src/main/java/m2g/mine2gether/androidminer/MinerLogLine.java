@@ -0,0 +1,142 @@
+// Copyright (c) 2019, Mine2Gether.com
+//
+// Please see the included LICENSE file for more information.
+
+package m2g.mine2gether.androidminer;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.util.Locale;
+
+/**
+ * Reusable view over one line of raw miner output. The bytes are owned by the
+ * {@link LogLineScanner} and are only valid until the next line is scanned, so
+ * callers that need to keep the text must copy it with {@link #toString()}.
+ */
+public class MinerLogLine implements CharSequence {
+
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+    private static final Charset LATIN1 = Charset.forName("ISO-8859-1");
+
+    private byte[] buf;
+    private int start;
+    private int length;
+    private boolean ascii;
+
+    void set(byte[] buf, int start, int length) {
+        this.buf = buf;
+        this.start = start;
+        this.length = length;
+
+        ascii = true;
+        for (int i = start, end = start + length; i < end; i++) {
+            if (buf[i] < 0) {
+                ascii = false;
+                break;
+            }
+        }
+    }
+
+    @Override
+    public int length() {
+        return length;
+    }
+
+    @Override
+    public char charAt(int index) {
+        return (char) (buf[start + index] & 0xff);
+    }
+
+    @Override
+    public CharSequence subSequence(int from, int to) {
+        return decode(start + from, to - from);
+    }
+
+    public boolean isAscii() {
+        return ascii;
+    }
+
+    public boolean isEmpty() {
+        return length == 0;
+    }
+
+    // needle must already be lower case ASCII
+    public boolean containsIgnoreCase(byte[] needle) {
+        return indexOfIgnoreCase(needle, 0) >= 0;
+    }
+
+    public int indexOfIgnoreCase(byte[] needle, int from) {
+        int last = length - needle.length;
+
+        outer:
+        for (int i = from; i <= last; i++) {
+            for (int j = 0; j < needle.length; j++) {
+                if (toLower(buf[start + i + j]) != needle[j]) {
+                    continue outer;
+                }
+            }
+            return i;
+        }
+
+        return -1;
+    }
+
+    /**
+     * Returns the token at the given index when splitting on single spaces, the
+     * same way TextUtils.split(line, " ") does, or null if there is no such token.
+     */
+    public String token(int index) {
+        int tokenStart = 0;
+        int current = 0;
+
+        for (int i = 0; i <= length; i++) {
+            if (i == length || buf[start + i] == ' ') {
+                if (current == index) {
+                    return decode(start + tokenStart, i - tokenStart);
+                }
+                current++;
+                tokenStart = i + 1;
+            }
+        }
+
+        return null;
+    }
+
+    // raw UTF-8 bytes, at most max of them
+    public int putTo(ByteBuffer out, int max) {
+        int count = Math.min(length, max);
+        out.put(buf, start, count);
+        return count;
+    }
+
+    public void appendTo(StringBuilder out) {
+        if (ascii) {
+            out.ensureCapacity(out.length() + length);
+            for (int i = start, end = start + length; i < end; i++) {
+                out.append((char) buf[i]);
+            }
+        } else {
+            out.append(toString());
+        }
+    }
+
+    @Override
+    public String toString() {
+        return decode(start, length);
+    }
+
+    private String decode(int offset, int count) {
+        if (ascii) {
+            return new String(buf, offset, count, LATIN1);
+        }
+        return new String(buf, offset, count, UTF8);
+    }
+
+    private static byte toLower(byte b) {
+        return (b >= 'A' && b <= 'Z') ? (byte) (b + 32) : b;
+    }
+
+    public static byte[] marker(String s) {
+        return s.toLowerCase(Locale.ROOT).getBytes(UTF8);
+    }
+}
@@ -0,0 +1,21 @@
+// Copyright (c) 2019, Mine2Gether.com
+//
+// Please see the included LICENSE file for more information.
+
+package m2g.mine2gether.androidminer;
+
+/**
+ * Turns lines of one miner's console output into {@link MiningEvent}s.
+ * Parsers keep matcher state, so every output reader creates its own instance.
+ */
+public interface MinerOutputParser {
+
+    /**
+     * @return the event carried by the line, or null if it carries none
+     */
+    MiningEvent parse(MinerLogLine line);
+
+    interface Factory {
+        MinerOutputParser create();
+    }
+}
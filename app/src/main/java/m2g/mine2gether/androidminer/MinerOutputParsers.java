@@ -0,0 +1,111 @@
+// Copyright (c) 2019, Mine2Gether.com
+//
+// Please see the included LICENSE file for more information.
+
+package m2g.mine2gether.androidminer;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Default output parser for each miner plus the number helpers the parsers share.
+ */
+public class MinerOutputParsers {
+
+    private static final Map<String, MinerOutputParser.Factory> factories = new HashMap<>();
+    private static final Map<String, MinerOutputParser.Factory> errorFactories = new HashMap<>();
+
+    private static final MinerOutputParser.Factory XMRIG = new MinerOutputParser.Factory() {
+        @Override
+        public MinerOutputParser create() {
+            return new XmrigOutputParser();
+        }
+    };
+
+    private static final MinerOutputParser.Factory VIOLETMINER = new MinerOutputParser.Factory() {
+        @Override
+        public MinerOutputParser create() {
+            return new VioletminerOutputParser();
+        }
+    };
+
+    private static final MinerOutputParser.Factory ERRORS = new MinerOutputParser.Factory() {
+        @Override
+        public MinerOutputParser create() {
+            return new MinerErrorParser();
+        }
+    };
+
+    static {
+        factories.put(Config.miner_xmrig, XMRIG);
+        factories.put(Config.miner_ninjarig, XMRIG);
+        factories.put(Config.miner_xmrig_upx, XMRIG);
+        factories.put(Config.miner_violetminer, VIOLETMINER);
+    }
+
+    public static synchronized void register(String miner, MinerOutputParser.Factory factory) {
+        factories.put(miner, factory);
+    }
+
+    // unknown miners fall back to the XMRig format, which most forks keep
+    public static synchronized MinerOutputParser.Factory forMiner(String miner) {
+        MinerOutputParser.Factory factory = factories.get(miner);
+        return factory != null ? factory : XMRIG;
+    }
+
+    public static synchronized void registerErrorParser(String miner, MinerOutputParser.Factory factory) {
+        errorFactories.put(miner, factory);
+    }
+
+    public static synchronized MinerOutputParser.Factory errorParserForMiner(String miner) {
+        MinerOutputParser.Factory factory = errorFactories.get(miner);
+        return factory != null ? factory : ERRORS;
+    }
+
+    static double parseRate(String value) {
+        if (value == null) return Double.NaN;
+        try {
+            return Double.parseDouble(value);
+        } catch (NumberFormatException e) {
+            // "n/a"
+            return Double.NaN;
+        }
+    }
+
+    static double unitMultiplier(String prefix) {
+        if (prefix == null || prefix.isEmpty()) return 1;
+        switch (Character.toLowerCase(prefix.charAt(0))) {
+            case 'k':
+                return 1e3;
+            case 'm':
+                return 1e6;
+            case 'g':
+                return 1e9;
+            default:
+                return 1;
+        }
+    }
+
+    // accepts plain numbers as well as xmrig's shortened "120K" / "1M" form
+    static long parseDifficulty(String value) {
+        if (value == null || value.isEmpty()) return 0;
+        char last = value.charAt(value.length() - 1);
+        if (Character.isLetter(last)) {
+            return (long) (parseRate(value.substring(0, value.length() - 1)) * unitMultiplier(String.valueOf(last)));
+        }
+        return parseLong(value, 0);
+    }
+
+    static long parseLong(String value, long fallback) {
+        if (value == null) return fallback;
+        try {
+            return Long.parseLong(value);
+        } catch (NumberFormatException e) {
+            return fallback;
+        }
+    }
+
+    static int parseInt(String value, int fallback) {
+        return (int) parseLong(value, fallback);
+    }
+}
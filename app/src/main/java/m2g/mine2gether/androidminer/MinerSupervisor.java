@@ -0,0 +1,280 @@
+// Copyright (c) 2019, Mine2Gether.com
+//
+// Please see the included LICENSE file for more information.
+
+package m2g.mine2gether.androidminer;
+
+import android.os.SystemClock;
+import android.util.Log;
+
+import java.util.ArrayDeque;
+import java.util.Random;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Keeps the miner running without anyone watching. An unexpected exit or a
+ * miner that stops making progress (no hashrate and no accepted share for
+ * {@link Config#supervisorStallTimeoutMs}) is restarted after a jittered
+ * exponential backoff. Several miners started together are supervised as one
+ * group, each needs progress of its own and one stalled member restarts all
+ * of them. Too many failures within
+ * {@link Config#supervisorCrashWindowMs} open the circuit breaker and the
+ * supervisor gives up until mining is started by hand again.
+ * <p>
+ * A miner paused from the console makes no progress on purpose, the stall
+ * check waits from {@link #onPaused()} until {@link #onResumed()}.
+ * <p>
+ * Only decides and keeps the books, the actual stop and start go through the
+ * {@link Host}. All methods except {@link #onProgress(int)}, {@link #onPaused()}
+ * and {@link #onResumed()} are called on the service's control thread.
+ */
+public class MinerSupervisor {
+
+    private static final String LOG_TAG = "MiningSvc";
+
+    public interface Host {
+        // stop the stalled miner but keep mining requested
+        void kill();
+
+        // start again with the last config if mining is still requested
+        void restart();
+
+        // the circuit breaker opened
+        void giveUp(String reason);
+
+        void onRestartScheduled(MiningEvent.MinerRestart event);
+    }
+
+    private final Host host;
+    private final Random random = new Random();
+    private final ArrayDeque<Long> failureTimes = new ArrayDeque<>();
+
+    private final ScheduledExecutorService timer = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+        @Override
+        public Thread newThread(Runnable r) {
+            return new Thread(r, "MinerSupervisor");
+        }
+    });
+
+    private ScheduledFuture<?> pendingRestart;
+    private ScheduledFuture<?> stallCheck;
+
+    // per miner of the running group
+    private volatile AtomicLongArray lastProgress = new AtomicLongArray(0);
+    private volatile boolean paused = false;
+    private long startedAt = 0;
+    // start of the current outage, 0 while up or intentionally stopped
+    private volatile long downSince = 0;
+    private int failures = 0;
+
+    private final Stats stats = new Stats();
+
+    public MinerSupervisor(Host host) {
+        this.host = host;
+    }
+
+    // mining started by hand, forget the earlier failures
+    public void onUserStart() {
+        cancelPendingRestart();
+        failures = 0;
+        failureTimes.clear();
+        synchronized (stats) {
+            stats.circuitOpen = false;
+        }
+    }
+
+    public void onUserStop() {
+        cancelPendingRestart();
+        cancelStallCheck();
+        endOutage();
+    }
+
+    // the group of miners started, progress is reported by their index
+    public void onRunning(int miners) {
+        long now = SystemClock.elapsedRealtime();
+        startedAt = now;
+        AtomicLongArray progress = new AtomicLongArray(miners);
+        for (int i = 0; i < miners; i++) {
+            progress.set(i, now);
+        }
+        lastProgress = progress;
+        // a new process starts mining
+        paused = false;
+        endOutage();
+
+        cancelStallCheck();
+        stallCheck = timer.scheduleWithFixedDelay(new Runnable() {
+            @Override
+            public void run() {
+                checkStall();
+            }
+        }, Config.supervisorStallCheckMs, Config.supervisorStallCheckMs, TimeUnit.MILLISECONDS);
+    }
+
+    // a hashrate or an accepted share, called from the reader threads
+    public void onProgress(int miner) {
+        onProgress(miner, SystemClock.elapsedRealtime());
+    }
+
+    void onProgress(int miner, long now) {
+        AtomicLongArray progress = lastProgress;
+        if (miner < progress.length()) progress.set(miner, now);
+    }
+
+    // the user paused the miner, called from whoever sent the command
+    public void onPaused() {
+        paused = true;
+    }
+
+    public void onResumed() {
+        // the pause does not count against the stall timeout
+        long now = SystemClock.elapsedRealtime();
+        AtomicLongArray progress = lastProgress;
+        for (int i = 0; i < progress.length(); i++) {
+            progress.set(i, now);
+        }
+        paused = false;
+    }
+
+    // the process ended although nobody asked it to
+    public void onUnexpectedExit(int exitCode) {
+        cancelStallCheck();
+        synchronized (stats) {
+            stats.lastExitCode = exitCode;
+        }
+        fail(MiningEvent.MinerRestart.REASON_EXIT, exitCode);
+    }
+
+    public Stats getStats() {
+        synchronized (stats) {
+            Stats copy = stats.copy();
+            if (downSince > 0) copy.downtimeMs += SystemClock.elapsedRealtime() - downSince;
+            return copy;
+        }
+    }
+
+    public void shutdown() {
+        timer.shutdownNow();
+    }
+
+    // runs on the timer thread, the decision moves to the control thread through the host
+    private void checkStall() {
+        if (isStalled(SystemClock.elapsedRealtime())) host.kill();
+    }
+
+    // any one miner without progress, the others don't cover for it
+    boolean isStalled(long now) {
+        if (paused) return false;
+        AtomicLongArray progress = lastProgress;
+        for (int i = 0; i < progress.length(); i++) {
+            if (now - progress.get(i) >= Config.supervisorStallTimeoutMs) return true;
+        }
+        return false;
+    }
+
+    // control thread, after kill() stopped a stalled miner
+    public void onStalled() {
+        cancelStallCheck();
+        fail(MiningEvent.MinerRestart.REASON_STALL, -1);
+    }
+
+    private void fail(int reason, int exitCode) {
+        long now = SystemClock.elapsedRealtime();
+
+        // a miner that ran fine for a while starts over with the short delays
+        if (startedAt > 0 && now - startedAt >= Config.supervisorHealthyRunMs) failures = 0;
+        startedAt = 0;
+        if (downSince == 0) downSince = now;
+
+        failureTimes.addLast(now);
+        while (!failureTimes.isEmpty() && now - failureTimes.peekFirst() > Config.supervisorCrashWindowMs) {
+            failureTimes.removeFirst();
+        }
+
+        if (failureTimes.size() > Config.supervisorMaxFailures) {
+            Log.w(LOG_TAG, "supervisor: " + failureTimes.size() + " failures, giving up");
+            synchronized (stats) {
+                stats.circuitOpen = true;
+                stats.circuitTrips++;
+            }
+            endOutage();
+            host.giveUp(failureTimes.size() + " failures in " + (Config.supervisorCrashWindowMs / 60000) + " min");
+            return;
+        }
+
+        long delay = backoff(failures++);
+        synchronized (stats) {
+            if (reason == MiningEvent.MinerRestart.REASON_STALL) {
+                stats.stallRestarts++;
+            } else {
+                stats.exitRestarts++;
+            }
+        }
+
+        Log.i(LOG_TAG, "supervisor: restart in " + delay + " ms, reason " + reason + " exit " + exitCode);
+        host.onRestartScheduled(new MiningEvent.MinerRestart(reason, exitCode, failures, delay));
+
+        cancelPendingRestart();
+        pendingRestart = timer.schedule(new Runnable() {
+            @Override
+            public void run() {
+                host.restart();
+            }
+        }, delay, TimeUnit.MILLISECONDS);
+    }
+
+    // base * 2^attempt capped, then scaled by a random factor in [0.5, 1) so a fleet does not restart in lockstep
+    private long backoff(int attempt) {
+        long delay = Config.supervisorBackoffBaseMs << Math.min(attempt, 16);
+        delay = Math.min(delay, Config.supervisorBackoffMaxMs);
+        return delay / 2 + (long) (random.nextDouble() * (delay / 2));
+    }
+
+    private void endOutage() {
+        if (downSince == 0) return;
+        synchronized (stats) {
+            stats.downtimeMs += SystemClock.elapsedRealtime() - downSince;
+            downSince = 0;
+        }
+    }
+
+    private void cancelPendingRestart() {
+        if (pendingRestart != null) {
+            pendingRestart.cancel(false);
+            pendingRestart = null;
+        }
+    }
+
+    private void cancelStallCheck() {
+        if (stallCheck != null) {
+            stallCheck.cancel(false);
+            stallCheck = null;
+        }
+    }
+
+    public static class Stats {
+        public int exitRestarts = 0;
+        public int stallRestarts = 0;
+        public int circuitTrips = 0;
+        public boolean circuitOpen = false;
+        public int lastExitCode = 0;
+        // time spent waiting for a restart after a failure, including the current outage
+        public long downtimeMs = 0;
+
+        Stats copy() {
+            Stats copy = new Stats();
+            copy.exitRestarts = exitRestarts;
+            copy.stallRestarts = stallRestarts;
+            copy.circuitTrips = circuitTrips;
+            copy.circuitOpen = circuitOpen;
+            copy.lastExitCode = lastExitCode;
+            copy.downtimeMs = downtimeMs;
+            return copy;
+        }
+    }
+}
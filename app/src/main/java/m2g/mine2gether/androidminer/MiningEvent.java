@@ -0,0 +1,348 @@
+// Copyright (c) 2019, Mine2Gether.com
+//
+// Please see the included LICENSE file for more information.
+
+package m2g.mine2gether.androidminer;
+
+/**
+ * Structured events parsed from the miner output. Every event only carries
+ * primitive fields so consumers never have to re-parse text.
+ */
+public abstract class MiningEvent {
+
+    // plain log line without an event
+    public static final int TYPE_NONE = 0;
+    public static final int TYPE_HASHRATE = 1;
+    public static final int TYPE_SHARE_ACCEPTED = 2;
+    public static final int TYPE_SHARE_REJECTED = 3;
+    public static final int TYPE_NEW_JOB = 4;
+    public static final int TYPE_CONNECTION_LOST = 5;
+    public static final int TYPE_DATASET_READY = 6;
+    public static final int TYPE_STATE_CHANGE = 7;
+    public static final int TYPE_LOG_LINE = 8;
+    public static final int TYPE_LOG_APPENDED = 9;
+    public static final int TYPE_MINER_ERROR = 10;
+    public static final int TYPE_API_STATS = 11;
+    public static final int TYPE_MINER_RESTART = 12;
+
+    public final long timestamp;
+
+    MiningEvent() {
+        this.timestamp = System.currentTimeMillis();
+    }
+
+    public abstract int getType();
+
+    public static class HashrateSample extends MiningEvent {
+        // H/s, NaN when the miner reports n/a for a window
+        public final double rate10s;
+        public final double rate60s;
+        public final double rate15m;
+        public final double max;
+
+        public HashrateSample(double rate10s, double rate60s, double rate15m, double max) {
+            this.rate10s = rate10s;
+            this.rate60s = rate60s;
+            this.rate15m = rate15m;
+            this.max = max;
+        }
+
+        // the shortest window that has a value
+        public double current() {
+            if (!Double.isNaN(rate10s)) return rate10s;
+            if (!Double.isNaN(rate60s)) return rate60s;
+            return rate15m;
+        }
+
+        /**
+         * The combined rate of several miners. A window is NaN only if it is
+         * NaN for all of them; null samples are skipped.
+         */
+        public static HashrateSample sum(HashrateSample[] samples) {
+            return new HashrateSample(sumWindow(samples, 0), sumWindow(samples, 1), sumWindow(samples, 2), sumWindow(samples, 3));
+        }
+
+        private static double sumWindow(HashrateSample[] samples, int window) {
+            double sum = Double.NaN;
+            for (HashrateSample sample : samples) {
+                if (sample == null) continue;
+                double value = window == 0 ? sample.rate10s : window == 1 ? sample.rate60s : window == 2 ? sample.rate15m : sample.max;
+                if (!Double.isNaN(value)) sum = Double.isNaN(sum) ? value : sum + value;
+            }
+            return sum;
+        }
+
+        @Override
+        public int getType() {
+            return TYPE_HASHRATE;
+        }
+    }
+
+    public static class ShareAccepted extends MiningEvent {
+        public final int accepted;
+        public final int rejected;
+        public final long difficulty;
+        // round trip to the pool, -1 if unknown
+        public final int latencyMs;
+
+        public ShareAccepted(int accepted, int rejected, long difficulty, int latencyMs) {
+            this.accepted = accepted;
+            this.rejected = rejected;
+            this.difficulty = difficulty;
+            this.latencyMs = latencyMs;
+        }
+
+        @Override
+        public int getType() {
+            return TYPE_SHARE_ACCEPTED;
+        }
+    }
+
+    public static class ShareRejected extends MiningEvent {
+        public final int accepted;
+        public final int rejected;
+        public final long difficulty;
+        public final int latencyMs;
+
+        public ShareRejected(int accepted, int rejected, long difficulty, int latencyMs) {
+            this.accepted = accepted;
+            this.rejected = rejected;
+            this.difficulty = difficulty;
+            this.latencyMs = latencyMs;
+        }
+
+        @Override
+        public int getType() {
+            return TYPE_SHARE_REJECTED;
+        }
+    }
+
+    public static class NewJob extends MiningEvent {
+        public final long difficulty;
+        // -1 if the miner does not print it
+        public final long height;
+
+        public NewJob(long difficulty, long height) {
+            this.difficulty = difficulty;
+            this.height = height;
+        }
+
+        @Override
+        public int getType() {
+            return TYPE_NEW_JOB;
+        }
+    }
+
+    public static class ConnectionLost extends MiningEvent {
+
+        @Override
+        public int getType() {
+            return TYPE_CONNECTION_LOST;
+        }
+    }
+
+    public static class DatasetReady extends MiningEvent {
+        public final long elapsedMs;
+
+        public DatasetReady(long elapsedMs) {
+            this.elapsedMs = elapsedMs;
+        }
+
+        @Override
+        public int getType() {
+            return TYPE_DATASET_READY;
+        }
+    }
+
+    public static class StateChange extends MiningEvent {
+        public final boolean running;
+
+        public StateChange(boolean running) {
+            this.running = running;
+        }
+
+        @Override
+        public int getType() {
+            return TYPE_STATE_CHANGE;
+        }
+    }
+
+    public static class LogLine extends MiningEvent {
+        public final String text;
+        // type of the event parsed from the line, TYPE_NONE for plain output
+        public final int lineType;
+        // sequence number of the line in the service's LogRingBuffer
+        public final long sequence;
+
+        public LogLine(String text, int lineType, long sequence) {
+            this.text = text;
+            this.lineType = lineType;
+            this.sequence = sequence;
+        }
+
+        @Override
+        public int getType() {
+            return TYPE_LOG_LINE;
+        }
+    }
+
+    // cheap notice that the log grew, the text stays in the LogRingBuffer
+    public static class LogAppended extends MiningEvent {
+        public final long sequence;
+
+        public LogAppended(long sequence) {
+            this.sequence = sequence;
+        }
+
+        @Override
+        public int getType() {
+            return TYPE_LOG_APPENDED;
+        }
+    }
+
+    // a diagnostic the miner printed on stderr
+    public static class MinerError extends MiningEvent {
+        public static final int ILLEGAL_INSTRUCTION = 1;
+        public static final int HUGE_PAGES = 2;
+        public static final int BIND_FAILED = 3;
+        public static final int OUT_OF_MEMORY = 4;
+        public static final int LINKER = 5;
+
+        public final int kind;
+
+        public MinerError(int kind) {
+            this.kind = kind;
+        }
+
+        @Override
+        public int getType() {
+            return TYPE_MINER_ERROR;
+        }
+    }
+
+    // one poll of the miner's HTTP API, see MinerApiPoller
+    public static class MinerApiStats extends MiningEvent {
+        public final HashrateSample hashrate;
+        public final int accepted;
+        public final int rejected;
+        public final long difficulty;
+        // average pool round trip, -1 if unknown
+        public final int latencyMs;
+        public final long uptimeSec;
+        // bytes, -1 if the miner does not report it
+        public final long memoryRss;
+        public final long memoryFree;
+        public final long memoryTotal;
+
+        // per thread, NaN for windows without a value, affinity -1 if not pinned
+        public final int[] threadAffinity;
+        public final double[] threadRate10s;
+        public final double[] threadRate60s;
+        public final double[] threadRate15m;
+
+        public MinerApiStats(HashrateSample hashrate, int accepted, int rejected, long difficulty, int latencyMs, long uptimeSec,
+                             long memoryRss, long memoryFree, long memoryTotal,
+                             int[] threadAffinity, double[] threadRate10s, double[] threadRate60s, double[] threadRate15m) {
+            this.hashrate = hashrate;
+            this.accepted = accepted;
+            this.rejected = rejected;
+            this.difficulty = difficulty;
+            this.latencyMs = latencyMs;
+            this.uptimeSec = uptimeSec;
+            this.memoryRss = memoryRss;
+            this.memoryFree = memoryFree;
+            this.memoryTotal = memoryTotal;
+            this.threadAffinity = threadAffinity;
+            this.threadRate10s = threadRate10s;
+            this.threadRate60s = threadRate60s;
+            this.threadRate15m = threadRate15m;
+        }
+
+        public int getThreadCount() {
+            return threadAffinity.length;
+        }
+
+        /**
+         * Stats of miners running side by side as one: rates, shares, RSS and
+         * threads add up, latency is averaged, uptime is the shortest one.
+         * Null entries are skipped, null if all are null.
+         */
+        public static MinerApiStats merge(MinerApiStats[] stats) {
+            HashrateSample[] hashrates = new HashrateSample[stats.length];
+            int accepted = 0, rejected = 0, latencySum = 0, latencyCount = 0, threads = 0;
+            long difficulty = 0, uptime = Long.MAX_VALUE, rss = -1, free = -1, total = -1;
+            MinerApiStats first = null;
+
+            for (int i = 0; i < stats.length; i++) {
+                MinerApiStats s = stats[i];
+                if (s == null) continue;
+                if (first == null) first = s;
+                hashrates[i] = s.hashrate;
+                accepted += s.accepted;
+                rejected += s.rejected;
+                difficulty = Math.max(difficulty, s.difficulty);
+                if (s.latencyMs >= 0) {
+                    latencySum += s.latencyMs;
+                    latencyCount++;
+                }
+                uptime = Math.min(uptime, s.uptimeSec);
+                if (s.memoryRss >= 0) rss = Math.max(rss, 0) + s.memoryRss;
+                // free and total are the device's, the same for every miner
+                if (s.memoryTotal >= 0) {
+                    free = s.memoryFree;
+                    total = s.memoryTotal;
+                }
+                threads += s.getThreadCount();
+            }
+            if (first == null) return null;
+
+            int[] affinity = new int[threads];
+            double[] rate10s = new double[threads];
+            double[] rate60s = new double[threads];
+            double[] rate15m = new double[threads];
+            int n = 0;
+            for (MinerApiStats s : stats) {
+                if (s == null) continue;
+                int count = s.getThreadCount();
+                System.arraycopy(s.threadAffinity, 0, affinity, n, count);
+                System.arraycopy(s.threadRate10s, 0, rate10s, n, count);
+                System.arraycopy(s.threadRate60s, 0, rate60s, n, count);
+                System.arraycopy(s.threadRate15m, 0, rate15m, n, count);
+                n += count;
+            }
+
+            return new MinerApiStats(HashrateSample.sum(hashrates), accepted, rejected, difficulty,
+                    latencyCount > 0 ? latencySum / latencyCount : -1, uptime,
+                    rss, free, total, affinity, rate10s, rate60s, rate15m);
+        }
+
+        @Override
+        public int getType() {
+            return TYPE_API_STATS;
+        }
+    }
+
+    // the supervisor will restart a miner that died or stalled
+    public static class MinerRestart extends MiningEvent {
+        public static final int REASON_EXIT = 1;
+        public static final int REASON_STALL = 2;
+
+        public final int reason;
+        // -1 for a stall
+        public final int exitCode;
+        public final int attempt;
+        public final long delayMs;
+
+        public MinerRestart(int reason, int exitCode, int attempt, long delayMs) {
+            this.reason = reason;
+            this.exitCode = exitCode;
+            this.attempt = attempt;
+            this.delayMs = delayMs;
+        }
+
+        @Override
+        public int getType() {
+            return TYPE_MINER_RESTART;
+        }
+    }
+}
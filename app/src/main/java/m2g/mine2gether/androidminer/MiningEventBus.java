@@ -0,0 +1,201 @@
+// Copyright (c) 2019, Mine2Gether.com
+//
+// Please see the included LICENSE file for more information.
+
+package m2g.mine2gether.androidminer;
+
+import android.os.Handler;
+import android.os.Looper;
+import android.util.Log;
+
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Fan-out of {@link MiningEvent}s to any number of subscribers. Publishing never
+ * blocks and never runs subscriber code: every subscriber has its own bounded
+ * mailbox that is drained on the executor it subscribed with, so a slow consumer
+ * only loses its own events instead of stalling the miner's output pipe.
+ */
+public class MiningEventBus {
+
+    private static final String LOG_TAG = "MiningSvc";
+
+    // keep every event, dropping the oldest one when the mailbox is full
+    public static final int POLICY_DROP_OLDEST = 0;
+    // keep only the latest event of each type
+    public static final int POLICY_COALESCE = 1;
+
+    public static final int MASK_ALL = -1;
+
+    private static final int MAX_TYPES = 32;
+
+    private final CopyOnWriteArrayList<Subscription> subscriptions = new CopyOnWriteArrayList<>();
+    private volatile int wantedTypes = 0;
+
+    public static int mask(int... types) {
+        int mask = 0;
+        for (int type : types) {
+            mask |= 1 << type;
+        }
+        return mask;
+    }
+
+    public static Executor mainThread() {
+        final Handler handler = new Handler(Looper.getMainLooper());
+        return new Executor() {
+            @Override
+            public void execute(Runnable command) {
+                handler.post(command);
+            }
+        };
+    }
+
+    public Subscription subscribe(Subscriber subscriber, Executor executor, int typeMask, int capacity, int policy) {
+        Subscription subscription = new Subscription(subscriber, executor, typeMask, capacity, policy);
+        subscriptions.add(subscription);
+        updateWantedTypes();
+        return subscription;
+    }
+
+    public void unsubscribe(Subscription subscription) {
+        if (subscription == null) return;
+        subscription.active = false;
+        subscriptions.remove(subscription);
+        updateWantedTypes();
+    }
+
+    /**
+     * Lets publishers skip building events (for example decoding a log line)
+     * that nobody subscribed to.
+     */
+    public boolean isWanted(int type) {
+        return (wantedTypes & (1 << type)) != 0;
+    }
+
+    public void publish(MiningEvent event) {
+        int bit = 1 << event.getType();
+        if ((wantedTypes & bit) == 0) return;
+
+        for (Subscription subscription : subscriptions) {
+            if ((subscription.typeMask & bit) != 0) {
+                subscription.offer(event);
+            }
+        }
+    }
+
+    private void updateWantedTypes() {
+        int wanted = 0;
+        for (Subscription subscription : subscriptions) {
+            wanted |= subscription.typeMask;
+        }
+        wantedTypes = wanted;
+    }
+
+    public interface Subscriber {
+        void onMiningEvent(MiningEvent event);
+    }
+
+    public static class Subscription implements Runnable {
+
+        private final Subscriber subscriber;
+        private final Executor executor;
+        private final int typeMask;
+        private final int capacity;
+        private final int policy;
+
+        private final ConcurrentLinkedQueue<MiningEvent> mailbox = new ConcurrentLinkedQueue<>();
+        private final AtomicInteger size = new AtomicInteger();
+        private final AtomicReferenceArray<MiningEvent> latest = new AtomicReferenceArray<>(MAX_TYPES);
+        private final AtomicBoolean scheduled = new AtomicBoolean();
+        private final AtomicLong dropped = new AtomicLong();
+
+        private volatile boolean active = true;
+
+        Subscription(Subscriber subscriber, Executor executor, int typeMask, int capacity, int policy) {
+            this.subscriber = subscriber;
+            this.executor = executor;
+            this.typeMask = typeMask;
+            this.capacity = Math.max(1, capacity);
+            this.policy = policy;
+        }
+
+        public long getDropped() {
+            return dropped.get();
+        }
+
+        public int getPending() {
+            return size.get();
+        }
+
+        void offer(MiningEvent event) {
+            if (policy == POLICY_COALESCE) {
+                if (latest.getAndSet(event.getType(), event) != null) {
+                    dropped.incrementAndGet();
+                }
+            } else {
+                mailbox.offer(event);
+                if (size.incrementAndGet() > capacity && mailbox.poll() != null) {
+                    size.decrementAndGet();
+                    dropped.incrementAndGet();
+                }
+            }
+
+            schedule();
+        }
+
+        private void schedule() {
+            if (scheduled.compareAndSet(false, true)) {
+                executor.execute(this);
+            }
+        }
+
+        @Override
+        public void run() {
+            drain();
+            scheduled.set(false);
+
+            // something may have arrived between the last poll and the reset
+            if (hasPending()) schedule();
+        }
+
+        private void drain() {
+            if (policy == POLICY_COALESCE) {
+                for (int type = 0; type < MAX_TYPES && active; type++) {
+                    MiningEvent event = latest.getAndSet(type, null);
+                    if (event != null) deliver(event);
+                }
+            } else {
+                MiningEvent event;
+                while (active && (event = mailbox.poll()) != null) {
+                    size.decrementAndGet();
+                    deliver(event);
+                }
+            }
+        }
+
+        private boolean hasPending() {
+            if (!active) return false;
+            if (policy == POLICY_COALESCE) {
+                for (int type = 0; type < MAX_TYPES; type++) {
+                    if (latest.get(type) != null) return true;
+                }
+                return false;
+            }
+            return !mailbox.isEmpty();
+        }
+
+        private void deliver(MiningEvent event) {
+            try {
+                subscriber.onMiningEvent(event);
+            } catch (RuntimeException e) {
+                Log.w(LOG_TAG, "subscriber failed", e);
+            }
+        }
+    }
+}
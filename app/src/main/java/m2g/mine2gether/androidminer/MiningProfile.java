@@ -0,0 +1,176 @@
+// Copyright (c) 2019, Mine2Gether.com
+//
+// Please see the included LICENSE file for more information.
+
+package m2g.mine2gether.androidminer;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Everything the user set up for mining, as one immutable snapshot. Changes
+ * go through {@link #edit()} and {@link ProfileStore#update(MiningProfile)}.
+ */
+public class MiningProfile {
+
+    // wallet address
+    public final String address;
+    public final String pool;
+    public final String pass;
+    // the algo picked in the settings and the miner's name for it
+    public final String algo;
+    public final String minerAlgo;
+    public final String miner;
+    public final String assetExtension;
+
+    public final String coin;
+    public final String apiUrl;
+    public final String apiUrlMerged;
+    public final String poolUrl;
+    public final String statsUrl;
+    public final String startUrl;
+
+    // 0 until the settings were saved once
+    public final int cores;
+    public final int threads;
+    public final int intensity;
+
+    public final boolean pauseOnBattery;
+    // the settings were saved at least once
+    public final boolean saved;
+    public final boolean disclaimerAccepted;
+
+    // per pool key, per algo
+    private final Map<String, String> poolAddresses;
+    private final Map<String, String> poolPasswords;
+    private final Map<String, String> algoMiners;
+
+    private MiningProfile(Builder b) {
+        address = b.address;
+        pool = b.pool;
+        pass = b.pass;
+        algo = b.algo;
+        minerAlgo = b.minerAlgo;
+        miner = b.miner;
+        assetExtension = b.assetExtension;
+        coin = b.coin;
+        apiUrl = b.apiUrl;
+        apiUrlMerged = b.apiUrlMerged;
+        poolUrl = b.poolUrl;
+        statsUrl = b.statsUrl;
+        startUrl = b.startUrl;
+        cores = b.cores;
+        threads = b.threads;
+        intensity = b.intensity;
+        pauseOnBattery = b.pauseOnBattery;
+        saved = b.saved;
+        disclaimerAccepted = b.disclaimerAccepted;
+        poolAddresses = Collections.unmodifiableMap(new HashMap<>(b.poolAddresses));
+        poolPasswords = Collections.unmodifiableMap(new HashMap<>(b.poolPasswords));
+        algoMiners = Collections.unmodifiableMap(new HashMap<>(b.algoMiners));
+    }
+
+    // wallet last saved for a pool, "" if none
+    public String getPoolAddress(String poolKey) {
+        return valueOrEmpty(poolAddresses, poolKey);
+    }
+
+    public String getPoolPassword(String poolKey) {
+        return valueOrEmpty(poolPasswords, poolKey);
+    }
+
+    // miner last picked for an algo, "" if none
+    public String getAlgoMiner(String algo) {
+        return valueOrEmpty(algoMiners, algo);
+    }
+
+    Map<String, String> getPoolAddresses() {
+        return poolAddresses;
+    }
+
+    Map<String, String> getPoolPasswords() {
+        return poolPasswords;
+    }
+
+    Map<String, String> getAlgoMiners() {
+        return algoMiners;
+    }
+
+    public Builder edit() {
+        Builder b = new Builder();
+        b.address = address;
+        b.pool = pool;
+        b.pass = pass;
+        b.algo = algo;
+        b.minerAlgo = minerAlgo;
+        b.miner = miner;
+        b.assetExtension = assetExtension;
+        b.coin = coin;
+        b.apiUrl = apiUrl;
+        b.apiUrlMerged = apiUrlMerged;
+        b.poolUrl = poolUrl;
+        b.statsUrl = statsUrl;
+        b.startUrl = startUrl;
+        b.cores = cores;
+        b.threads = threads;
+        b.intensity = intensity;
+        b.pauseOnBattery = pauseOnBattery;
+        b.saved = saved;
+        b.disclaimerAccepted = disclaimerAccepted;
+        b.poolAddresses.putAll(poolAddresses);
+        b.poolPasswords.putAll(poolPasswords);
+        b.algoMiners.putAll(algoMiners);
+        return b;
+    }
+
+    private static String valueOrEmpty(Map<String, String> map, String key) {
+        String value = map.get(key);
+        return value != null ? value : "";
+    }
+
+    public static class Builder {
+        public String address = "";
+        public String pool = "";
+        public String pass = "";
+        public String algo = "";
+        public String minerAlgo = "";
+        public String miner = "";
+        public String assetExtension = "";
+        public String coin = "";
+        public String apiUrl = "";
+        public String apiUrlMerged = "";
+        public String poolUrl = "";
+        public String statsUrl = "";
+        public String startUrl = "";
+        public int cores = 0;
+        public int threads = 0;
+        public int intensity = 0;
+        public boolean pauseOnBattery = false;
+        public boolean saved = false;
+        public boolean disclaimerAccepted = false;
+
+        final Map<String, String> poolAddresses = new HashMap<>();
+        final Map<String, String> poolPasswords = new HashMap<>();
+        final Map<String, String> algoMiners = new HashMap<>();
+
+        public Builder setPoolAddress(String poolKey, String address) {
+            poolAddresses.put(poolKey, address);
+            return this;
+        }
+
+        public Builder setPoolPassword(String poolKey, String password) {
+            poolPasswords.put(poolKey, password);
+            return this;
+        }
+
+        public Builder setAlgoMiner(String algo, String miner) {
+            algoMiners.put(algo, miner);
+            return this;
+        }
+
+        public MiningProfile build() {
+            return new MiningProfile(this);
+        }
+    }
+}
@@ -27,60 +27,93 @@ import static android.os.PowerManager.PARTIAL_WAKE_LOCK;
 import android.app.Service;
 import android.content.Context;
 import android.content.Intent;
-import android.os.AsyncTask;
 import android.os.Binder;
+import android.os.Build;
+import android.os.Handler;
 import android.os.IBinder;
+import android.os.Looper;
 import android.os.PowerManager;
-import android.text.TextUtils;
+import android.os.SystemClock;
 import android.util.Log;
 import android.widget.Toast;
 
-import java.io.BufferedReader;
-import java.io.BufferedWriter;
 import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
-import java.io.InputStreamReader;
-import java.io.OutputStream;
-import java.io.OutputStreamWriter;
 import java.net.InetAddress;
 import java.net.UnknownHostException;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
 public class MiningService extends Service {
 
     private static final String LOG_TAG = "MiningSvc";
-    private final static String[] SUPPORTED_ARCHITECTURES = {"arm64-v8a", "armeabi-v7a", "x86", "x86_64"};
-    Boolean mMiningServiceState = false;
-    private Process process;
-    private String configTemplate;
+    public static final int STATE_IDLE = 0;
+    public static final int STATE_PREPARING = 1;
+    public static final int STATE_RUNNING = 2;
+    public static final int STATE_STOPPING = 3;
+    // android.os.Process has no constant for it
+    private static final int SIGNAL_TERM = 15;
+    // toybox, Android 6 and later
+    private static final String TASKSET = "/system/bin/taskset";
     private String privatePath;
-    private OutputReaderThread outputHandler;
-    private InputReaderThread inputHandler;
-    private ProcessMonitor procMon;
+    // the running miners, usually one; replaced as a whole on the control thread
+    private volatile MinerProcess[] miners = new MinerProcess[0];
     private PowerManager pm;
     private PowerManager.WakeLock wl;
-    private int accepted = 0;
-    private String speed = "0";
-    private String lastAssetPath;
-    private String lastOutput = "";
-    private String assetExtension = "";
-    private MiningServiceStateListener listener = null;
+    private final LogRingBuffer log = new LogRingBuffer(Config.logMaxLength, Config.logMaxLines);
+    private final LogRingBuffer errorLog = new LogRingBuffer(Config.errorLogMaxLength, Config.errorLogMaxLines);
+    private StartupPipeline startupPipeline;
+    private final StartupTimeline startupTimeline = new StartupTimeline(Config.startupHistorySize);
+    private final MiningEventBus eventBus = new MiningEventBus();
+    private SessionLogWriter sessionLog;
+    private SessionLogReader sessionLogReader;
+    private volatile int logcatMirrorRate = Config.logcatMirrorRate;
+
+    // every change to the process and its threads runs on this one thread
+    private final Executor control = MinerExecutors.control();
+    private final Handler mainHandler = new Handler(Looper.getMainLooper());
+    private final AtomicInteger requestGeneration = new AtomicInteger();
+    private volatile boolean miningRequested = false;
+    private volatile int lifecycleState = STATE_IDLE;
+    private final LifecycleStats lifecycleStats = new LifecycleStats();
+    private MinerSupervisor supervisor;
+    // what the supervisor restarts with, control thread only
+    private MiningConfig[] lastConfigs;
+
+    /**
+     * xmrig's cpu profile: one [intensity, core] pair per thread.
+     *
+     * @param cpus           the cores to use, see {@link CpuTopology#getFastestCpus(int)}
+     * @param clusterIntensity intensity per cluster id, null or 0 for the default
+     */
+    static String createCpuConfig(CpuTopology topology, int[] cpus, int threads, int intensity, int[] clusterIntensity) {
+
+        StringBuilder cpuConfig = new StringBuilder(2 + cpus.length * threads * 8);
+        cpuConfig.append('[');
+
+        for (int cpu : cpus) {
+            int cluster = topology.getCpu(cpu).cluster;
+            int cpuIntensity = clusterIntensity != null && cluster < clusterIntensity.length && clusterIntensity[cluster] > 0
+                    ? clusterIntensity[cluster] : intensity;
 
-    private static String createCpuConfig(int cores, int threads, int intensity) {
-
-        String cpuConfig = "";
-
-        for (int i = 0; i < cores; i++) {
             for (int j = 0; j < threads; j++) {
-                if (cpuConfig.equals("") == false) {
-                    cpuConfig += ",";
+                if (cpuConfig.length() > 1) {
+                    cpuConfig.append(',');
                 }
-                cpuConfig += "[" + Integer.toString(intensity) + "," + Integer.toString(i) + "]";
+                cpuConfig.append('[').append(cpuIntensity).append(',').append(cpu).append(']');
             }
         }
 
-        return "[" + cpuConfig + "]";
+        return cpuConfig.append(']').toString();
     }
 
     public static String getIpByHost(String hostName) {
@@ -96,59 +129,154 @@ public class MiningService extends Service {
     @Override
     public void onCreate() {
         super.onCreate();
+        // the extracted miner stays between service restarts, see AssetCache
         privatePath = getFilesDir().getAbsolutePath();
-        Tools.deleteDirectoryContents(new File(privatePath));
+        startupPipeline = new StartupPipeline(this, privatePath);
+
+        // kept outside of filesDir, which belongs to the asset cache
+        sessionLog = new SessionLogWriter(getDir("logs", Context.MODE_PRIVATE), Config.sessionLogSegmentSize, Config.sessionLogMaxDiskBytes, MinerExecutors.disk());
+        // scanning old segments is disk work, the writer queues appends until it is done
+        Runnable recovery = new Runnable() {
+            @Override
+            public void run() {
+                sessionLog.recover();
+            }
+        };
+        try {
+            MinerExecutors.disk().execute(recovery);
+        } catch (RejectedExecutionException e) {
+            new Thread(recovery, "SessionLogRecovery").start();
+        }
+        sessionLogReader = new SessionLogReader(sessionLog);
+
+        supervisor = new MinerSupervisor(new MinerSupervisor.Host() {
+            @Override
+            public void kill() {
+                control.execute(new Runnable() {
+                    @Override
+                    public void run() {
+                        if (!miningRequested || lifecycleState != STATE_RUNNING) return;
+                        logSupervisor("miner stalled, stopping it");
+                        // terminateMiners() marks the miners, the monitor won't report the exit as a crash
+                        terminateMiners();
+                        supervisor.onStalled();
+                    }
+                });
+            }
+
+            @Override
+            public void restart() {
+                control.execute(new Runnable() {
+                    @Override
+                    public void run() {
+                        if (!miningRequested || lastConfigs == null || lifecycleState != STATE_IDLE) return;
+                        startMining(lastConfigs, false);
+                    }
+                });
+            }
+
+            @Override
+            public void giveUp(String reason) {
+                miningRequested = false;
+                logSupervisor("giving up after " + reason + ", start mining again by hand");
+                eventBus.publish(new MiningEvent.StateChange(false));
+            }
+
+            @Override
+            public void onRestartScheduled(MiningEvent.MinerRestart event) {
+                logSupervisor(String.format(Locale.US, "restarting in %.1f s (%s, attempt %d)", event.delayMs / 1000.0,
+                        event.reason == MiningEvent.MinerRestart.REASON_STALL ? "stalled" : "exit code " + event.exitCode,
+                        event.attempt));
+                eventBus.publish(event);
+            }
+        });
     }
 
-    public void setMiningServiceStateListener(MiningServiceStateListener listener) {
-        if (this.listener != null) this.listener = null;
-        this.listener = listener;
+    // the whole startup in one line of the session log, to compare across devices and builds
+    private void logStartupTimeline() {
+        StartupTimeline.Session session = startupTimeline.getSession();
+        if (session == null) return;
+        String line = session.toString() + " (" + Build.MODEL + ")";
+        Log.i(LOG_TAG, line);
+        sessionLog.append(System.currentTimeMillis(), MiningEvent.TYPE_STATE_CHANGE, line);
     }
 
-    private void raiseMiningServiceStateChange(Boolean state) {
-        mMiningServiceState = state;
-        if (listener != null) listener.onStateChange(state);
+    // supervisor decisions go to the miner log so they show up next to the output that caused them
+    private void logSupervisor(String message) {
+        String line = "[supervisor] " + message;
+        Log.i(LOG_TAG, line);
+        long sequence = log.append(line, MiningEvent.TYPE_MINER_RESTART);
+        sessionLog.append(System.currentTimeMillis(), MiningEvent.TYPE_MINER_RESTART, line);
+        if (eventBus.isWanted(MiningEvent.TYPE_LOG_APPENDED)) {
+            eventBus.publish(new MiningEvent.LogAppended(sequence));
+        }
     }
 
-    private void raiseMiningServiceStatusChange(String status, String speed, Integer accepted) {
-        if (listener != null) listener.onStatusChange(status, speed, accepted);
+    public MiningEventBus getEventBus() {
+        return eventBus;
     }
 
-    public Boolean getMiningServiceState() {
-        return mMiningServiceState;
+    // control thread only
+    private void setLifecycleState(int state) {
+        int previous = lifecycleState;
+        if (previous == state) return;
+        lifecycleState = state;
+        Log.i(LOG_TAG, "lifecycle: " + previous + " -> " + state);
+
+        if (state == STATE_RUNNING) {
+            eventBus.publish(new MiningEvent.StateChange(true));
+        } else if (state == STATE_IDLE) {
+            eventBus.publish(new MiningEvent.StateChange(false));
+        }
     }
 
-    private void copyMinerFiles() {
+    // whether mining was asked for, the process may still be starting or stopping
+    public Boolean getMiningServiceState() {
+        return miningRequested;
+    }
 
-        String abi = Tools.getABI();
-        String assetPath = "";
-        String libraryPath = "";
-        String configPath = "";
+    public int getLifecycleState() {
+        return lifecycleState;
+    }
 
-        Log.i(LOG_TAG, "MINING SERVICE ABI: " + abi);
+    public MinerSupervisor.Stats getSupervisorStats() {
+        return supervisor.getStats();
+    }
 
-        assetExtension = PreferenceHelper.getName("assetExtension");
+    // phase timings of the current start and percentiles over the last ones
+    public StartupTimeline getStartupTimeline() {
+        return startupTimeline;
+    }
 
-        if (Arrays.asList(SUPPORTED_ARCHITECTURES).contains(abi)) {
-            assetPath = assetExtension + "/" + abi;
-            libraryPath = "lib" + "/" + abi;
-            configPath = assetExtension + "/config.json";
-        } else {
-            Log.i(LOG_TAG, "NO ASSET PATH");
+    public LifecycleStats getLifecycleStats() {
+        synchronized (lifecycleStats) {
+            return lifecycleStats.copy();
         }
+    }
 
-        Log.i(LOG_TAG, "ASSET PATH: " + assetPath);
-        Log.i(LOG_TAG, "LAST ASSET PATH: " + lastAssetPath);
-        Log.i(LOG_TAG, "ABI: " + abi);
-
-        if (assetPath.equals(lastAssetPath) == false) {
-            Tools.deleteDirectoryContents(new File(privatePath));
-            Tools.copyDirectoryContents(this, libraryPath, privatePath);
-            Tools.copyDirectoryContents(this, assetPath, privatePath);
-            configTemplate = Tools.loadConfigTemplate(this, configPath);
-            Tools.logDirectoryFiles(new File(privatePath));
-            lastAssetPath = assetPath;
+    public MiningConfig newConfig(MiningProfile profile) {
+        MiningConfig config = newConfig(profile.address, profile.pool, profile.pass,
+                profile.cores, profile.threads, profile.intensity, profile.minerAlgo, profile.assetExtension);
+        config.miner = profile.miner;
+
+        AlgoItem algo = Catalog.get(this).getAlgo(profile.algo);
+        if (algo != null) {
+            CpuTopology topology = CpuTopology.get();
+            CacheModel.Layout layout = CacheModel.fit(topology, topology.getFastestCpus(profile.cores),
+                    profile.threads, profile.intensity, algo.getScratchpadKb());
+            if (layout.reduced && Config.enforceCacheFit) {
+                Log.i(LOG_TAG, profile.algo + " does not fit in the caches, using " + layout);
+                config.cores = layout.cpus.length;
+                config.threads = layout.threads;
+                config.legacyThreads = layout.threads * layout.cpus.length;
+                config.legacyIntensity = layout.intensity;
+                config.cpuConfig = createCpuConfig(topology, layout.cpus, layout.threads, profile.intensity, layout.clusterIntensity);
+            } else if (layout.reduced) {
+                Log.i(LOG_TAG, profile.algo + " does not fit in the caches, " + layout + " would");
+            }
         }
+
+        return config;
     }
 
     public MiningConfig newConfig(String username, String pool, String pass, int cores, int threads, int intensity, String algo, String assetExtension) {
@@ -173,14 +301,37 @@ public class MiningService extends Service {
         if (poolParts.length > 1) {
             config.poolPort = poolParts[1];
         }
-        config.cpuConfig = createCpuConfig(cores, threads, intensity);
+        config.cpuConfig = createCpuConfig(CpuTopology.get(), CpuTopology.get().getFastestCpus(cores), threads, intensity, null);
+
+        config.httpApi = Config.minerHttpApi && MinerApiPoller.isSupported(assetExtension);
 
         return config;
     }
 
+    /**
+     * Restricts a config to some CPUs, usually one of
+     * {@link CpuTopology#getClusters()}, so it can run next to miners on the
+     * other clusters. Miners without a cpu profile in their config are pinned
+     * with taskset where the device has it.
+     */
+    public MiningConfig pinToCpus(MiningConfig config, int[] cpus) {
+        config.cpus = cpus.clone();
+        config.cores = cpus.length;
+        config.legacyThreads = config.threads * cpus.length;
+        config.cpuConfig = createCpuConfig(CpuTopology.get(), cpus, config.threads, config.intensity, null);
+        return config;
+    }
+
     @Override
     public void onDestroy() {
         stopMining();
+        control.execute(new Runnable() {
+            @Override
+            public void run() {
+                sessionLog.close();
+            }
+        });
+        supervisor.shutdown();
         super.onDestroy();
     }
 
@@ -190,118 +341,405 @@ public class MiningService extends Service {
     }
 
     public void stopMining() {
-        if (outputHandler != null) {
-            outputHandler.interrupt();
-            outputHandler = null;
-        }
+        miningRequested = false;
+        requestGeneration.incrementAndGet();
+        control.execute(new Runnable() {
+            @Override
+            public void run() {
+                supervisor.onUserStop();
+                terminateMiners();
+            }
+        });
+    }
 
-        if (inputHandler != null) {
-            inputHandler.interrupt();
-            inputHandler = null;
-        }
+    /**
+     * Queues a start. A running miner is stopped first and the new one is only
+     * launched once the old process is gone. A start or stop requested while
+     * this one waits in the queue replaces it.
+     */
+    public void startMining(MiningConfig config) {
+        startMining(new MiningConfig[]{config}, true);
+    }
 
-        if (process != null) {
-            process.destroy();
-            process = null;
-        }
+    /**
+     * Like {@link #startMining(MiningConfig)}, with one miner process per
+     * config running side by side, e.g. one per CPU cluster (see
+     * {@link #pinToCpus(MiningConfig, int[])}). They are supervised as one:
+     * if one of them dies or stalls, all are restarted.
+     */
+    public void startMining(MiningConfig[] configs) {
+        startMining(configs.clone(), true);
     }
 
-    public void startMining(MiningConfig config) {
-        stopMining();
-        new startMiningAsync().execute(config);
+    // userRequest is false for supervisor restarts
+    private void startMining(final MiningConfig[] configs, final boolean userRequest) {
+        miningRequested = true;
+        // only user requests replace queued ones, a restart must not drop a start the user just asked for
+        final int generation = userRequest ? requestGeneration.incrementAndGet() : requestGeneration.get();
+        final long requestedAt = SystemClock.elapsedRealtime();
+
+        control.execute(new Runnable() {
+            @Override
+            public void run() {
+                if (generation != requestGeneration.get()) return;
+                // a user start ran in between, this restart is stale
+                if (!userRequest && (configs != lastConfigs || miners.length > 0)) return;
+
+                if (userRequest) supervisor.onUserStart();
+                lastConfigs = configs;
+
+                // DNS and config rendering overlap with stopping the old miner
+                startupTimeline.begin(requestedAt);
+                StartupPipeline.Run startup = startupPipeline.start(configs, startupTimeline);
+
+                boolean restart = miners.length > 0;
+                terminateMiners();
+                if (generation != requestGeneration.get()) {
+                    startup.cancel();
+                    return;
+                }
+
+                setLifecycleState(STATE_PREPARING);
+                startup.extract();
+
+                if (startMiners(configs, startup)) {
+                    setLifecycleState(STATE_RUNNING);
+                    synchronized (lifecycleStats) {
+                        lifecycleStats.onStarted(SystemClock.elapsedRealtime() - requestedAt, restart || !userRequest);
+                    }
+                    supervisor.onRunning(miners.length);
+                } else {
+                    terminateMiners();
+                    if (generation != requestGeneration.get()) return;
+                    if (userRequest) {
+                        // most likely a setup problem, retrying will not help
+                        miningRequested = false;
+                    } else {
+                        supervisor.onUnexpectedExit(-1);
+                    }
+                }
+            }
+        });
     }
 
-    public void startMiningProcess(MiningConfig config) {
+    /**
+     * Stops all miners at once: SIGTERM to each, up to {@link Config#stopGraceMs}
+     * for them to exit, then SIGKILL. Returns once the processes and their
+     * reader threads are gone. Control thread only.
+     */
+    private void terminateMiners() {
+        MinerProcess[] stopping = miners;
+
+        for (MinerProcess miner : stopping) {
+            miner.stopRequested = true;
+            miner.closeChannels();
+        }
 
-        Log.i(LOG_TAG, "starting...");
+        if (stopping.length > 0) {
+            setLifecycleState(STATE_STOPPING);
+
+            long stopStart = SystemClock.elapsedRealtime();
+            boolean killed = false;
 
-        if (process != null) {
-            process.destroy();
-            process = null;
+            for (MinerProcess miner : stopping) {
+                miner.signal(SIGNAL_TERM);
+            }
+            long deadline = stopStart + Config.stopGraceMs;
+            for (MinerProcess miner : stopping) {
+                if (miner.procMon == null) continue;
+                if (!miner.procMon.awaitExit(Math.max(0, deadline - SystemClock.elapsedRealtime()))) {
+                    Log.w(LOG_TAG, "miner ignored SIGTERM, killing " + miner.pid);
+                    killed = true;
+                    miner.signal(android.os.Process.SIGNAL_KILL);
+                    miner.procMon.awaitExit(Config.stopKillWaitMs);
+                }
+            }
+
+            // the readers end at EOF once the pipes close
+            for (MinerProcess miner : stopping) {
+                joinQuietly(miner.outputHandler, Config.stopKillWaitMs);
+                joinQuietly(miner.errorHandler, Config.stopKillWaitMs);
+            }
+
+            synchronized (lifecycleStats) {
+                lifecycleStats.onStopped(SystemClock.elapsedRealtime() - stopStart, killed);
+            }
         }
 
+        miners = new MinerProcess[0];
+
         if (wl != null) {
             if (wl.isHeld()) {
-                wl.release(); //Wakelock
+                wl.release();
             }
             wl = null;
         }
 
+        setLifecycleState(STATE_IDLE);
+    }
+
+    private static void joinQuietly(Thread thread, long timeoutMs) {
+        if (thread == null) return;
+        try {
+            thread.join(timeoutMs);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        if (thread.isAlive()) thread.interrupt();
+    }
+
+    // control thread only
+    private boolean startMiners(MiningConfig[] configs, StartupPipeline.Run startup) {
+
+        Log.i(LOG_TAG, "starting...");
+
         pm = (PowerManager) getSystemService(Context.POWER_SERVICE);
         wl = pm.newWakeLock(PARTIAL_WAKE_LOCK, "app:sleeplock");
         wl.acquire();
 
+        List<MinerProcess> started = new ArrayList<>(configs.length);
         try {
-            Tools.writeConfig(configTemplate, config, privatePath);
+            StartupPipeline.Result[] prepared = startup.join();
+
+            long configStart = SystemClock.elapsedRealtime();
+            long renderMs = 0;
+            for (int i = 0; i < configs.length; i++) {
+                Tools.writeConfig(prepared[i].config, prepared[i].pool, prepared[i].workDir);
+                renderMs = Math.max(renderMs, prepared[i].renderMs);
+            }
+            startupTimeline.mark(StartupTimeline.PHASE_CONFIG, renderMs + SystemClock.elapsedRealtime() - configStart);
+
+            sessionLog.startSession();
+
+            long execStart = SystemClock.elapsedRealtime();
+            for (int i = 0; i < configs.length; i++) {
+                MinerProcess miner = new MinerProcess(i, configs[i], configs.length > 1 ? "[" + i + "] " : "");
+                sessionLog.append(System.currentTimeMillis(), MiningEvent.TYPE_STATE_CHANGE, miner.tag + "start " + configs[i].assetExtension
+                        + " algo " + configs[i].algo + " pool " + configs[i].pool
+                        + (configs[i].cpus != null ? " cpus " + Arrays.toString(configs[i].cpus) : ""));
+                // listed first, so a miner that fails halfway through its start is still stopped
+                started.add(miner);
+                miner.start(prepared[i]);
+            }
+            startupTimeline.mark(StartupTimeline.PHASE_EXEC, SystemClock.elapsedRealtime() - execStart);
 
-            String[] args = {"./" + assetExtension};
+            return true;
 
-            ProcessBuilder pb = new ProcessBuilder(args);
+        } catch (final Exception e) {
+            Log.e(LOG_TAG, "exception:", e);
+            mainHandler.post(new Runnable() {
+                @Override
+                public void run() {
+                    Toast.makeText(MiningService.this, e.getLocalizedMessage(), Toast.LENGTH_SHORT).show();
+                }
+            });
+            return false;
+        } finally {
+            // after a failure terminateMiners() stops the ones that did start
+            miners = started.toArray(new MinerProcess[0]);
+        }
+    }
 
-            pb.directory(new File(privatePath));
+    // the event as the UI should see it: rates and share counts of all miners together
+    private MiningEvent aggregate(MiningEvent event) {
+        MinerProcess[] current = miners;
+        if (current.length <= 1) return event;
+
+        switch (event.getType()) {
+            case MiningEvent.TYPE_HASHRATE:
+                return getLastHashrate();
+            case MiningEvent.TYPE_SHARE_ACCEPTED: {
+                MiningEvent.ShareAccepted share = (MiningEvent.ShareAccepted) event;
+                return new MiningEvent.ShareAccepted(getAccepted(), getRejected(), share.difficulty, share.latencyMs);
+            }
+            case MiningEvent.TYPE_SHARE_REJECTED: {
+                MiningEvent.ShareRejected share = (MiningEvent.ShareRejected) event;
+                return new MiningEvent.ShareRejected(getAccepted(), getRejected(), share.difficulty, share.latencyMs);
+            }
+            case MiningEvent.TYPE_API_STATS:
+                return getApiStats();
+            default:
+                return event;
+        }
+    }
 
-            pb.environment().put("LD_LIBRARY_PATH", privatePath);
+    // the getters below sum up all running miners
 
-            pb.redirectErrorStream();
+    public double getSpeed() {
+        double speed = 0;
+        for (MinerProcess miner : miners) {
+            speed += miner.speed;
+        }
+        return speed;
+    }
 
-            accepted = 0;
-            speed = "0";
-            lastOutput = "";
+    public int getAccepted() {
+        int accepted = 0;
+        for (MinerProcess miner : miners) {
+            accepted += miner.accepted;
+        }
+        return accepted;
+    }
 
-            process = pb.start();
+    public int getRejected() {
+        int rejected = 0;
+        for (MinerProcess miner : miners) {
+            rejected += miner.rejected;
+        }
+        return rejected;
+    }
 
-            outputHandler = new MiningService.OutputReaderThread(process.getInputStream(), PreferenceHelper.getName("miner"));
-            outputHandler.start();
+    public MiningEvent.HashrateSample getLastHashrate() {
+        MinerProcess[] current = miners;
+        if (current.length == 1) return current[0].lastHashrate;
 
-            inputHandler = new MiningService.InputReaderThread(process.getOutputStream());
-            inputHandler.start();
+        MiningEvent.HashrateSample[] samples = new MiningEvent.HashrateSample[current.length];
+        boolean any = false;
+        for (int i = 0; i < current.length; i++) {
+            samples[i] = current[i].lastHashrate;
+            any |= samples[i] != null;
+        }
+        return any ? MiningEvent.HashrateSample.sum(samples) : null;
+    }
 
-            if (procMon != null) {
-                procMon.interrupt();
-                procMon = null;
-            }
-            procMon = new ProcessMonitor(process);
-            procMon.start();
+    // null unless a miner serves its HTTP API
+    public MiningEvent.MinerApiStats getApiStats() {
+        MinerProcess[] current = miners;
+        if (current.length == 1) return current[0].lastApiStats;
 
-        } catch (Exception e) {
-            Log.e(LOG_TAG, "exception:", e);
-            Toast.makeText(this, e.getLocalizedMessage(), Toast.LENGTH_SHORT).show();
-            process = null;
+        MiningEvent.MinerApiStats[] stats = new MiningEvent.MinerApiStats[current.length];
+        for (int i = 0; i < current.length; i++) {
+            stats[i] = current[i].lastApiStats;
         }
+        return MiningEvent.MinerApiStats.merge(stats);
     }
 
-    public String getSpeed() {
-        return speed;
+    // one entry per running miner, for a breakdown of the totals
+    public MinerStats[] getMinerStats() {
+        MinerProcess[] current = miners;
+        MinerStats[] stats = new MinerStats[current.length];
+        for (int i = 0; i < current.length; i++) {
+            stats[i] = new MinerStats(current[i]);
+        }
+        return stats;
     }
 
-    public int getAccepted() {
-        return accepted;
+    // polls the miner APIs now instead of on their idle schedule, e.g. when the UI comes back
+    public void requestStats() {
+        for (MinerProcess miner : miners) {
+            MinerApiPoller poller = miner.apiPoller;
+            if (poller != null) poller.requestPoll();
+        }
     }
 
     public String getOutput() {
-        if (outputHandler != null && outputHandler.getOutput() != null) {
-            lastOutput = outputHandler.getOutput().toString();
-            return lastOutput;
-        } else {
-            return lastOutput;
-        }
+        return log.toString();
     }
 
-    public void sendInput(String s) {
-        if (inputHandler != null) {
-            inputHandler.sendInput(s);
-        }
+    public LogRingBuffer getLog() {
+        return log;
+    }
+
+    // the log of this and earlier sessions as far as the disk cap allows
+    public SessionLogReader getSessionLog() {
+        return sessionLogReader;
     }
 
-    public interface MiningServiceStateListener {
-        public void onStateChange(Boolean state);
+    public LogRingBuffer getErrorLog() {
+        return errorLog;
+    }
+
+    // 0 turns the logcat copy of the miner output off, n mirrors every nth line
+    public void setLogcatMirrorRate(int rate) {
+        logcatMirrorRate = Math.max(0, rate);
+    }
 
-        public void onStatusChange(String status, String speed, Integer accepted);
+    /**
+     * Sends a console command to every miner. The future has their answers
+     * merged, see {@link MinerCommandChannel#merge}; null if no miner runs.
+     */
+    public Future<MinerCommandChannel.Response> sendCommand(char command) {
+        MinerProcess[] current = miners;
+        List<Future<MinerCommandChannel.Response>> sent = new ArrayList<>();
+        for (MinerProcess miner : current) {
+            if (miner.commandChannel != null) sent.add(miner.commandChannel.send(command));
+        }
+        if (sent.isEmpty()) return null;
+
+        if (command == MinerCommandChannel.COMMAND_PAUSE) {
+            supervisor.onPaused();
+        } else if (command == MinerCommandChannel.COMMAND_RESUME) {
+            supervisor.onResumed();
+        }
+        return sent.size() == 1 ? sent.get(0) : MinerCommandChannel.merge(command, sent);
+    }
+
+    public void sendInput(String s) {
+        for (int i = 0; i < s.length(); i++) {
+            sendCommand(s.charAt(i));
+        }
     }
 
     public static class MiningConfig {
         String username, pool, pass, algo, assetExtension, cpuConfig, poolHost, poolPort;
+        // miner name from the profile, "" if the config was built without one
+        String miner = "";
+        // set by pinToCpus(), null runs on the fastest cores
+        int[] cpus;
         int cores, threads, intensity, legacyThreads, legacyIntensity;
+        // port and token are filled in by Tools.renderConfig
+        boolean httpApi;
+        int httpPort;
+        String httpToken;
+    }
+
+    /**
+     * Start and stop timings. Restart is the time from a start request that
+     * replaced a running miner until the new one runs.
+     */
+    public static class LifecycleStats {
+        public int starts = 0;
+        public int stops = 0;
+        // stops where the miner ignored SIGTERM
+        public int kills = 0;
+        public int restarts = 0;
+        // -1 until there is one
+        public long lastStopMs = -1;
+        public long maxStopMs = -1;
+        public long lastStartMs = -1;
+        public long lastRestartMs = -1;
+        public long maxRestartMs = -1;
+
+        void onStarted(long elapsedMs, boolean restart) {
+            starts++;
+            lastStartMs = elapsedMs;
+            if (restart) {
+                restarts++;
+                lastRestartMs = elapsedMs;
+                maxRestartMs = Math.max(maxRestartMs, elapsedMs);
+            }
+        }
+
+        void onStopped(long elapsedMs, boolean killed) {
+            stops++;
+            if (killed) kills++;
+            lastStopMs = elapsedMs;
+            maxStopMs = Math.max(maxStopMs, elapsedMs);
+        }
+
+        LifecycleStats copy() {
+            LifecycleStats copy = new LifecycleStats();
+            copy.starts = starts;
+            copy.stops = stops;
+            copy.kills = kills;
+            copy.restarts = restarts;
+            copy.lastStopMs = lastStopMs;
+            copy.maxStopMs = maxStopMs;
+            copy.lastStartMs = lastStartMs;
+            copy.lastRestartMs = lastRestartMs;
+            copy.maxRestartMs = maxRestartMs;
+            return copy;
+        }
     }
 
     public class MiningServiceBinder extends Binder {
@@ -310,180 +748,359 @@ public class MiningService extends Service {
         }
     }
 
-    class startMiningAsync extends AsyncTask<MiningConfig, Void, String> {
+    /**
+     * One miner process with its monitor, reader threads, command channel and
+     * API poller. Started and stopped on the control thread.
+     */
+    private class MinerProcess {
+
+        // position in miners, reported to the supervisor with its progress
+        final int index;
+        final MiningConfig config;
+        // put in front of its log lines when several miners run, "" otherwise
+        final String tag;
+
+        Process process;
+        int pid = -1;
+        ProcessMonitor procMon;
+        OutputReaderThread outputHandler;
+        ErrorReaderThread errorHandler;
+        MinerCommandChannel commandChannel;
+        MinerApiPoller apiPoller;
+
+        // set before an intentional stop, the exit is not a crash then
+        volatile boolean stopRequested = false;
+
+        volatile int accepted = 0;
+        volatile int rejected = 0;
+        volatile double speed = 0;
+        volatile MiningEvent.HashrateSample lastHashrate;
+        volatile MiningEvent.MinerApiStats lastApiStats;
+
+        MinerProcess(int index, MiningConfig config, String tag) {
+            this.index = index;
+            this.config = config;
+            this.tag = tag;
+        }
+
+        void start(StartupPipeline.Result prepared) throws IOException {
+            ProcessBuilder pb = new ProcessBuilder(getCommand(prepared.executable));
 
-        private Exception exception;
-        private MiningConfig config;
+            // config.json is in the working directory, the binary may be in nativeLibraryDir
+            pb.directory(new File(prepared.workDir));
 
-        protected String getPoolHost(String pool) {
+            pb.environment().put("LD_LIBRARY_PATH", prepared.libraryPath);
 
-            String[] hostParts = pool.split(":");
+            String miner = config.miner;
+            MinerItem minerItem = Catalog.get(MiningService.this).findMiner(miner, config.algo);
+            MinerOutputParser.Factory parser = minerItem != null ? minerItem.getOutputParser() : MinerOutputParsers.forMiner(miner);
 
-            if (hostParts.length == 2) {
-                return getIpByHost(hostParts[0]) + ":" + hostParts[1];
-            } else if (hostParts.length == 1) {
-                return getIpByHost(hostParts[0]);
-            } else {
-                return pool;
+            process = pb.start();
+            pid = Tools.getProcessId(process);
+
+            // watch the process before anything else can fail, terminateMiners() relies on it
+            procMon = new ProcessMonitor(this);
+            procMon.start();
+
+            commandChannel = new MinerCommandChannel(process.getOutputStream(), Config.commandTimeoutMs);
+            commandChannel.start();
+
+            outputHandler = new OutputReaderThread(this, process.getInputStream(), parser.create(), commandChannel);
+            outputHandler.start();
+
+            // stderr gets its own pump so a chatty or crashing miner can never fill the pipe and block
+            errorHandler = new ErrorReaderThread(this, process.getErrorStream(), MinerOutputParsers.errorParserForMiner(miner).create());
+            errorHandler.start();
+
+            if (config.httpPort > 0) {
+                apiPoller = new MinerApiPoller("127.0.0.1", config.httpPort, config.httpToken, eventBus, new MinerApiPoller.Listener() {
+                    @Override
+                    public void onStats(MiningEvent.MinerApiStats stats) {
+                        lastApiStats = stats;
+                        if (!Double.isNaN(stats.hashrate.current())) {
+                            lastHashrate = stats.hashrate;
+                            speed = stats.hashrate.current();
+                            if (speed > 0) supervisor.onProgress(index);
+                        }
+                        accepted = stats.accepted;
+                        rejected = stats.rejected;
+
+                        eventBus.publish(aggregate(stats));
+                        if (!Double.isNaN(stats.hashrate.current())) eventBus.publish(aggregate(stats.hashrate));
+                    }
+                });
+                apiPoller.start();
             }
         }
 
-        protected String doInBackground(MiningConfig... config) {
+        // a miner restricted to some CPUs runs under taskset, which execs it with that affinity
+        private String[] getCommand(String executable) {
+            if (config.cpus == null || !new File(TASKSET).canExecute()) return new String[]{executable};
 
-            try {
-                this.config = config[0];
-                this.config.pool = getPoolHost(this.config.pool);
-                return "success";
-            } catch (Exception e) {
-                this.exception = e;
-                return null;
-            } finally {
+            long mask = 0;
+            for (int cpu : config.cpus) {
+                if (cpu < 64) mask |= 1L << cpu;
+            }
+            return new String[]{TASKSET, Long.toHexString(mask), executable};
+        }
 
+        void closeChannels() {
+            if (apiPoller != null) {
+                apiPoller.close();
+                apiPoller = null;
             }
+
+            if (commandChannel != null) {
+                commandChannel.close();
+                commandChannel = null;
+            }
+        }
+
+        void signal(int signal) {
+            if (procMon == null || procMon.hasExited()) return;
+            if (pid > 0) {
+                android.os.Process.sendSignal(pid, signal);
+            } else {
+                process.destroy();
+            }
+        }
+    }
+
+    private boolean isRunning(MinerProcess miner) {
+        for (MinerProcess running : miners) {
+            if (running == miner) return true;
+        }
+        return false;
+    }
+
+    // a line into the logs, with the miner's tag in front when several run
+    private long appendLine(LogRingBuffer target, MinerProcess miner, MinerLogLine line, int lineType) {
+        if (miner.tag.isEmpty()) {
+            sessionLog.append(line, lineType);
+            return target.append(line, lineType);
         }
+        String text = miner.tag + line;
+        sessionLog.append(System.currentTimeMillis(), lineType, text);
+        return target.append(text, lineType);
+    }
 
-        protected void onPostExecute(String result) {
-            copyMinerFiles();
-            startMiningProcess(this.config);
+    /**
+     * What one miner contributes to the totals of {@link #getSpeed()},
+     * {@link #getAccepted()} and {@link #getRejected()}.
+     */
+    public static class MinerStats {
+        public final String assetExtension;
+        public final String algo;
+        // null if the miner was not pinned
+        public final int[] cpus;
+        public final double speed;
+        public final int accepted;
+        public final int rejected;
+
+        MinerStats(MinerProcess miner) {
+            this.assetExtension = miner.config.assetExtension;
+            this.algo = miner.config.algo;
+            this.cpus = miner.config.cpus != null ? miner.config.cpus.clone() : null;
+            this.speed = miner.speed;
+            this.accepted = miner.accepted;
+            this.rejected = miner.rejected;
         }
     }
 
     private class ProcessMonitor extends Thread {
 
-        Process proc;
+        private final MinerProcess miner;
+        private final CountDownLatch exited = new CountDownLatch(1);
+        private int exitCode = -1;
 
-        ProcessMonitor(Process proc) {
-            this.proc = proc;
+        ProcessMonitor(MinerProcess miner) {
+            this.miner = miner;
         }
 
-        public void run() {
-            try {
+        boolean hasExited() {
+            return exited.getCount() == 0;
+        }
 
-                raiseMiningServiceStateChange(true);
-                if (proc != null) {
-                    proc.waitFor();
-                    Log.i(LOG_TAG, "process exit: " + proc.exitValue());
-                }
-                raiseMiningServiceStateChange(false);
+        boolean awaitExit(long timeoutMs) {
+            try {
+                return exited.await(timeoutMs, TimeUnit.MILLISECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return hasExited();
+            }
+        }
 
+        public void run() {
+            try {
+                exitCode = miner.process.waitFor();
+                Log.i(LOG_TAG, miner.tag + "process exit: " + exitCode);
+                sessionLog.append(System.currentTimeMillis(), MiningEvent.TYPE_STATE_CHANGE, miner.tag + "process exit: " + exitCode);
             } catch (Exception e) {
                 // assume problem with process and not running
-                raiseMiningServiceStateChange(false);
                 Log.e(LOG_TAG, "exception:", e);
+            } finally {
+                exited.countDown();
+            }
+
+            // the miner quit on its own, stop the others too and let the supervisor decide unless a stop or restart is already on the way
+            if (miner.stopRequested) return;
+            final int generation = requestGeneration.get();
+            try {
+                control.execute(new Runnable() {
+                    @Override
+                    public void run() {
+                        if (miner.stopRequested || !isRunning(miner) || generation != requestGeneration.get()) return;
+                        terminateMiners();
+                        supervisor.onUnexpectedExit(exitCode);
+                    }
+                });
+            } catch (RejectedExecutionException e) {
+                // service destroyed
             }
         }
     }
 
-    private class OutputReaderThread extends Thread {
+    private class OutputReaderThread extends Thread implements LogLineScanner.LineHandler {
 
+        private MinerProcess miner;
         private InputStream inputStream;
-        private StringBuilder output = new StringBuilder();
-        private BufferedReader reader;
-        private String miner;
+        private MinerOutputParser parser;
+        private MinerCommandChannel commandChannel;
+        private int lineCount = 0;
+        private boolean firstLine = true;
 
-        OutputReaderThread(InputStream inputStream, String miner) {
+        OutputReaderThread(MinerProcess miner, InputStream inputStream, MinerOutputParser parser, MinerCommandChannel commandChannel) {
 
-            this.inputStream = inputStream;
             this.miner = miner;
+            this.inputStream = inputStream;
+            this.parser = parser;
+            this.commandChannel = commandChannel;
         }
 
-        private void processLogLine(String line) {
-            output.append(line + System.lineSeparator());
-
-            String lineCompare = line.toLowerCase();
+        @Override
+        public void onLine(MinerLogLine line) {
 
-            if (miner.equals(Config.miner_xmrig) || miner.equals(Config.miner_ninjarig) || miner.equals(Config.miner_xmrig_upx)) {
+            if (firstLine) {
+                firstLine = false;
+                startupTimeline.mark(StartupTimeline.PHASE_FIRST_OUTPUT);
+            }
 
-                if (lineCompare.contains("accepted")) {
-                    accepted++;
-                } else if (lineCompare.contains("speed")) {
-                    String[] split = TextUtils.split(line, " ");
-                    speed = split[5];
-                    if (speed.equals("n/a")) {
-                        speed = split[4];
-                    }
-                }
+            int mirrorRate = logcatMirrorRate;
+            if (mirrorRate > 0 && lineCount++ % mirrorRate == 0) {
+                Log.i(LOG_TAG, "miner: " + miner.tag + line);
+            }
 
-            } else if (miner.equals(Config.miner_violetminer)) {
+            processLogLine(line);
+        }
 
-                if (lineCompare.contains("share accepted")) {
-                    accepted++;
-                } else if (lineCompare.toLowerCase().contains("hashrate:")) {
-                    String[] split = TextUtils.split(line, " ");
-                    speed = split[2];
+        private void processLogLine(MinerLogLine line) {
+            MiningEvent event = parser.parse(line);
+
+            commandChannel.onOutputLine(line, event);
+
+            int lineType = event != null ? event.getType() : MiningEvent.TYPE_NONE;
+            long sequence = appendLine(log, miner, line, lineType);
+
+            if (event != null) {
+                switch (event.getType()) {
+                    case MiningEvent.TYPE_HASHRATE:
+                        MiningEvent.HashrateSample sample = (MiningEvent.HashrateSample) event;
+                        miner.lastHashrate = sample;
+                        if (!Double.isNaN(sample.current())) {
+                            miner.speed = sample.current();
+                            if (miner.speed > 0) supervisor.onProgress(miner.index);
+                        }
+                        break;
+                    case MiningEvent.TYPE_SHARE_ACCEPTED:
+                        miner.accepted = ((MiningEvent.ShareAccepted) event).accepted;
+                        miner.rejected = ((MiningEvent.ShareAccepted) event).rejected;
+                        supervisor.onProgress(miner.index);
+                        if (startupTimeline.mark(StartupTimeline.PHASE_FIRST_SHARE)) {
+                            logStartupTimeline();
+                        }
+                        break;
+                    case MiningEvent.TYPE_DATASET_READY:
+                        // RandomX spends a while on the dataset before the first hashrate
+                        supervisor.onProgress(miner.index);
+                        startupTimeline.mark(StartupTimeline.PHASE_DATASET_READY);
+                        break;
+                    case MiningEvent.TYPE_NEW_JOB:
+                        startupTimeline.mark(StartupTimeline.PHASE_FIRST_JOB);
+                        break;
+                    case MiningEvent.TYPE_SHARE_REJECTED:
+                        miner.accepted = ((MiningEvent.ShareRejected) event).accepted;
+                        miner.rejected = ((MiningEvent.ShareRejected) event).rejected;
+                        break;
                 }
             }
 
-            if (output.length() > Config.logMaxLength)
-                output.delete(0, output.indexOf(System.lineSeparator(), Config.logPruneLength) + 1);
+            if (event != null) eventBus.publish(aggregate(event));
+
+            // only decode the line when somebody subscribed to it
+            if (eventBus.isWanted(MiningEvent.TYPE_LOG_LINE)) {
+                eventBus.publish(new MiningEvent.LogLine(miner.tag + line, lineType, sequence));
+            }
 
-            raiseMiningServiceStatusChange(line, speed, accepted);
+            if (eventBus.isWanted(MiningEvent.TYPE_LOG_APPENDED)) {
+                eventBus.publish(new MiningEvent.LogAppended(sequence));
+            }
 
         }
 
         public void run() {
             try {
-                reader = new BufferedReader(new InputStreamReader(inputStream));
-                String line;
-                while ((line = reader.readLine()) != null) {
-
-                    Log.i(LOG_TAG, "miner: " + line);
-
-                    processLogLine(line);
-
-                    if (currentThread().isInterrupted()) return;
-                }
-
+                new LogLineScanner(inputStream).scan(this);
             } catch (IOException e) {
                 Log.w(LOG_TAG, "exception", e);
             }
         }
 
-        public StringBuilder getOutput() {
-            return output;
-        }
-
     }
 
-    private class InputReaderThread extends Thread {
+    private class ErrorReaderThread extends Thread implements LogLineScanner.LineHandler {
 
-        private OutputStream outputStream;
-        private BufferedWriter writer;
+        private MinerProcess miner;
+        private InputStream errorStream;
+        private MinerOutputParser parser;
 
-        InputReaderThread(OutputStream outputStream) {
-            this.outputStream = outputStream;
+        ErrorReaderThread(MinerProcess miner, InputStream errorStream, MinerOutputParser parser) {
+            this.miner = miner;
+            this.errorStream = errorStream;
+            this.parser = parser;
         }
 
-        public void run() {
-            try {
-                writer = new BufferedWriter(new OutputStreamWriter(outputStream));
+        @Override
+        public void onLine(MinerLogLine line) {
 
-                while (true) {
+            MiningEvent event = parser.parse(line);
+            int lineType = event != null ? event.getType() : MiningEvent.TYPE_NONE;
 
-                    try {
-                        Thread.sleep(250);
-                    } catch (InterruptedException e) {
+            appendLine(errorLog, miner, line, lineType);
 
-                    }
+            if (event == null) return;
 
-                    if (currentThread().isInterrupted()) return;
-                }
+            Log.w(LOG_TAG, "miner stderr: " + miner.tag + line);
 
-            } catch (Exception e) {
-                Log.w(LOG_TAG, "exception", e);
+            // recognised diagnostics also go to the main log so they show up in the UI
+            long sequence = miner.tag.isEmpty() ? log.append(line, lineType) : log.append(miner.tag + line, lineType);
+
+            eventBus.publish(event);
+
+            if (eventBus.isWanted(MiningEvent.TYPE_LOG_LINE)) {
+                eventBus.publish(new MiningEvent.LogLine(miner.tag + line, lineType, sequence));
             }
-        }
 
-        public void sendInput(String s) {
+            if (eventBus.isWanted(MiningEvent.TYPE_LOG_APPENDED)) {
+                eventBus.publish(new MiningEvent.LogAppended(sequence));
+            }
+        }
 
+        public void run() {
             try {
-                writer.write(s);
-                writer.flush();
-            } catch (Exception e) {
+                new LogLineScanner(errorStream).scan(this);
+            } catch (IOException e) {
                 Log.w(LOG_TAG, "exception", e);
             }
-
         }
-
     }
 }
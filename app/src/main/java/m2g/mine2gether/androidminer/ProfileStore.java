@@ -0,0 +1,204 @@
+// Copyright (c) 2019, Mine2Gether.com
+//
+// Please see the included LICENSE file for more information.
+
+package m2g.mine2gether.androidminer;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.util.Log;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Holds the current {@link MiningProfile}. The preferences are read once,
+ * after that every reader gets the in-memory snapshot.
+ * <p>
+ * {@link #update(MiningProfile)} swaps the snapshot, tells the listeners and
+ * queues a write on the disk executor. The write puts the whole profile into
+ * one editor and commits it once; updates that come in before it ran are
+ * written with it. The keys are the ones PreferenceHelper used, so existing
+ * settings carry over.
+ */
+public class ProfileStore {
+
+    private static final String LOG_TAG = "MiningSvc";
+
+    private static final String KEY_ADDRESS_PREFIX = "keyAddress-";
+    private static final String KEY_PASSWORD_PREFIX = "keyPassword-";
+    private static final String KEY_MINER_PREFIX = "keyMiner-";
+
+    private static volatile ProfileStore instance;
+
+    private final SharedPreferences preferences;
+    private final List<Listener> listeners = new CopyOnWriteArrayList<>();
+    private final AtomicBoolean writePending = new AtomicBoolean();
+
+    private volatile MiningProfile profile;
+
+    public interface Listener {
+        // called on the thread that called update()
+        void onProfileChanged(MiningProfile profile);
+    }
+
+    private ProfileStore(Context context) {
+        preferences = context.getSharedPreferences(context.getPackageName() + "_preferences", Context.MODE_PRIVATE);
+        profile = read(preferences);
+    }
+
+    public static ProfileStore get(Context context) {
+        ProfileStore store = instance;
+        if (store == null) {
+            synchronized (ProfileStore.class) {
+                store = instance;
+                if (store == null) {
+                    store = new ProfileStore(context.getApplicationContext());
+                    instance = store;
+                }
+            }
+        }
+        return store;
+    }
+
+    public MiningProfile getProfile() {
+        return profile;
+    }
+
+    public void update(MiningProfile profile) {
+        this.profile = profile;
+
+        for (Listener listener : listeners) {
+            listener.onProfileChanged(profile);
+        }
+
+        scheduleWrite();
+    }
+
+    public void addListener(Listener listener) {
+        listeners.add(listener);
+    }
+
+    public void removeListener(Listener listener) {
+        listeners.remove(listener);
+    }
+
+    private void scheduleWrite() {
+        // a write is queued already and will pick up this profile
+        if (!writePending.compareAndSet(false, true)) return;
+
+        try {
+            MinerExecutors.disk().execute(new Runnable() {
+                @Override
+                public void run() {
+                    writePending.set(false);
+                    if (!write(profile).commit()) {
+                        Log.w(LOG_TAG, "profile: saving settings failed");
+                    }
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            // apply() also writes in the background, just without our executor
+            writePending.set(false);
+            write(profile).apply();
+        }
+    }
+
+    private SharedPreferences.Editor write(MiningProfile p) {
+        SharedPreferences.Editor editor = preferences.edit();
+
+        editor.putString("address", p.address);
+        editor.putString("pool", p.pool);
+        editor.putString("pass", p.pass);
+        editor.putString("algo", p.algo);
+        editor.putString("minerAlgo", p.minerAlgo);
+        editor.putString("miner", p.miner);
+        editor.putString("assetExtension", p.assetExtension);
+        editor.putString("coin", p.coin);
+        editor.putString("apiUrl", p.apiUrl);
+        editor.putString("apiUrlMerged", p.apiUrlMerged);
+        editor.putString("poolUrl", p.poolUrl);
+        editor.putString("statsUrl", p.statsUrl);
+        editor.putString("startUrl", p.startUrl);
+
+        editor.putString("cores", p.cores > 0 ? Integer.toString(p.cores) : "");
+        editor.putString("threads", p.threads > 0 ? Integer.toString(p.threads) : "");
+        editor.putString("intensity", p.intensity > 0 ? Integer.toString(p.intensity) : "");
+
+        editor.putString("pauseonbattery", p.pauseOnBattery ? "1" : "0");
+        editor.putString("init", p.saved ? "1" : "0");
+        editor.putString("show_again", p.disclaimerAccepted ? "1" : "");
+
+        putAll(editor, KEY_ADDRESS_PREFIX, p.getPoolAddresses());
+        putAll(editor, KEY_PASSWORD_PREFIX, p.getPoolPasswords());
+        putAll(editor, KEY_MINER_PREFIX, p.getAlgoMiners());
+
+        return editor;
+    }
+
+    private static void putAll(SharedPreferences.Editor editor, String prefix, Map<String, String> values) {
+        for (Map.Entry<String, String> entry : values.entrySet()) {
+            editor.putString(prefix + entry.getKey(), entry.getValue());
+        }
+    }
+
+    private static MiningProfile read(SharedPreferences preferences) {
+        Map<String, ?> values = preferences.getAll();
+        MiningProfile.Builder b = new MiningProfile.Builder();
+
+        b.address = getString(values, "address");
+        b.pool = getString(values, "pool");
+        b.pass = getString(values, "pass");
+        b.algo = getString(values, "algo");
+        b.minerAlgo = getString(values, "minerAlgo");
+        b.miner = getString(values, "miner");
+        b.assetExtension = getString(values, "assetExtension");
+        b.coin = getString(values, "coin");
+        b.apiUrl = getString(values, "apiUrl");
+        b.apiUrlMerged = getString(values, "apiUrlMerged");
+        b.poolUrl = getString(values, "poolUrl");
+        b.statsUrl = getString(values, "statsUrl");
+        b.startUrl = getString(values, "startUrl");
+
+        b.cores = getInt(values, "cores");
+        b.threads = getInt(values, "threads");
+        b.intensity = getInt(values, "intensity");
+
+        b.pauseOnBattery = getString(values, "pauseonbattery").equals("1");
+        b.saved = getString(values, "init").equals("1");
+        b.disclaimerAccepted = getString(values, "show_again").equals("1");
+
+        for (Map.Entry<String, ?> entry : values.entrySet()) {
+            String key = entry.getKey();
+            String value = String.valueOf(entry.getValue());
+            if (key.startsWith(KEY_ADDRESS_PREFIX)) {
+                b.setPoolAddress(key.substring(KEY_ADDRESS_PREFIX.length()), value);
+            } else if (key.startsWith(KEY_PASSWORD_PREFIX)) {
+                b.setPoolPassword(key.substring(KEY_PASSWORD_PREFIX.length()), value);
+            } else if (key.startsWith(KEY_MINER_PREFIX)) {
+                b.setAlgoMiner(key.substring(KEY_MINER_PREFIX.length()), value);
+            }
+        }
+
+        return b.build();
+    }
+
+    private static String getString(Map<String, ?> values, String key) {
+        Object value = values.get(key);
+        return value != null ? value.toString() : "";
+    }
+
+    private static int getInt(Map<String, ?> values, String key) {
+        String value = getString(values, key);
+        if (value.isEmpty()) return 0;
+        try {
+            return Integer.parseInt(value);
+        } catch (NumberFormatException e) {
+            Log.w(LOG_TAG, "profile: ignoring " + key + "=" + value);
+            return 0;
+        }
+    }
+}
@@ -0,0 +1,149 @@
+// Copyright (c) 2019, Mine2Gether.com
+//
+// Please see the included LICENSE file for more information.
+
+package m2g.mine2gether.androidminer;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.zip.GZIPInputStream;
+
+/**
+ * Queries the segments written by {@link SessionLogWriter}. Segments whose
+ * index shows no record in the time range or none of the wanted types are
+ * skipped without being opened, so pulling up a window from hours ago only
+ * reads the one or two segments that cover it.
+ */
+public class SessionLogReader {
+
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+
+    public interface RecordVisitor {
+        // text is only valid during the call, return false to stop
+        boolean onRecord(long timestamp, int type, byte[] text, int length);
+    }
+
+    private final SessionLogWriter writer;
+
+    public SessionLogReader(SessionLogWriter writer) {
+        this.writer = writer;
+    }
+
+    /**
+     * Visits the records with from <= timestamp <= to whose type is in typeMask, oldest first.
+     *
+     * @return number of records visited
+     */
+    public int query(final long from, final long to, final int typeMask, final RecordVisitor visitor) throws IOException {
+        final int[] visited = {0};
+        final boolean[] stopped = {false};
+
+        RecordVisitor filter = new RecordVisitor() {
+            @Override
+            public boolean onRecord(long timestamp, int type, byte[] text, int length) {
+                if (timestamp < from || timestamp > to || (typeMask & (1 << type)) == 0) return true;
+                visited[0]++;
+                if (!visitor.onRecord(timestamp, type, text, length)) stopped[0] = true;
+                return !stopped[0];
+            }
+        };
+
+        File dir = writer.getDirectory();
+        for (SessionLogWriter.SegmentIndex index : writer.getSegments()) {
+            if (!index.overlaps(from, to) || (index.typeMask & typeMask) == 0) continue;
+
+            InputStream in = open(dir, index);
+            if (in == null) continue;
+            try {
+                readRecords(in, index.usedBytes, filter);
+            } finally {
+                in.close();
+            }
+            if (stopped[0]) break;
+        }
+
+        return visited[0];
+    }
+
+    public List<Entry> find(long from, long to, int typeMask, final int maxRecords) throws IOException {
+        final List<Entry> entries = new ArrayList<>();
+        query(from, to, typeMask, new RecordVisitor() {
+            @Override
+            public boolean onRecord(long timestamp, int type, byte[] text, int length) {
+                entries.add(new Entry(timestamp, type, new String(text, 0, length, UTF8)));
+                return entries.size() < maxRecords;
+            }
+        });
+        return entries;
+    }
+
+    // the compressor may swap the raw file for the .gz while we look
+    private static InputStream open(File dir, SessionLogWriter.SegmentIndex index) throws IOException {
+        File raw = new File(dir, index.name + SessionLogWriter.SEGMENT_SUFFIX);
+        File gz = new File(dir, index.name + SessionLogWriter.COMPRESSED_SUFFIX);
+        File[] order = index.compressed ? new File[]{gz, raw} : new File[]{raw, gz};
+
+        for (File f : order) {
+            try {
+                InputStream in = new FileInputStream(f);
+                if (f == gz) return new GZIPInputStream(in, 64 * 1024);
+                return new BufferedInputStream(in, 64 * 1024);
+            } catch (FileNotFoundException e) {
+                // try the other one
+            }
+        }
+        // dropped by the disk cap
+        return null;
+    }
+
+    /**
+     * Reads the records of one segment, at most limitBytes of it.
+     */
+    static void readRecords(InputStream stream, long limitBytes, RecordVisitor visitor) throws IOException {
+        DataInputStream in = new DataInputStream(stream);
+        byte[] text = new byte[256];
+
+        try {
+            if (in.readInt() != SessionLogWriter.MAGIC) throw new IOException("not a log segment");
+            if (in.readInt() != SessionLogWriter.VERSION) throw new IOException("unknown log segment version");
+
+            long position = SessionLogWriter.HEADER_SIZE;
+            while (position + SessionLogWriter.RECORD_HEADER_SIZE <= limitBytes) {
+                int length = in.readInt();
+                // zero is the unwritten tail, anything else past the limit is a torn record
+                if (length <= 0 || position + SessionLogWriter.RECORD_HEADER_SIZE + length > limitBytes) break;
+
+                long timestamp = in.readLong();
+                int type = in.readByte();
+                if (length > text.length) text = new byte[Math.max(length, text.length * 2)];
+                in.readFully(text, 0, length);
+
+                position += SessionLogWriter.RECORD_HEADER_SIZE + length;
+                if (!visitor.onRecord(timestamp, type, text, length)) break;
+            }
+        } catch (EOFException e) {
+            // segment ends without a terminator
+        }
+    }
+
+    public static class Entry {
+        public final long timestamp;
+        public final int type;
+        public final String text;
+
+        Entry(long timestamp, int type, String text) {
+            this.timestamp = timestamp;
+            this.type = type;
+            this.text = text;
+        }
+    }
+}
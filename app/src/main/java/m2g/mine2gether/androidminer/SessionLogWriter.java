@@ -0,0 +1,531 @@
+// Copyright (c) 2019, Mine2Gether.com
+//
+// Please see the included LICENSE file for more information.
+
+package m2g.mine2gether.androidminer;
+
+import android.util.Log;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Persists the miner log across service restarts. Lines are appended to
+ * fixed-size memory-mapped segment files, so a write is a memory copy and
+ * whatever was written survives the process being killed.
+ * <p>
+ * A full segment is sealed: its index (time range, event types, size) goes to
+ * a small .idx file and the segment is gzipped in the background. The oldest
+ * segments are deleted once the directory grows past the disk cap. Segments a
+ * crashed process left unsealed are indexed and compressed by {@link #recover()}.
+ * Until it finished, appends are queued in memory, up to one segment's worth.
+ * <p>
+ * Segment layout: magic, version, then records of
+ * [int length][long timestamp][byte type][length bytes UTF-8]. The length is
+ * written last, a zero length ends the segment.
+ */
+public class SessionLogWriter {
+
+    private static final String LOG_TAG = "MiningSvc";
+
+    static final int MAGIC = 0x4d32474c;
+    static final int VERSION = 1;
+    static final int HEADER_SIZE = 8;
+    static final int RECORD_HEADER_SIZE = 13;
+
+    static final String SEGMENT_SUFFIX = ".seg";
+    static final String COMPRESSED_SUFFIX = ".seg.gz";
+    static final String INDEX_SUFFIX = ".idx";
+
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+
+    private final File dir;
+    private final int segmentSize;
+    private final long maxDiskBytes;
+
+    private final Executor compressor;
+
+    // sealed segments oldest first, the live one is kept apart
+    private final List<SegmentIndex> segments = new ArrayList<>();
+    private SegmentIndex live;
+    private MappedByteBuffer buffer;
+
+    private long sessionId = 0;
+    private int segmentNumber = 0;
+
+    // appends and session starts that came in while recover() ran
+    private boolean recovered = false;
+    private boolean closed = false;
+    private final List<Pending> pending = new ArrayList<>();
+    private int pendingBytes = 0;
+    private int pendingDropped = 0;
+
+    public SessionLogWriter(File dir, int segmentSize, long maxDiskBytes, Executor compressor) {
+        this.dir = dir;
+        this.compressor = compressor;
+        this.segmentSize = segmentSize;
+        this.maxDiskBytes = maxDiskBytes;
+    }
+
+    public File getDirectory() {
+        return dir;
+    }
+
+    /**
+     * Loads the indexes of earlier sessions and seals segments that were left
+     * open by a process that died, then writes what was appended meanwhile.
+     * Call once, off the main thread; the lock is only held at the end.
+     */
+    public void recover() {
+        List<SegmentIndex> found = new ArrayList<>();
+        List<SegmentIndex> uncompressed = new ArrayList<>();
+
+        File[] files = dir.listFiles();
+        if (files == null) files = new File[0];
+        Arrays.sort(files);
+
+        for (File f : files) {
+            String name = f.getName();
+            if (name.endsWith(".tmp")) {
+                f.delete();
+            } else if (name.endsWith(INDEX_SUFFIX)) {
+                SegmentIndex index = readIndex(f);
+                if (index == null) continue;
+                found.add(index);
+                if (!index.compressed) {
+                    // died between sealing and compressing
+                    uncompressed.add(index);
+                } else {
+                    // died between writing the index and deleting the raw segment; the
+                    // .gz only appears by rename once it is complete, readIndex checked it is there
+                    new File(dir, index.name + SEGMENT_SUFFIX).delete();
+                }
+            } else if (name.endsWith(SEGMENT_SUFFIX)) {
+                String base = name.substring(0, name.length() - SEGMENT_SUFFIX.length());
+                if (new File(dir, base + INDEX_SUFFIX).exists()) continue;
+
+                SegmentIndex index = new SegmentIndex(base);
+                try {
+                    scan(index);
+                    writeIndex(index);
+                    found.add(index);
+                    uncompressed.add(index);
+                } catch (IOException e) {
+                    Log.w(LOG_TAG, "exception", e);
+                    f.delete();
+                }
+            }
+        }
+
+        synchronized (this) {
+            segments.addAll(found);
+            sortSegments();
+            recovered = true;
+
+            for (Pending p : pending) {
+                if (p.text == null) {
+                    startSession(p.timestamp);
+                } else {
+                    write(p.timestamp, p.type, p.text, p.text.length);
+                }
+            }
+            pending.clear();
+            pendingBytes = 0;
+            if (pendingDropped > 0) {
+                Log.w(LOG_TAG, "session log: dropped " + pendingDropped + " lines during recovery");
+                pendingDropped = 0;
+            }
+            if (closed) seal();
+        }
+
+        for (SegmentIndex index : uncompressed) {
+            compressLater(index);
+        }
+    }
+
+    /**
+     * Seals the current segment and starts a new series of segments.
+     */
+    public synchronized void startSession() {
+        long now = System.currentTimeMillis();
+        if (!recovered) {
+            pending.add(new Pending(now, 0, null));
+            return;
+        }
+        startSession(now);
+    }
+
+    private void startSession(long id) {
+        seal();
+        sessionId = id;
+        segmentNumber = 0;
+    }
+
+    public void append(MinerLogLine line, int type) {
+        append(System.currentTimeMillis(), type, line);
+    }
+
+    public synchronized void append(long timestamp, int type, MinerLogLine line) {
+        int length = Math.min(line.length(), maxRecordLength());
+        // a zero length marks the end of the segment
+        if (length == 0) return;
+        if (!recovered) {
+            byte[] bytes = new byte[length];
+            line.putTo(ByteBuffer.wrap(bytes), length);
+            queue(timestamp, type, bytes);
+            return;
+        }
+        if (!reserve(length)) return;
+
+        int position = buffer.position();
+        buffer.position(position + 4);
+        buffer.putLong(timestamp);
+        buffer.put((byte) type);
+        line.putTo(buffer, length);
+        buffer.putInt(position, length);
+
+        live.add(timestamp, type, buffer.position());
+    }
+
+    public synchronized void append(long timestamp, int type, String text) {
+        byte[] bytes = text.getBytes(UTF8);
+        int length = Math.min(bytes.length, maxRecordLength());
+        if (length == 0) return;
+        if (!recovered) {
+            queue(timestamp, type, Arrays.copyOf(bytes, length));
+            return;
+        }
+        write(timestamp, type, bytes, length);
+    }
+
+    private void write(long timestamp, int type, byte[] bytes, int length) {
+        if (!reserve(length)) return;
+
+        int position = buffer.position();
+        buffer.position(position + 4);
+        buffer.putLong(timestamp);
+        buffer.put((byte) type);
+        buffer.put(bytes, 0, length);
+        buffer.putInt(position, length);
+
+        live.add(timestamp, type, buffer.position());
+    }
+
+    /**
+     * Seals the live segment, the compressor finishes the queued work in the background.
+     */
+    public synchronized void close() {
+        // recover() seals once it wrote the queue
+        closed = true;
+        seal();
+    }
+
+    // oldest first, including the live segment
+    public synchronized List<SegmentIndex> getSegments() {
+        List<SegmentIndex> copy = new ArrayList<>(segments.size() + 1);
+        for (SegmentIndex index : segments) {
+            copy.add(index.copy());
+        }
+        if (live != null) copy.add(live.copy());
+        return copy;
+    }
+
+    private void queue(long timestamp, int type, byte[] text) {
+        if (pendingBytes + text.length > segmentSize) {
+            pendingDropped++;
+            return;
+        }
+        pending.add(new Pending(timestamp, type, text));
+        pendingBytes += text.length;
+    }
+
+    private int maxRecordLength() {
+        return segmentSize - HEADER_SIZE - RECORD_HEADER_SIZE;
+    }
+
+    private boolean reserve(int length) {
+        if (buffer != null && buffer.remaining() < RECORD_HEADER_SIZE + length) {
+            seal();
+        }
+        if (buffer == null) {
+            try {
+                openSegment();
+            } catch (IOException e) {
+                Log.w(LOG_TAG, "exception", e);
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private void openSegment() throws IOException {
+        if (sessionId == 0) sessionId = System.currentTimeMillis();
+
+        String base = String.format(Locale.US, "%013d-%05d", sessionId, segmentNumber++);
+        File file = new File(dir, base + SEGMENT_SUFFIX);
+
+        RandomAccessFile raf = new RandomAccessFile(file, "rw");
+        try {
+            raf.setLength(segmentSize);
+            buffer = raf.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, segmentSize);
+        } finally {
+            // the mapping stays valid after the file is closed
+            raf.close();
+        }
+
+        buffer.putInt(MAGIC);
+        buffer.putInt(VERSION);
+
+        live = new SegmentIndex(base);
+        live.usedBytes = HEADER_SIZE;
+    }
+
+    private void seal() {
+        if (buffer == null) return;
+
+        buffer.force();
+        buffer = null;
+
+        SegmentIndex index = live;
+        live = null;
+
+        if (index.records == 0) {
+            new File(dir, index.name + SEGMENT_SUFFIX).delete();
+            return;
+        }
+
+        try {
+            writeIndex(index);
+        } catch (IOException e) {
+            Log.w(LOG_TAG, "exception", e);
+        }
+        segments.add(index);
+        compressLater(index);
+    }
+
+    private void compressLater(final SegmentIndex index) {
+        try {
+            compressor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    compress(index);
+                    enforceDiskCap();
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            // the next recover() picks it up
+        }
+    }
+
+    private void compress(SegmentIndex index) {
+        File raw = new File(dir, index.name + SEGMENT_SUFFIX);
+        File tmp = new File(dir, index.name + COMPRESSED_SUFFIX + ".tmp");
+        File gz = new File(dir, index.name + COMPRESSED_SUFFIX);
+
+        if (!raw.exists()) return;
+
+        try {
+            InputStream in = new FileInputStream(raw);
+            OutputStream out = new GZIPOutputStream(new FileOutputStream(tmp), 64 * 1024);
+            try {
+                byte[] buf = new byte[64 * 1024];
+                long left = index.usedBytes;
+                int read;
+                while (left > 0 && (read = in.read(buf, 0, (int) Math.min(buf.length, left))) > 0) {
+                    out.write(buf, 0, read);
+                    left -= read;
+                }
+            } finally {
+                in.close();
+                out.close();
+            }
+
+            if (!tmp.renameTo(gz)) throw new IOException("rename failed: " + tmp);
+
+            synchronized (this) {
+                index.compressed = true;
+                writeIndex(index);
+            }
+            raw.delete();
+        } catch (IOException e) {
+            Log.w(LOG_TAG, "exception", e);
+            tmp.delete();
+        }
+    }
+
+    private synchronized void enforceDiskCap() {
+        long total = 0;
+        long[] sizes = new long[segments.size()];
+        for (int i = 0; i < segments.size(); i++) {
+            sizes[i] = sizeOf(segments.get(i));
+            total += sizes[i];
+        }
+        if (live != null) total += segmentSize;
+
+        int dropped = 0;
+        while (dropped < segments.size() && total > maxDiskBytes) {
+            SegmentIndex oldest = segments.get(dropped);
+            new File(dir, oldest.name + COMPRESSED_SUFFIX).delete();
+            new File(dir, oldest.name + SEGMENT_SUFFIX).delete();
+            new File(dir, oldest.name + INDEX_SUFFIX).delete();
+            total -= sizes[dropped];
+            dropped++;
+        }
+        if (dropped > 0) segments.subList(0, dropped).clear();
+    }
+
+    private long sizeOf(SegmentIndex index) {
+        File data = new File(dir, index.name + (index.compressed ? COMPRESSED_SUFFIX : SEGMENT_SUFFIX));
+        return data.length() + new File(dir, index.name + INDEX_SUFFIX).length();
+    }
+
+    private void sortSegments() {
+        Collections.sort(segments, new Comparator<SegmentIndex>() {
+            @Override
+            public int compare(SegmentIndex a, SegmentIndex b) {
+                return a.name.compareTo(b.name);
+            }
+        });
+    }
+
+    // rebuilds the index of an unsealed segment from its records
+    private void scan(final SegmentIndex index) throws IOException {
+        index.usedBytes = HEADER_SIZE;
+        InputStream in = new BufferedInputStream(new FileInputStream(new File(dir, index.name + SEGMENT_SUFFIX)));
+        try {
+            SessionLogReader.readRecords(in, Long.MAX_VALUE, new SessionLogReader.RecordVisitor() {
+                @Override
+                public boolean onRecord(long timestamp, int type, byte[] text, int length) {
+                    index.add(timestamp, type, index.usedBytes + RECORD_HEADER_SIZE + length);
+                    return true;
+                }
+            });
+        } finally {
+            in.close();
+        }
+    }
+
+    private void writeIndex(SegmentIndex index) throws IOException {
+        File tmp = new File(dir, index.name + INDEX_SUFFIX + ".tmp");
+        DataOutputStream out = new DataOutputStream(new FileOutputStream(tmp));
+        try {
+            out.writeInt(MAGIC);
+            out.writeLong(index.firstTimestamp);
+            out.writeLong(index.lastTimestamp);
+            out.writeInt(index.typeMask);
+            out.writeInt(index.records);
+            out.writeLong(index.usedBytes);
+            out.writeBoolean(index.compressed);
+        } finally {
+            out.close();
+        }
+        if (!tmp.renameTo(new File(dir, index.name + INDEX_SUFFIX))) {
+            throw new IOException("rename failed: " + tmp);
+        }
+    }
+
+    private SegmentIndex readIndex(File file) {
+        String name = file.getName();
+        SegmentIndex index = new SegmentIndex(name.substring(0, name.length() - INDEX_SUFFIX.length()));
+        try {
+            DataInputStream in = new DataInputStream(new FileInputStream(file));
+            try {
+                if (in.readInt() != MAGIC) throw new IOException("bad index: " + file);
+                index.firstTimestamp = in.readLong();
+                index.lastTimestamp = in.readLong();
+                index.typeMask = in.readInt();
+                index.records = in.readInt();
+                index.usedBytes = in.readLong();
+                index.compressed = in.readBoolean();
+            } finally {
+                in.close();
+            }
+        } catch (IOException e) {
+            Log.w(LOG_TAG, "exception", e);
+            file.delete();
+            return null;
+        }
+
+        // the data file is gone, e.g. deleted by the cap while the index survived
+        if (!new File(dir, index.name + (index.compressed ? COMPRESSED_SUFFIX : SEGMENT_SUFFIX)).exists()) {
+            file.delete();
+            return null;
+        }
+        return index;
+    }
+
+    private static class Pending {
+        final long timestamp;
+        final int type;
+        // null for a session start
+        final byte[] text;
+
+        Pending(long timestamp, int type, byte[] text) {
+            this.timestamp = timestamp;
+            this.type = type;
+            this.text = text;
+        }
+    }
+
+    /**
+     * What a segment holds, enough to skip it without opening it.
+     */
+    public static class SegmentIndex {
+        public final String name;
+        public long firstTimestamp = 0;
+        public long lastTimestamp = 0;
+        // bit per MiningEvent type found in the segment
+        public int typeMask = 0;
+        public int records = 0;
+        public long usedBytes = 0;
+        public boolean compressed = false;
+
+        SegmentIndex(String name) {
+            this.name = name;
+        }
+
+        void add(long timestamp, int type, long end) {
+            if (records == 0) firstTimestamp = timestamp;
+            lastTimestamp = Math.max(lastTimestamp, timestamp);
+            typeMask |= 1 << type;
+            records++;
+            usedBytes = end;
+        }
+
+        SegmentIndex copy() {
+            SegmentIndex copy = new SegmentIndex(name);
+            copy.firstTimestamp = firstTimestamp;
+            copy.lastTimestamp = lastTimestamp;
+            copy.typeMask = typeMask;
+            copy.records = records;
+            copy.usedBytes = usedBytes;
+            copy.compressed = compressed;
+            return copy;
+        }
+
+        public boolean overlaps(long from, long to) {
+            return records > 0 && lastTimestamp >= from && firstTimestamp <= to;
+        }
+    }
+}
@@ -98,10 +98,12 @@ public class SettingsFragment extends Fragment {
 
         chkPauseOnBattery = view.findViewById(R.id.chkPauseOnBattery);
 
-        poolAdapter = new PoolSpinAdapter(MainActivity.contextOfApplication, R.layout.spinner_text_color, Config.settings.getPools());
+        final Catalog catalog = Catalog.get(MainActivity.contextOfApplication);
+
+        poolAdapter = new PoolSpinAdapter(MainActivity.contextOfApplication, R.layout.spinner_text_color, catalog.getPools());
         spPool.setAdapter(poolAdapter);
 
-        algoAdapter = new AlgoSpinAdapter(MainActivity.contextOfApplication, R.layout.spinner_text_color, Config.settings.getAlgos());
+        algoAdapter = new AlgoSpinAdapter(MainActivity.contextOfApplication, R.layout.spinner_text_color, catalog.getAlgos());
         spAlgo.setAdapter(algoAdapter);
 
         spMiner.setAdapter(minerAdapter);
@@ -127,69 +129,45 @@ public class SettingsFragment extends Fragment {
         npIntensity.setMaxValue(5);
         npIntensity.setWrapSelectorWheel(true);
 
-        if (PreferenceHelper.getName("cores").equals("") == true) {
-            npCores.setValue(suggested);
-        } else {
-            npCores.setValue(Integer.parseInt(PreferenceHelper.getName("cores")));
-        }
+        final ProfileStore profileStore = ProfileStore.get(appContext);
+        final MiningProfile profile = profileStore.getProfile();
 
-        if (PreferenceHelper.getName("threads").equals("") == true) {
-            npThreads.setValue(1);
-        } else {
-            npThreads.setValue(Integer.parseInt(PreferenceHelper.getName("threads")));
-        }
+        npCores.setValue(profile.cores > 0 ? profile.cores : suggested);
+        npThreads.setValue(profile.threads > 0 ? profile.threads : 1);
+        npIntensity.setValue(profile.intensity > 0 ? profile.intensity : 1);
 
-        if (PreferenceHelper.getName("intensity").equals("") == true) {
-            npIntensity.setValue(1);
-        } else {
-            npIntensity.setValue(Integer.parseInt(PreferenceHelper.getName("intensity")));
-        }
-
-        if (PreferenceHelper.getName("pauseonbattery").equals("1") == true) {
+        if (profile.pauseOnBattery) {
             chkPauseOnBattery.setChecked(true);
         }
 
 
-        if (PreferenceHelper.getName("address").equals("") == false) {
-            edUser.setText(PreferenceHelper.getName("address"));
+        if (profile.address.equals("") == false) {
+            edUser.setText(profile.address);
         }
 
-        if (PreferenceHelper.getName("pass").equals("") == false) {
-            edPass.setText(PreferenceHelper.getName("pass"));
+        if (profile.pass.equals("") == false) {
+            edPass.setText(profile.pass);
         }
 
-        if (PreferenceHelper.getName("pool").equals("") == false) {
-            edPool.setText(PreferenceHelper.getName("pool"));
-            int n = poolAdapter.getCount();
-            String poolAddress = PreferenceHelper.getName("pool");
-            for (int i = 0; i < n; i++) {
-                PoolItem itemPool = (PoolItem) poolAdapter.getItem(i);
-                if (itemPool.getPool().equals(poolAddress)) {
-                    if (itemPool.getAlgo().equals(PreferenceHelper.getName("algo"))) {
-                        spPool.setSelection(i);
-
-                    }
-                    break;
-                }
+        if (profile.pool.equals("") == false) {
+            edPool.setText(profile.pool);
+            int i = catalog.indexOfPool(profile.pool, profile.algo);
+            if (i >= 0) {
+                spPool.setSelection(i);
             }
         }
 
-        if (PreferenceHelper.getName("algo").equals("") == false) {
-            int n = algoAdapter.getCount();
-            String selectedAlgo = PreferenceHelper.getName("algo");
-            for (int i = 0; i < n; i++) {
-                String itemAlgo = (String) algoAdapter.getItem(i).getAlgo();
-                if (itemAlgo.equals(selectedAlgo)) {
-                    spAlgo.setSelection(i);
-                    break;
-                }
+        if (profile.algo.equals("") == false) {
+            int i = catalog.indexOfAlgo(profile.algo);
+            if (i >= 0) {
+                spAlgo.setSelection(i);
             }
         }
 
-        if (PreferenceHelper.getName("init").equals("1") == false) {
-            spPool.setSelection(Config.settings.defaultPoolIndex);
-            edUser.setText(Config.settings.defaultWallet);
-            edPass.setText(Config.settings.defaultPassword);
+        if (!profile.saved) {
+            spPool.setSelection(Config.defaultPoolIndex);
+            edUser.setText(Config.defaultWallet);
+            edPass.setText(Config.defaultPassword);
         }
 
         spPool.setOnItemSelectedListener(new OnItemSelectedListener() {
@@ -199,24 +177,19 @@ public class SettingsFragment extends Fragment {
 
                 PoolItem item = poolAdapter.getItem(position);
 
-                if (PreferenceHelper.getName("init").equals("1") == true) {
-                    edUser.setText(PreferenceHelper.getName("keyAddress-" + item.getKey()));
-                    edPass.setText(PreferenceHelper.getName("keyPassword-" + item.getKey()));
+                MiningProfile current = profileStore.getProfile();
+                if (current.saved) {
+                    edUser.setText(current.getPoolAddress(item.getKey()));
+                    edPass.setText(current.getPoolPassword(item.getKey()));
                 }
 
                 if (position == 0) return;
 
                 edPool.setText(item.getPool());
 
-                int n = algoAdapter.getCount();
-                String selectedCoinAlgo = item.getAlgo();
-
-                for (int i = 0; i < n; i++) {
-                    String s = (String) algoAdapter.getItem(i).getAlgo();
-                    if (selectedCoinAlgo.equals(s)) {
-                        spAlgo.setSelection(i);
-                        break;
-                    }
+                int i = catalog.indexOfAlgo(item.getAlgo());
+                if (i >= 0) {
+                    spAlgo.setSelection(i);
                 }
 
             }
@@ -235,7 +208,7 @@ public class SettingsFragment extends Fragment {
                 minerAdapter.addList(items);
 
                 String selectedAlgo = algoAdapter.getItem(spAlgo.getSelectedItemPosition()).getAlgo();
-                String selectedMiner = PreferenceHelper.getName("keyMiner-" + selectedAlgo);
+                String selectedMiner = profileStore.getProfile().getAlgoMiner(selectedAlgo);
 
                 if (selectedMiner.equals("") == false) {
 
@@ -267,20 +240,19 @@ public class SettingsFragment extends Fragment {
 
                 }
 
-                String poolAddress = edPool.getText().toString();
-                int n = poolAdapter.getCount();
-
-                for (int i = 0; i < n; i++) {
-                    PoolItem itemPool = (PoolItem) poolAdapter.getItem(i);
-                    if (itemPool.getPool().equals(poolAddress)) {
-                        if (itemPool.getAlgo().equals(selectedAlgo)) {
-                            spPool.setSelection(i);
-                            return;
-                        }
-                        break;
+                int pool = catalog.indexOfPool(edPool.getText().toString(), selectedAlgo);
+                spPool.setSelection(pool >= 0 ? pool : 0);
+
+                // before the first save, start from a layout that fits in the caches
+                if (!profileStore.getProfile().saved) {
+                    CacheModel.Layout layout = fitCaches(algoAdapter.getItem(spAlgo.getSelectedItemPosition()),
+                            npCores.getValue(), npThreads.getValue(), npIntensity.getValue());
+                    if (layout.reduced) {
+                        npCores.setValue(layout.cpus.length);
+                        npThreads.setValue(layout.threads);
+                        npIntensity.setValue(layout.intensity);
                     }
                 }
-                spPool.setSelection(0);
             }
 
             @Override
@@ -292,7 +264,7 @@ public class SettingsFragment extends Fragment {
             @Override
             public void onClick(View view) {
                 if (edM2gid.getText().toString().equals("") == false) {
-                    new fetchM2Gid().execute("https://m2gid.mine2gether.com/api/fetch/" + edM2gid.getText());
+                    new fetchM2Gid().executeOnExecutor(MinerExecutors.network(), "https://m2gid.mine2gether.com/api/fetch/" + edM2gid.getText());
                 }
             }
         });
@@ -301,42 +273,52 @@ public class SettingsFragment extends Fragment {
             @Override
             public void onClick(View view) {
 
-                PreferenceHelper.setName("address", edUser.getText().toString().trim());
-                PreferenceHelper.setName("pool", edPool.getText().toString().trim());
-                PreferenceHelper.setName("pass", edPass.getText().toString().trim());
+                MiningProfile.Builder edit = profileStore.getProfile().edit();
+
+                edit.address = edUser.getText().toString().trim();
+                edit.pool = edPool.getText().toString().trim();
+                edit.pass = edPass.getText().toString().trim();
 
                 AlgoItem selectedAlgoItem = (AlgoItem) spAlgo.getSelectedItem();
                 MinerItem selectedMinerItem = (MinerItem) spMiner.getSelectedItem();
                 PoolItem selectedPoolItem = (PoolItem) spPool.getSelectedItem();
 
                 //save miner based on algo
-                PreferenceHelper.setName("keyMiner-" + selectedAlgoItem.getAlgo(), selectedMinerItem.getMiner());
-                PreferenceHelper.setName("minerAlgo", selectedMinerItem.getAlgo());
-                PreferenceHelper.setName("miner", selectedMinerItem.getMiner());
+                edit.setAlgoMiner(selectedAlgoItem.getAlgo(), selectedMinerItem.getMiner());
+                edit.minerAlgo = selectedMinerItem.getAlgo();
+                edit.miner = selectedMinerItem.getMiner();
 
-                PreferenceHelper.setName("algo", selectedAlgoItem.getAlgo());
-                PreferenceHelper.setName("assetExtension", selectedMinerItem.getAssetExtension());
+                edit.algo = selectedAlgoItem.getAlgo();
+                edit.assetExtension = selectedMinerItem.getAssetExtension();
 
-                PreferenceHelper.setName("apiUrl", selectedPoolItem.getApiUrl());
-                PreferenceHelper.setName("apiUrlMerged", selectedPoolItem.getApiUrlMerged());
-                PreferenceHelper.setName("poolUrl", selectedPoolItem.getPoolUrl());
-                PreferenceHelper.setName("statsUrl", selectedPoolItem.getStatsURL());
-                PreferenceHelper.setName("startUrl", selectedPoolItem.getStartUrl());
+                edit.apiUrl = selectedPoolItem.getApiUrl();
+                edit.apiUrlMerged = selectedPoolItem.getApiUrlMerged();
+                edit.poolUrl = selectedPoolItem.getPoolUrl();
+                edit.statsUrl = selectedPoolItem.getStatsURL();
+                edit.startUrl = selectedPoolItem.getStartUrl();
 
-                PreferenceHelper.setName("coin", selectedPoolItem.getCoin());
+                edit.coin = selectedPoolItem.getCoin();
 
-                PreferenceHelper.setName("keyAddress-" + selectedPoolItem.getKey(), edUser.getText().toString().trim());
-                PreferenceHelper.setName("keyPassword-" + selectedPoolItem.getKey(), edPass.getText().toString().trim());
+                edit.setPoolAddress(selectedPoolItem.getKey(), edit.address);
+                edit.setPoolPassword(selectedPoolItem.getKey(), edit.pass);
 
-                PreferenceHelper.setName("cores", Integer.toString(npCores.getValue()));
-                PreferenceHelper.setName("threads", Integer.toString(npThreads.getValue()));
-                PreferenceHelper.setName("intensity", Integer.toString(npIntensity.getValue()));
+                edit.cores = npCores.getValue();
+                edit.threads = npThreads.getValue();
+                edit.intensity = npIntensity.getValue();
 
-                PreferenceHelper.setName("pauseonbattery", (chkPauseOnBattery.isChecked() ? "1" : "0"));
+                edit.pauseOnBattery = chkPauseOnBattery.isChecked();
 
-                PreferenceHelper.setName("init", "1");
+                edit.saved = true;
 
-                Toast.makeText(appContext, "Settings Saved", Toast.LENGTH_SHORT).show();
+                // MainActivity listens and updates its UI
+                profileStore.update(edit.build());
+
+                CacheModel.Layout layout = fitCaches(selectedAlgoItem, edit.cores, edit.threads, edit.intensity);
+                if (layout.reduced) {
+                    Toast.makeText(appContext, "Settings Saved\n" + selectedAlgoItem.getAlgo() + " fits in the CPU caches with " + layout, Toast.LENGTH_LONG).show();
+                } else {
+                    Toast.makeText(appContext, "Settings Saved", Toast.LENGTH_SHORT).show();
+                }
 
                 MainActivity main = (MainActivity) getActivity();
                 for (Fragment fragment : getFragmentManager().getFragments()) {
@@ -347,7 +329,6 @@ public class SettingsFragment extends Fragment {
                 //  getActivity().getFragmentManager().beginTransaction().remove(this).commit();
                 NavigationView nav = main.findViewById(R.id.nav_view);
                 nav.getMenu().getItem(0).setChecked(true);
-                main.updateUI();
             }
         });
 
@@ -363,20 +344,10 @@ public class SettingsFragment extends Fragment {
 
             @Override
             public void onTextChanged(CharSequence s, int start, int before, int count) {
-                String poolAddress = edPool.getText().toString();
-                int n = poolAdapter.getCount();
                 if (s.length() != 0) {
-                    for (int i = 0; i < n; i++) {
-                        PoolItem itemPool = (PoolItem) poolAdapter.getItem(i);
-                        if (itemPool.getPool().equals(poolAddress)) {
-                            if (itemPool.getAlgo().equals(algoAdapter.getItem(spAlgo.getSelectedItemPosition()).getAlgo())) {
-                                spPool.setSelection(i);
-                                return;
-                            }
-                            break;
-                        }
-                    }
-                    spPool.setSelection(0);
+                    String selectedAlgo = algoAdapter.getItem(spAlgo.getSelectedItemPosition()).getAlgo();
+                    int pool = catalog.indexOfPool(s.toString(), selectedAlgo);
+                    spPool.setSelection(pool >= 0 ? pool : 0);
                 }
             }
         });
@@ -384,6 +355,12 @@ public class SettingsFragment extends Fragment {
         return view;
     }
 
+    // the layout CacheModel suggests for the algo, on the fastest cores as the miner will use them
+    private static CacheModel.Layout fitCaches(AlgoItem algo, int cores, int threads, int intensity) {
+        CpuTopology topology = CpuTopology.get();
+        return CacheModel.fit(topology, topology.getFastestCpus(cores), threads, intensity, algo.getScratchpadKb());
+    }
+
     private void selectSpinnerValue(Spinner spinner, String value) {
         for (int i = 0; i < spinner.getCount(); i++) {
             if (spinner.getItemAtPosition(i).toString().equals(value)) {
@@ -541,6 +518,8 @@ public class SettingsFragment extends Fragment {
 
                 URL urlFetch = new URL(url[0]);
                 HttpURLConnection httpURLConnection = (HttpURLConnection) urlFetch.openConnection();
+                httpURLConnection.setConnectTimeout(Config.httpConnectTimeoutMs);
+                httpURLConnection.setReadTimeout(Config.httpReadTimeoutMs);
                 InputStream inputStream = httpURLConnection.getInputStream();
                 BufferedReader bufferedReader = new BufferedReader(new InputStreamReader(inputStream));
                 String line = "";
@@ -0,0 +1,345 @@
+// Copyright (c) 2019, Mine2Gether.com
+//
+// Please see the included LICENSE file for more information.
+
+package m2g.mine2gether.androidminer;
+
+import android.content.Context;
+import android.os.SystemClock;
+import android.util.Log;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Gets everything the miners need before exec, with the independent steps
+ * running at the same time:
+ * <ul>
+ * <li>pool DNS lookup on the network executor, once per pool</li>
+ * <li>config template load and render on the disk executor, once per miner</li>
+ * <li>binary extraction on the disk executor, one pass for all miners and
+ * skipped for miners packaged as native libraries</li>
+ * </ul>
+ * DNS and rendering start right away, even while the previous miner is still
+ * stopping. Extraction replaces the files the old miner runs from, so it only
+ * starts with {@link Run#extract()}. {@link Run#join()} waits for all three,
+ * which makes start to exec about as long as the slowest step. A step the
+ * busy disk executor turns away runs on the calling thread instead.
+ * <p>
+ * An extracted miner is linked into a directory named after it below the
+ * private directory, with the libraries it loads, so miners running side by
+ * side never pick up each other's xmrig or libuv.so. The first miner runs in
+ * there like a single miner always did, every further one gets a directory of
+ * its own for its config.json.
+ */
+public class StartupPipeline {
+
+    private static final String LOG_TAG = "MiningSvc";
+    private final static String[] SUPPORTED_ARCHITECTURES = {"arm64-v8a", "armeabi-v7a", "x86", "x86_64"};
+
+    private final Context context;
+    private final String privatePath;
+
+    private final AssetCache assetCache;
+
+    // by asset path, templates are compiled once
+    private final Map<String, ConfigTemplate> templates = new HashMap<>();
+
+    public StartupPipeline(Context context, String privatePath) {
+        this.context = context;
+        this.privatePath = privatePath;
+        this.assetCache = new AssetCache(context, new File(privatePath));
+    }
+
+    public Run start(MiningService.MiningConfig[] configs, StartupTimeline timeline) {
+        return new Run(configs, timeline);
+    }
+
+    /**
+     * Extracts the miners and their libraries for the ABI, each into its link
+     * directory, as far as the files from an earlier start are not still there.
+     */
+    private void copyMinerFiles(List<String> assetExtensions) {
+
+        String abi = Tools.getABI();
+        Map<String, List<String>> linkDirs = new LinkedHashMap<>();
+
+        Log.i(LOG_TAG, "MINING SERVICE ABI: " + abi);
+
+        if (Arrays.asList(SUPPORTED_ARCHITECTURES).contains(abi)) {
+            for (String assetExtension : assetExtensions) {
+                // the miner's own libraries come last and replace the shared ones
+                linkDirs.put(assetExtension, Arrays.asList("lib" + "/" + abi, assetExtension + "/" + abi));
+            }
+        } else {
+            // nothing to run on this ABI, starting the miner fails with a missing executable
+            Log.w(LOG_TAG, "NO ASSET PATH");
+        }
+
+        Log.i(LOG_TAG, "ASSET PATH: " + linkDirs);
+
+        int written = assetCache.sync(linkDirs);
+        if (written > 0) {
+            Log.i(LOG_TAG, "extracted " + written + " files");
+            Tools.logDirectoryFiles(new File(privatePath));
+        }
+    }
+
+    // where an extracted miner and its libraries are linked
+    private File getLinkDir(String assetExtension) {
+        return new File(privatePath, assetExtension);
+    }
+
+    /**
+     * The miner installed by the package manager as lib&lt;miner&gt;.so, present
+     * when the APK was built with -PnativeMiners. It runs straight from
+     * nativeLibraryDir, nothing needs to be extracted.
+     */
+    private File getNativeMiner(String assetExtension) {
+        File exe = new File(context.getApplicationInfo().nativeLibraryDir, "lib" + assetExtension + ".so");
+        return exe.isFile() ? exe : null;
+    }
+
+    private synchronized ConfigTemplate loadTemplate(String assetExtension) {
+        String path = assetExtension + "/config.json";
+        ConfigTemplate template = templates.get(path);
+        if (template == null) {
+            template = Tools.loadConfigTemplate(context, path);
+            templates.put(path, template);
+        }
+        return template;
+    }
+
+    // where miner i reads its config.json from; the first one runs next to its binary
+    private File getWorkDir(int index, File linkDir) {
+        if (index > 0) return context.getDir("miner" + index, Context.MODE_PRIVATE);
+        return linkDir != null ? linkDir : new File(privatePath);
+    }
+
+    private static String resolvePool(String pool) {
+
+        String[] hostParts = pool.split(":");
+
+        if (hostParts.length == 2) {
+            return MiningService.getIpByHost(hostParts[0]) + ":" + hostParts[1];
+        } else if (hostParts.length == 1) {
+            return MiningService.getIpByHost(hostParts[0]);
+        } else {
+            return pool;
+        }
+    }
+
+    /**
+     * One start of one or more miners. Not thread safe, used from the control thread only.
+     */
+    public class Run {
+
+        private final MiningService.MiningConfig[] configs;
+        private final StartupTimeline timeline;
+        private final File[] nativeMiners;
+        private final long startedAt = SystemClock.elapsedRealtime();
+
+        // per config, miners on the same pool share a lookup
+        private final Future<String>[] dns;
+        private final Future<ConfigTemplate>[] render;
+        private Future<Long> extraction;
+
+        private volatile long dnsMs = -1;
+        private final long[] renderMs;
+
+        // generic array creation is not allowed, the arrays only ever hold the typed futures
+        @SuppressWarnings({"unchecked", "rawtypes"})
+        Run(MiningService.MiningConfig[] configs, final StartupTimeline timeline) {
+            this.configs = configs;
+            this.timeline = timeline;
+            this.nativeMiners = new File[configs.length];
+            this.dns = new Future[configs.length];
+            this.render = new Future[configs.length];
+            this.renderMs = new long[configs.length];
+            Arrays.fill(renderMs, -1);
+
+            Map<String, Future<String>> lookups = new HashMap<>();
+            for (int i = 0; i < configs.length; i++) {
+                final MiningService.MiningConfig config = configs[i];
+                final int index = i;
+                nativeMiners[i] = getNativeMiner(config.assetExtension);
+
+                if (lookups.containsKey(config.pool)) {
+                    dns[i] = lookups.get(config.pool);
+                } else {
+                    dns[i] = submitOrNull(MinerExecutors.network(), new Callable<String>() {
+                        @Override
+                        public String call() {
+                            long t = SystemClock.elapsedRealtime();
+                            String resolved = resolvePool(config.pool);
+                            dnsMs = Math.max(dnsMs, SystemClock.elapsedRealtime() - t);
+                            timeline.mark(StartupTimeline.PHASE_DNS, dnsMs);
+                            return resolved;
+                        }
+                    });
+                    lookups.put(config.pool, dns[i]);
+                }
+
+                render[i] = submitOrRun(MinerExecutors.disk(), new Callable<ConfigTemplate>() {
+                    @Override
+                    public ConfigTemplate call() {
+                        long t = SystemClock.elapsedRealtime();
+                        ConfigTemplate rendered = Tools.renderConfig(loadTemplate(config.assetExtension), config);
+                        renderMs[index] = SystemClock.elapsedRealtime() - t;
+                        return rendered;
+                    }
+                });
+            }
+        }
+
+        public void extract() {
+            final List<String> extracted = new ArrayList<>();
+            for (int i = 0; i < configs.length; i++) {
+                if (nativeMiners[i] == null && !extracted.contains(configs[i].assetExtension)) {
+                    extracted.add(configs[i].assetExtension);
+                }
+            }
+
+            extraction = submitOrRun(MinerExecutors.disk(), new Callable<Long>() {
+                @Override
+                public Long call() {
+                    long t = SystemClock.elapsedRealtime();
+                    if (extracted.isEmpty()) {
+                        // unlinks the files of the last extracted miner; blobs an earlier
+                        // APK extracted go with its hashes, this APK's stay for switching back
+                        assetCache.sync(Collections.<String, List<String>>emptyMap());
+                    } else {
+                        copyMinerFiles(extracted);
+                    }
+                    long extractMs = SystemClock.elapsedRealtime() - t;
+                    timeline.mark(StartupTimeline.PHASE_EXTRACT, extractMs);
+                    return extractMs;
+                }
+            });
+        }
+
+        // the old miner did not go away, don't leave the lookups and the renders running
+        public void cancel() {
+            for (int i = 0; i < configs.length; i++) {
+                if (dns[i] != null) dns[i].cancel(true);
+                render[i].cancel(true);
+            }
+            if (extraction != null) extraction.cancel(true);
+        }
+
+        /**
+         * Waits for every step. A DNS lookup slower than {@link Config#dnsTimeoutMs}
+         * is given up and the miner gets the host name to resolve itself.
+         *
+         * @return one result per config, in the same order
+         * @throws Exception when extraction or rendering failed, from the step that failed
+         */
+        public Result[] join() throws Exception {
+            if (extraction == null) extract();
+
+            long extractMs;
+            ConfigTemplate[] rendered = new ConfigTemplate[configs.length];
+            try {
+                extractMs = extraction.get();
+                for (int i = 0; i < configs.length; i++) {
+                    rendered[i] = render[i].get();
+                }
+            } catch (ExecutionException e) {
+                cancel();
+                throw e.getCause() instanceof Exception ? (Exception) e.getCause() : e;
+            }
+
+            String nativeLibraryDir = context.getApplicationInfo().nativeLibraryDir;
+            Result[] results = new Result[configs.length];
+
+            for (int i = 0; i < configs.length; i++) {
+                String pool = configs[i].pool;
+                if (dns[i] != null) {
+                    long left = Config.dnsTimeoutMs - (SystemClock.elapsedRealtime() - startedAt);
+                    try {
+                        pool = dns[i].get(Math.max(0, left), TimeUnit.MILLISECONDS);
+                    } catch (Exception e) {
+                        Log.w(LOG_TAG, "dns lookup failed: " + e);
+                        dns[i].cancel(true);
+                    }
+                }
+
+                long totalMs = SystemClock.elapsedRealtime() - startedAt;
+                if (nativeMiners[i] != null) {
+                    String workDir = getWorkDir(i, null).getAbsolutePath();
+                    results[i] = new Result(rendered[i], pool, nativeMiners[i].getAbsolutePath(), nativeLibraryDir, workDir, dnsMs, extractMs, renderMs[i], totalMs);
+                } else {
+                    File linkDir = getLinkDir(configs[i].assetExtension);
+                    String workDir = getWorkDir(i, linkDir).getAbsolutePath();
+                    // an extracted miner may still use libraries that are only packaged as native libraries
+                    results[i] = new Result(rendered[i], pool, new File(linkDir, configs[i].assetExtension).getAbsolutePath(),
+                            linkDir.getAbsolutePath() + ":" + nativeLibraryDir, workDir, dnsMs, extractMs, renderMs[i], totalMs);
+                }
+                Log.i(LOG_TAG, "startup: " + results[i].executable + ", dns " + results[i].dnsMs + " ms, extract " + results[i].extractMs + " ms, config " + results[i].renderMs
+                        + " ms, ready after " + results[i].totalMs + " ms");
+            }
+            return results;
+        }
+    }
+
+    // the start can't do without it, a full queue only costs the overlap
+    private static <T> Future<T> submitOrRun(MinerExecutors.TrackedExecutor executor, Callable<T> task) {
+        try {
+            return executor.submit(task);
+        } catch (RejectedExecutionException e) {
+            Log.w(LOG_TAG, executor.getName() + " busy, running " + task + " inline");
+            FutureTask<T> inline = new FutureTask<>(task);
+            inline.run();
+            return inline;
+        }
+    }
+
+    private static <T> Future<T> submitOrNull(MinerExecutors.TrackedExecutor executor, Callable<T> task) {
+        try {
+            return executor.submit(task);
+        } catch (RejectedExecutionException e) {
+            Log.w(LOG_TAG, executor.getName() + " busy, skipping " + task);
+            return null;
+        }
+    }
+
+    public static class Result {
+        // the config with everything but the pool url filled in
+        public final ConfigTemplate config;
+        // resolved pool, or the host name if the lookup failed or took too long
+        public final String pool;
+        public final String executable;
+        public final String libraryPath;
+        // working directory, config.json goes here
+        public final String workDir;
+        // -1 if the step did not finish
+        public final long dnsMs;
+        public final long extractMs;
+        public final long renderMs;
+        public final long totalMs;
+
+        Result(ConfigTemplate config, String pool, String executable, String libraryPath, String workDir, long dnsMs, long extractMs, long renderMs, long totalMs) {
+            this.config = config;
+            this.pool = pool;
+            this.executable = executable;
+            this.libraryPath = libraryPath;
+            this.workDir = workDir;
+            this.dnsMs = dnsMs;
+            this.extractMs = extractMs;
+            this.renderMs = renderMs;
+            this.totalMs = totalMs;
+        }
+    }
+}
@@ -0,0 +1,162 @@
+// Copyright (c) 2019, Mine2Gether.com
+//
+// Please see the included LICENSE file for more information.
+
+package m2g.mine2gether.androidminer;
+
+import android.os.SystemClock;
+
+import java.util.Arrays;
+import java.util.Locale;
+
+/**
+ * Where the time goes between tapping Start and the first accepted share.
+ * Every phase is stamped with the time since the start request; the app side
+ * phases also keep their own duration since they overlap. The miner side
+ * phases come from the parsed output.
+ * <p>
+ * Besides the current session the last {@link Config#startupHistorySize}
+ * values of every phase are kept for percentiles, so devices and builds can
+ * be compared and startup regressions show up.
+ */
+public class StartupTimeline {
+
+    public static final int PHASE_DNS = 0;
+    public static final int PHASE_EXTRACT = 1;
+    public static final int PHASE_CONFIG = 2;
+    public static final int PHASE_EXEC = 3;
+    public static final int PHASE_FIRST_OUTPUT = 4;
+    public static final int PHASE_DATASET_READY = 5;
+    public static final int PHASE_FIRST_JOB = 6;
+    public static final int PHASE_FIRST_SHARE = 7;
+    public static final int PHASE_COUNT = 8;
+
+    private static final String[] PHASE_NAMES = {
+            "dns", "extract", "config", "exec", "first output", "dataset ready", "first job", "first share"
+    };
+
+    private final int historySize;
+
+    private Session session;
+
+    // per phase ring of "ms since start" values
+    private final long[][] history;
+    private final int[] historyCount = new int[PHASE_COUNT];
+    private final int[] historyNext = new int[PHASE_COUNT];
+
+    public StartupTimeline(int historySize) {
+        this.historySize = historySize;
+        this.history = new long[PHASE_COUNT][historySize];
+    }
+
+    public static String getPhaseName(int phase) {
+        return PHASE_NAMES[phase];
+    }
+
+    /**
+     * Starts a new session, requestedAt is the {@link SystemClock#elapsedRealtime()} of the start request.
+     */
+    public synchronized void begin(long requestedAt) {
+        session = new Session(requestedAt);
+    }
+
+    /**
+     * Marks the end of a phase. Only the first mark of a phase in a session counts.
+     *
+     * @param durationMs how long the phase itself took, -1 for the miner side milestones
+     * @return false if there is no session or the phase was already marked
+     */
+    public synchronized boolean mark(int phase, long durationMs) {
+        if (session == null || session.at[phase] >= 0) return false;
+
+        long at = SystemClock.elapsedRealtime() - session.requestedAt;
+        session.at[phase] = at;
+        session.duration[phase] = durationMs;
+
+        history[phase][historyNext[phase]] = at;
+        historyNext[phase] = (historyNext[phase] + 1) % historySize;
+        if (historyCount[phase] < historySize) historyCount[phase]++;
+
+        return true;
+    }
+
+    public boolean mark(int phase) {
+        return mark(phase, -1);
+    }
+
+    // copy of the current session, null before the first start
+    public synchronized Session getSession() {
+        return session != null ? session.copy() : null;
+    }
+
+    /**
+     * @param percentile 0..100
+     * @return ms since start at which the phase was reached, -1 without samples
+     */
+    public synchronized long getPercentile(int phase, double percentile) {
+        int count = historyCount[phase];
+        if (count == 0) return -1;
+
+        long[] sorted = Arrays.copyOf(history[phase], count);
+        Arrays.sort(sorted);
+
+        int index = (int) Math.ceil(percentile / 100.0 * count) - 1;
+        return sorted[Math.max(0, Math.min(count - 1, index))];
+    }
+
+    public synchronized int getSampleCount(int phase) {
+        return historyCount[phase];
+    }
+
+    /**
+     * One line per phase: this session, then p50 / p90 / max over the history.
+     */
+    public synchronized String getReport() {
+        StringBuilder out = new StringBuilder();
+        for (int phase = 0; phase < PHASE_COUNT; phase++) {
+            out.append(String.format(Locale.US, "%-14s %8s %8s  p50 %6d  p90 %6d  max %6d  n %d\n",
+                    PHASE_NAMES[phase],
+                    session != null && session.at[phase] >= 0 ? session.at[phase] + "ms" : "-",
+                    session != null && session.duration[phase] >= 0 ? "(" + session.duration[phase] + ")" : "",
+                    getPercentile(phase, 50),
+                    getPercentile(phase, 90),
+                    getPercentile(phase, 100),
+                    historyCount[phase]));
+        }
+        return out.toString();
+    }
+
+    public static class Session {
+        public final long requestedAt;
+        // ms since the start request, -1 until the phase is reached
+        public final long[] at = new long[PHASE_COUNT];
+        // own duration of the app side phases, -1 otherwise
+        public final long[] duration = new long[PHASE_COUNT];
+
+        Session(long requestedAt) {
+            this.requestedAt = requestedAt;
+            Arrays.fill(at, -1);
+            Arrays.fill(duration, -1);
+        }
+
+        Session copy() {
+            Session copy = new Session(requestedAt);
+            System.arraycopy(at, 0, copy.at, 0, PHASE_COUNT);
+            System.arraycopy(duration, 0, copy.duration, 0, PHASE_COUNT);
+            return copy;
+        }
+
+        @Override
+        public String toString() {
+            StringBuilder out = new StringBuilder("startup:");
+            for (int phase = 0; phase < PHASE_COUNT; phase++) {
+                if (at[phase] < 0) continue;
+                out.append(' ').append(PHASE_NAMES[phase]).append(' ').append(at[phase]).append("ms");
+                if (duration[phase] >= 0) out.append(" (").append(duration[phase]).append(')');
+                out.append(',');
+            }
+            out.setLength(out.length() - 1);
+            return out.toString();
+        }
+    }
+}
@@ -17,6 +17,7 @@ import android.widget.TextView;
 
 import java.util.Timer;
 import java.util.TimerTask;
+import java.util.concurrent.RejectedExecutionException;
 
 public class StatsFragment extends Fragment {
 
@@ -32,6 +33,7 @@ public class StatsFragment extends Fragment {
     private TextView data;
     private TextView dataNetwork;
     private fetchData.statsChangeListener statsListener;
+    private fetchData fetchTask;
 
     @Nullable
     @Override
@@ -53,30 +55,50 @@ public class StatsFragment extends Fragment {
             return view;
         }
 
-        fetchData process = new fetchData();
-        process.setStatsChangeListener(statsListener);
-        process.execute();
+        fetch();
         repeatTask();
 
         return view;
     }
 
+    // a fetch still hanging on a dead pool API is dropped for the new one
+    private synchronized void fetch() {
+        if (fetchTask != null) fetchTask.cancel(true);
+        fetchTask = new fetchData();
+        fetchTask.setStatsChangeListener(statsListener);
+        try {
+            fetchTask.start();
+        } catch (RejectedExecutionException e) {
+            Log.w(LOG_TAG, "stats fetch not queued");
+            fetchTask = null;
+        }
+    }
+
+    private synchronized void cancelFetch() {
+        if (fetchTask != null) {
+            fetchTask.cancel(true);
+            fetchTask = null;
+        }
+    }
+
     private boolean checkValidState() {
 
-        if (PreferenceHelper.getName("init").equals("1") == false) {
+        MiningProfile profile = ProfileStore.get(MainActivity.contextOfApplication).getProfile();
+
+        if (!profile.saved) {
             data.setText("(start mining to view stats)");
             tvStatCheckOnline.setText("");
             return false;
-        } else if (PreferenceHelper.getName("coin").equals("custom")) {
+        } else if (profile.coin.equals("custom")) {
             data.setText("(stats are not available for custom pools)");
             tvStatCheckOnline.setText("");
             return false;
         }
 
-        wallet = PreferenceHelper.getName("address");
-        apiUrl = PreferenceHelper.getName("apiUrl");
-        apiUrlMerged = PreferenceHelper.getName("apiUrlMerged");
-        statsUrl = PreferenceHelper.getName("statsUrl");
+        wallet = profile.address;
+        apiUrl = profile.apiUrl;
+        apiUrlMerged = profile.apiUrlMerged;
+        statsUrl = profile.statsUrl;
 
         tvStatCheckOnline.setText(Html.fromHtml("<a href=\"" + statsUrl + "?wallet=" + wallet + "\">Check Stats Online</a>"));
         tvStatCheckOnline.setMovementMethod(LinkMovementMethod.getInstance());
@@ -100,9 +122,7 @@ public class StatsFragment extends Fragment {
 
         TimerTask task = new TimerTask() {
             public void run() {
-                fetchData process = new fetchData();
-                process.setStatsChangeListener(statsListener);
-                process.execute();
+                fetch();
                 repeatTask();
             }
         };
@@ -126,6 +146,7 @@ public class StatsFragment extends Fragment {
             timer.purge();
             timer = null;
         }
+        cancelFetch();
     }
 
 }
@@ -0,0 +1,127 @@
+// Copyright (c) 2019, Mine2Gether.com
+//
+// Please see the included LICENSE file for more information.
+
+package m2g.mine2gether.androidminer;
+
+import android.os.Handler;
+import android.os.Looper;
+import android.support.v7.widget.RecyclerView;
+import android.view.Choreographer;
+import android.widget.TextView;
+
+/**
+ * Collects log updates and the latest speed / accepted values on the main thread
+ * and writes them to the views at most once per display frame (or once per
+ * {@link Config#uiFlushIntervalMs} if that is set). Views whose value did not
+ * change are not touched and the log is scrolled once per flush.
+ */
+public class StatusRenderer implements Choreographer.FrameCallback, Runnable {
+
+    private final RecyclerView rvLog;
+    private final LogLineAdapter logAdapter;
+    private final TextView tvSpeed;
+    private final TextView tvAccepted;
+    private final long flushIntervalMs;
+
+    private final Handler handler = new Handler(Looper.getMainLooper());
+
+    private boolean logChanged = false;
+    private double speed = 0;
+    private int accepted = 0;
+    private String shownSpeed = null;
+    private int shownAccepted = -1;
+
+    private boolean flushRequested = false;
+
+    public StatusRenderer(RecyclerView rvLog, LogLineAdapter logAdapter, TextView tvSpeed, TextView tvAccepted, long flushIntervalMs) {
+        this.rvLog = rvLog;
+        this.logAdapter = logAdapter;
+        this.tvSpeed = tvSpeed;
+        this.tvAccepted = tvAccepted;
+        this.flushIntervalMs = flushIntervalMs;
+    }
+
+    public void onLogAppended() {
+        logChanged = true;
+        requestFlush();
+    }
+
+    public void setSpeed(double speed) {
+        this.speed = speed;
+        requestFlush();
+    }
+
+    public void setAccepted(int accepted) {
+        this.accepted = accepted;
+        requestFlush();
+    }
+
+    // clears the log view and counters right away
+    public void reset() {
+        cancel();
+        logChanged = false;
+        speed = 0;
+        accepted = 0;
+        shownSpeed = null;
+        shownAccepted = -1;
+        logAdapter.clear();
+        flush();
+    }
+
+    public void cancel() {
+        if (!flushRequested) return;
+        flushRequested = false;
+        if (flushIntervalMs > 0) {
+            handler.removeCallbacks(this);
+        } else {
+            Choreographer.getInstance().removeFrameCallback(this);
+        }
+    }
+
+    private void requestFlush() {
+        if (flushRequested) return;
+        flushRequested = true;
+        if (flushIntervalMs > 0) {
+            handler.postDelayed(this, flushIntervalMs);
+        } else {
+            Choreographer.getInstance().postFrameCallback(this);
+        }
+    }
+
+    @Override
+    public void doFrame(long frameTimeNanos) {
+        flushRequested = false;
+        flush();
+    }
+
+    @Override
+    public void run() {
+        flushRequested = false;
+        flush();
+    }
+
+    private void flush() {
+
+        if (logChanged) {
+            logChanged = false;
+
+            // only follow the log if the user has not scrolled up
+            boolean atBottom = !rvLog.canScrollVertically(1);
+            if (logAdapter.sync() > 0 && atBottom) {
+                rvLog.scrollToPosition(logAdapter.getItemCount() - 1);
+            }
+        }
+
+        String speedText = Tools.formatHashrate(speed);
+        if (!speedText.equals(shownSpeed)) {
+            tvSpeed.setText(speedText);
+            shownSpeed = speedText;
+        }
+
+        if (accepted != shownAccepted) {
+            tvAccepted.setText(Integer.toString(accepted));
+            shownAccepted = accepted;
+        }
+    }
+}
@@ -27,107 +27,42 @@ import android.os.Build;
 import android.util.Log;
 
 import java.io.BufferedReader;
+import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.FileOutputStream;
 import java.io.FileReader;
 import java.io.IOException;
 import java.io.InputStream;
-import java.io.InputStreamReader;
-import java.io.PrintWriter;
+import java.lang.reflect.Field;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.security.SecureRandom;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.Locale;
 import java.util.Map;
 
 public class Tools {
 
     private static final String LOG_TAG = "MiningSvc";
 
-    public static String loadConfigTemplate(Context context, String path) {
+    public static ConfigTemplate loadConfigTemplate(Context context, String path) {
         try {
-            StringBuilder buf = new StringBuilder();
-            InputStream json = context.getAssets().open(path);
-            BufferedReader in = new BufferedReader(new InputStreamReader(json, "UTF-8"));
-            String str;
-
-            while ((str = in.readLine()) != null) {
-                buf.append(str);
-            }
-
-            in.close();
-            return buf.toString();
-        } catch (IOException e) {
-            throw new RuntimeException(e);
-        }
-    }
-
-    public static void copyFile(Context context, String assetFilePath, String localFilePath) {
-        try {
-            InputStream in = context.getAssets().open(assetFilePath);
-            FileOutputStream out = new FileOutputStream(localFilePath);
-            int read;
-            byte[] buffer = new byte[4096];
-            while ((read = in.read(buffer)) > 0) {
-                out.write(buffer, 0, read);
-            }
-            out.close();
-            in.close();
-
-            File bin = new File(localFilePath);
-            bin.setExecutable(true);
-
-        } catch (IOException e) {
-            throw new RuntimeException(e);
-        }
-    }
-
-    public static void copyDirectoryContents(Context context, String assetFilePath, String localFilePath) {
-
-        String[] folder;
-
-        try {
-            folder = context.getAssets().list(assetFilePath);
-        } catch (Exception e) {
-            return;
-        }
-
-        for (final String f : folder) {
-
-            Boolean isDirectory = isAssetDirectory(context, assetFilePath + "/" + f);
-
-            if (isDirectory == false) {
-                Log.i(LOG_TAG, "copy file: source:" + assetFilePath + "/" + f + " dest:" + localFilePath + "/" + f);
-                File file = new File(localFilePath + "/" + f);
-                if (file.exists() && file.isFile()) {
-                    Log.i(LOG_TAG, "copy file delete: source:" + assetFilePath + "/" + f + " dest:" + localFilePath + "/" + f);
-                    file.delete();
-                }
-                copyFile(context, assetFilePath + "/" + f, localFilePath + "/" + f);
-            } else if (isDirectory == true) {
-                Log.i(LOG_TAG, "make directory: source:" + assetFilePath + "/" + f + " dest:" + localFilePath + "/" + f);
-                File dir = new File(localFilePath + "/" + f);
-                dir.mkdir();
-                copyDirectoryContents(context, assetFilePath + "/" + f, localFilePath + "/" + f);
-            }
-        }
-
-    }
-
-    private static boolean isAssetDirectory(Context context, String pathInAssetsDir) {
-
-        InputStream inputStream = null;
-        Boolean isDirectory = false;
-        try {
-            inputStream = context.getAssets().open(pathInAssetsDir);
-        } catch (IOException e) {
-            isDirectory = true;
-        } finally {
+            InputStream in = context.getAssets().open(path);
             try {
-                if (inputStream != null) {
-                    inputStream.close();
+                ByteArrayOutputStream json = new ByteArrayOutputStream(8192);
+                byte[] buffer = new byte[8192];
+                int read;
+                while ((read = in.read(buffer)) > 0) {
+                    json.write(buffer, 0, read);
                 }
-            } catch (IOException e) {
+                return ConfigTemplate.compile(json.toString("UTF-8"));
+            } finally {
+                in.close();
             }
+        } catch (IOException e) {
+            throw new RuntimeException(e);
         }
-        return isDirectory;
     }
 
     public static void logDirectoryFiles(final File folder) {
@@ -160,36 +95,104 @@ public class Tools {
         }
     }
 
-    public static void writeConfig(String configTemplate, MiningService.MiningConfig miningConfig, String privatePath) {
+    /**
+     * Fills in everything but the pool url, which waits for the DNS lookup.
+     * Picks the HTTP API port and token if the config asks for the API.
+     */
+    public static ConfigTemplate renderConfig(ConfigTemplate configTemplate, MiningService.MiningConfig miningConfig) {
+
+        if (miningConfig.httpApi) {
+            miningConfig.httpPort = getFreeLoopbackPort();
+            miningConfig.httpToken = newAccessToken();
+        } else {
+            miningConfig.httpPort = 0;
+            miningConfig.httpToken = null;
+        }
+
+        Map<String, Object> values = new HashMap<>();
+        values.put("algo", miningConfig.algo);
+        values.put("username", miningConfig.username);
+        values.put("pass", miningConfig.pass);
+
+        values.put("legacythreads", miningConfig.legacyThreads);
+        values.put("legacyintensity", miningConfig.legacyIntensity);
+        values.put("legacyalgo", miningConfig.algo);
+
+        values.put("urlhost", miningConfig.poolHost);
+        values.put("urlport", parsePort(miningConfig.poolPort));
+
+        values.put("cpuconfig", new ConfigTemplate.Raw(miningConfig.cpuConfig));
 
-        String config = configTemplate
-                .replace("$algo$", miningConfig.algo)
-                .replace("$url$", miningConfig.pool)
-                .replace("$username$", miningConfig.username)
-                .replace("$pass$", miningConfig.pass)
+        values.put("httpenabled", miningConfig.httpPort > 0);
+        values.put("httpport", miningConfig.httpPort);
+        values.put("httptoken", miningConfig.httpToken);
 
-                .replace("$legacythreads$", Integer.toString(miningConfig.legacyThreads))
-                .replace("$legacyintensity$", Integer.toString(miningConfig.legacyIntensity))
-                .replace("$legacyalgo$", miningConfig.algo)
+        return configTemplate.bind(values);
+    }
+
+    // a number in the config, or the text quoted if it is none
+    private static Object parsePort(String port) {
+        try {
+            return Integer.parseInt(port);
+        } catch (NumberFormatException e) {
+            return port;
+        }
+    }
 
-                .replace("$urlhost$", miningConfig.poolHost)
-                .replace("$urlport$", miningConfig.poolPort)
+    /**
+     * Writes config.json through a temp file, the miner never sees half of it.
+     */
+    public static void writeConfig(ConfigTemplate renderedConfig, String pool, String privatePath) {
 
-                .replace("$cpuconfig$", miningConfig.cpuConfig);
+        String config = renderedConfig.render(Collections.singletonMap("url", pool));
 
+        // the config holds the wallet, pool password and API token, keep it out of logcat
+        Log.i(LOG_TAG, "CONFIG: " + pool + " in " + privatePath);
 
-        Log.i(LOG_TAG, "CONFIG: " + config);
+        File tmp = new File(privatePath, "config.json.tmp");
 
-        PrintWriter writer = null;
+        try {
+            FileOutputStream out = new FileOutputStream(tmp);
+            try {
+                out.write(config.getBytes("UTF-8"));
+            } finally {
+                out.close();
+            }
+            if (!tmp.renameTo(new File(privatePath, "config.json"))) throw new IOException("rename failed: " + tmp);
+        } catch (IOException e) {
+            tmp.delete();
+            throw new RuntimeException(e);
+        }
+    }
 
+    // the port is free now, the miner binds it a moment later
+    public static int getFreeLoopbackPort() {
+        ServerSocket socket = null;
         try {
-            writer = new PrintWriter(new FileOutputStream(privatePath + "/config.json"));
-            writer.write(config);
+            socket = new ServerSocket(0, 1, InetAddress.getByName("127.0.0.1"));
+            return socket.getLocalPort();
         } catch (IOException e) {
             throw new RuntimeException(e);
         } finally {
-            if (writer != null) writer.close();
+            try {
+                if (socket != null) socket.close();
+            } catch (IOException e) {
+            }
+        }
+    }
+
+    public static String newAccessToken() {
+        byte[] bytes = new byte[16];
+        new SecureRandom().nextBytes(bytes);
+        return toHex(bytes);
+    }
+
+    public static String toHex(byte[] bytes) {
+        StringBuilder hex = new StringBuilder(bytes.length * 2);
+        for (byte b : bytes) {
+            hex.append(String.format(Locale.US, "%02x", b & 0xff));
         }
+        return hex.toString();
     }
 
     public static Map<String, String> getCPUInfo() {
@@ -230,6 +233,23 @@ public class Tools {
         return output;
     }
 
+    public static String formatHashrate(double hashrate) {
+        if (Double.isNaN(hashrate)) return "n/a";
+        return String.format(Locale.US, "%.1f", hashrate);
+    }
+
+    // pid of a child process, -1 if the runtime does not tell
+    public static int getProcessId(Process process) {
+        try {
+            Field field = process.getClass().getDeclaredField("pid");
+            field.setAccessible(true);
+            return field.getInt(process);
+        } catch (Exception e) {
+            Log.w(LOG_TAG, "no pid for " + process.getClass().getName());
+            return -1;
+        }
+    }
+
     public static String getABI() {
         String abiString;
         if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.LOLLIPOP) {
@@ -0,0 +1,63 @@
+// Copyright (c) 2019, Mine2Gether.com
+//
+// Please see the included LICENSE file for more information.
+
+package m2g.mine2gether.androidminer;
+
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Parser for violetminer. It only prints one hashrate figure and does not
+ * number its shares, so the share counters are kept here.
+ */
+public class VioletminerOutputParser implements MinerOutputParser {
+
+    private static final Pattern HASHRATE = Pattern.compile("hashrate:\\s*([0-9.]+)\\s*([kmg]?)h/s", Pattern.CASE_INSENSITIVE);
+    private static final Pattern NEW_JOB = Pattern.compile("new job.*?diff(?:iculty)?:?\\s*(\\d+)", Pattern.CASE_INSENSITIVE);
+
+    private static final byte[] MARK_HASHRATE = MinerLogLine.marker("hashrate:");
+    private static final byte[] MARK_ACCEPTED = MinerLogLine.marker("share accepted");
+    private static final byte[] MARK_REJECTED = MinerLogLine.marker("share rejected");
+    private static final byte[] MARK_NEW_JOB = MinerLogLine.marker("new job");
+    private static final byte[][] MARKS_CONNECTION_LOST = {
+            MinerLogLine.marker("lost connection"),
+            MinerLogLine.marker("failed to connect")
+    };
+
+    private final Matcher hashrate = HASHRATE.matcher("");
+    private final Matcher newJob = NEW_JOB.matcher("");
+
+    private int accepted = 0;
+    private int rejected = 0;
+
+    @Override
+    public MiningEvent parse(MinerLogLine line) {
+
+        if (line.containsIgnoreCase(MARK_HASHRATE) && hashrate.reset(line).find()) {
+            double rate = MinerOutputParsers.parseRate(hashrate.group(1)) * MinerOutputParsers.unitMultiplier(hashrate.group(2));
+            return new MiningEvent.HashrateSample(rate, Double.NaN, Double.NaN, Double.NaN);
+        }
+
+        if (line.containsIgnoreCase(MARK_ACCEPTED)) {
+            return new MiningEvent.ShareAccepted(++accepted, rejected, 0, -1);
+        }
+
+        if (line.containsIgnoreCase(MARK_REJECTED)) {
+            return new MiningEvent.ShareRejected(accepted, ++rejected, 0, -1);
+        }
+
+        if (line.containsIgnoreCase(MARK_NEW_JOB)) {
+            long difficulty = newJob.reset(line).find() ? MinerOutputParsers.parseLong(newJob.group(1), 0) : 0;
+            return new MiningEvent.NewJob(difficulty, -1);
+        }
+
+        for (byte[] mark : MARKS_CONNECTION_LOST) {
+            if (line.containsIgnoreCase(mark)) {
+                return new MiningEvent.ConnectionLost();
+            }
+        }
+
+        return null;
+    }
+}
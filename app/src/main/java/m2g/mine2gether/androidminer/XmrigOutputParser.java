@@ -0,0 +1,85 @@
+// Copyright (c) 2019, Mine2Gether.com
+//
+// Please see the included LICENSE file for more information.
+
+package m2g.mine2gether.androidminer;
+
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Parser for XMRig and its forks (NinjaRig, XMRig-UPX). Works with both the
+ * old "[date] accepted ..." layout and the tagged "[date]  cpu  accepted ..." one
+ * because it matches on the message instead of token positions.
+ */
+public class XmrigOutputParser implements MinerOutputParser {
+
+    private static final Pattern SPEED = Pattern.compile("speed 10s/60s/15m (\\S+) (\\S+) (\\S+) H/s(?: max (\\S+))?");
+    private static final Pattern ACCEPTED = Pattern.compile("accepted \\((\\d+)/(\\d+)\\) diff (\\S+)(?: \\((\\d+) ms\\))?");
+    private static final Pattern REJECTED = Pattern.compile("rejected \\((\\d+)/(\\d+)\\) diff (\\S+)(?: \".*\")?(?: \\((\\d+) ms\\))?");
+    private static final Pattern NEW_JOB = Pattern.compile("new job from \\S+ diff (\\S+)(?: algo \\S+)?(?: height (\\d+))?");
+    private static final Pattern DATASET_READY = Pattern.compile("dataset ready \\((\\d+) ms\\)");
+
+    private static final byte[] MARK_SPEED = MinerLogLine.marker("speed");
+    private static final byte[] MARK_ACCEPTED = MinerLogLine.marker("accepted (");
+    private static final byte[] MARK_REJECTED = MinerLogLine.marker("rejected (");
+    private static final byte[] MARK_NEW_JOB = MinerLogLine.marker("new job");
+    private static final byte[] MARK_DATASET_READY = MinerLogLine.marker("dataset ready");
+    private static final byte[][] MARKS_CONNECTION_LOST = {
+            MinerLogLine.marker("read error"),
+            MinerLogLine.marker("connect error"),
+            MinerLogLine.marker("no active pools")
+    };
+
+    private final Matcher speed = SPEED.matcher("");
+    private final Matcher accepted = ACCEPTED.matcher("");
+    private final Matcher rejected = REJECTED.matcher("");
+    private final Matcher newJob = NEW_JOB.matcher("");
+    private final Matcher datasetReady = DATASET_READY.matcher("");
+
+    @Override
+    public MiningEvent parse(MinerLogLine line) {
+
+        if (line.containsIgnoreCase(MARK_SPEED) && speed.reset(line).find()) {
+            return new MiningEvent.HashrateSample(
+                    MinerOutputParsers.parseRate(speed.group(1)),
+                    MinerOutputParsers.parseRate(speed.group(2)),
+                    MinerOutputParsers.parseRate(speed.group(3)),
+                    MinerOutputParsers.parseRate(speed.group(4)));
+        }
+
+        if (line.containsIgnoreCase(MARK_ACCEPTED) && accepted.reset(line).find()) {
+            return new MiningEvent.ShareAccepted(
+                    Integer.parseInt(accepted.group(1)),
+                    Integer.parseInt(accepted.group(2)),
+                    MinerOutputParsers.parseDifficulty(accepted.group(3)),
+                    MinerOutputParsers.parseInt(accepted.group(4), -1));
+        }
+
+        if (line.containsIgnoreCase(MARK_REJECTED) && rejected.reset(line).find()) {
+            return new MiningEvent.ShareRejected(
+                    Integer.parseInt(rejected.group(1)),
+                    Integer.parseInt(rejected.group(2)),
+                    MinerOutputParsers.parseDifficulty(rejected.group(3)),
+                    MinerOutputParsers.parseInt(rejected.group(4), -1));
+        }
+
+        if (line.containsIgnoreCase(MARK_NEW_JOB) && newJob.reset(line).find()) {
+            return new MiningEvent.NewJob(
+                    MinerOutputParsers.parseDifficulty(newJob.group(1)),
+                    MinerOutputParsers.parseLong(newJob.group(2), -1));
+        }
+
+        if (line.containsIgnoreCase(MARK_DATASET_READY) && datasetReady.reset(line).find()) {
+            return new MiningEvent.DatasetReady(Long.parseLong(datasetReady.group(1)));
+        }
+
+        for (byte[] mark : MARKS_CONNECTION_LOST) {
+            if (line.containsIgnoreCase(mark)) {
+                return new MiningEvent.ConnectionLost();
+            }
+        }
+
+        return null;
+    }
+}
@@ -267,6 +267,8 @@ public class fetchData extends AsyncTask<Void, Void, Void> {
 
             URL urlFetch = new URL(url);
             HttpURLConnection httpURLConnection = (HttpURLConnection) urlFetch.openConnection();
+            httpURLConnection.setConnectTimeout(Config.httpConnectTimeoutMs);
+            httpURLConnection.setReadTimeout(Config.httpReadTimeoutMs);
             InputStream inputStream = httpURLConnection.getInputStream();
             BufferedReader bufferedReader = new BufferedReader(new InputStreamReader(inputStream));
             String line = "";
@@ -285,6 +287,11 @@ public class fetchData extends AsyncTask<Void, Void, Void> {
         return data;
     }
 
+    public fetchData start() {
+        executeOnExecutor(MinerExecutors.network());
+        return this;
+    }
+
     @Override
     protected void onPostExecute(Void aVoid) {
         super.onPostExecute(aVoid);
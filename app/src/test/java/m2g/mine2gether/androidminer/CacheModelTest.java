@@ -0,0 +1,96 @@
+// Copyright (c) 2019, Mine2Gether.com
+//
+// Please see the included LICENSE file for more information.
+
+package m2g.mine2gether.androidminer;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class CacheModelTest {
+
+    private static final int[] ALL = {7, 4, 5, 6, 0, 1, 2, 3};
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void randomXInASharedL3RunsOneHash() throws Exception {
+        CpuTopology topology = CpuTopology.probe(SysfsFixture.bigLittle(folder.getRoot(), true).root);
+
+        // one 2 MB scratchpad fills the whole L3, only the prime core keeps running
+        CacheModel.Layout layout = CacheModel.fit(topology, ALL, 1, 1, 2048);
+
+        assertArrayEquals(new int[]{7}, layout.cpus);
+        assertEquals(1, layout.threads);
+        assertEquals(1, layout.intensity);
+        assertTrue(layout.reduced);
+    }
+
+    @Test
+    public void randomXWithoutL3KeepsOneHashPerL2() throws Exception {
+        CpuTopology topology = CpuTopology.probe(SysfsFixture.bigLittle(folder.getRoot(), false).root);
+
+        CacheModel.Layout layout = CacheModel.fit(topology, ALL, 2, 1, 2048);
+
+        // every big core has an L2 of its own, the little ones share one
+        assertArrayEquals(new int[]{7, 4, 5, 6, 0}, layout.cpus);
+        assertEquals(1, layout.threads);
+        assertTrue(layout.reduced);
+    }
+
+    @Test
+    public void smallScratchpadsLowerIntensityPerCluster() throws Exception {
+        CpuTopology topology = CpuTopology.probe(SysfsFixture.bigLittle(folder.getRoot(), false).root);
+
+        // cn-pico: one 256 KB scratchpad per big L2, two in the little L2
+        CacheModel.Layout layout = CacheModel.fit(topology, ALL, 2, 2, 256);
+
+        assertArrayEquals(new int[]{7, 4, 5, 6, 0, 1}, layout.cpus);
+        assertEquals(1, layout.threads);
+        assertEquals(1, layout.intensity);
+        assertEquals(1, layout.clusterIntensity[0]);
+        assertEquals(1, layout.clusterIntensity[2]);
+        assertTrue(layout.reduced);
+    }
+
+    @Test
+    public void layoutThatFitsIsKept() throws Exception {
+        CpuTopology topology = CpuTopology.probe(SysfsFixture.bigLittle(folder.getRoot(), true).root);
+
+        // 8 x 128 KB in 2 MB of L3
+        CacheModel.Layout layout = CacheModel.fit(topology, ALL, 1, 1, 128);
+
+        assertArrayEquals(ALL, layout.cpus);
+        assertEquals(1, layout.threads);
+        assertEquals(1, layout.intensity);
+        assertFalse(layout.reduced);
+    }
+
+    @Test
+    public void unknownScratchpadOrCachesChangeNothing() throws Exception {
+        CpuTopology withCaches = CpuTopology.probe(SysfsFixture.bigLittle(folder.newFolder("caches"), true).root);
+        CacheModel.Layout unknownAlgo = CacheModel.fit(withCaches, ALL, 2, 3, 0);
+        assertArrayEquals(ALL, unknownAlgo.cpus);
+        assertEquals(2, unknownAlgo.threads);
+        assertEquals(3, unknownAlgo.intensity);
+        assertFalse(unknownAlgo.reduced);
+
+        SysfsFixture sys = new SysfsFixture(folder.newFolder("nocaches"));
+        sys.write("present", "0-1");
+        sys.cpu(0, 1800000, 0, "0-1").cpu(1, 1800000, 0, "0-1");
+        CpuTopology noCaches = CpuTopology.probe(sys.root);
+
+        CacheModel.Layout layout = CacheModel.fit(noCaches, new int[]{0, 1}, 2, 3, 2048);
+        assertArrayEquals(new int[]{0, 1}, layout.cpus);
+        assertEquals(2, layout.threads);
+        assertEquals(3, layout.intensity);
+        assertFalse(layout.reduced);
+    }
+}
@@ -0,0 +1,126 @@
+// Copyright (c) 2019, Mine2Gether.com
+//
+// Please see the included LICENSE file for more information.
+
+package m2g.mine2gether.androidminer;
+
+import org.json.JSONObject;
+import org.junit.Test;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class ConfigTemplateTest {
+
+    @Test
+    public void slotInsideAStringIsEscaped() throws Exception {
+        ConfigTemplate template = ConfigTemplate.compile("{\"user\": \"$username$\", \"pass\": \"x-$pass$\"}");
+
+        String json = template.render(values("username", "wallet\"}, \"evil\": {\"", "pass", "back\\slash"));
+
+        assertEquals("{\"user\": \"wallet\\\"}, \\\"evil\\\": {\\\"\", \"pass\": \"x-back\\\\slash\"}", json);
+        JSONObject parsed = new JSONObject(json);
+        assertEquals("wallet\"}, \"evil\": {\"", parsed.getString("user"));
+        assertEquals("x-back\\slash", parsed.getString("pass"));
+        assertEquals(2, parsed.length());
+    }
+
+    @Test
+    public void controlCharactersAreEscaped() throws Exception {
+        ConfigTemplate template = ConfigTemplate.compile("{\"pass\": \"$pass$\"}");
+
+        String json = template.render(values("pass", "a\nb\tc\u0001"));
+
+        assertEquals("{\"pass\": \"a\\nb\\tc\\u0001\"}", json);
+        assertEquals("a\nb\tc\u0001", new JSONObject(json).getString("pass"));
+    }
+
+    @Test
+    public void slotOutsideAStringKeepsItsType() throws Exception {
+        ConfigTemplate template = ConfigTemplate.compile(
+                "{\"port\": $port$, \"enabled\": $enabled$, \"token\": $token$, \"cpu\": $cpu$, \"name\": $name$}");
+
+        Map<String, Object> values = new HashMap<>();
+        values.put("port", 45678);
+        values.put("enabled", true);
+        values.put("token", null);
+        values.put("cpu", new ConfigTemplate.Raw("[[1, 7]]"));
+        values.put("name", "say \"hi\"");
+
+        String json = template.render(values);
+
+        assertEquals("{\"port\": 45678, \"enabled\": true, \"token\": null, \"cpu\": [[1, 7]], \"name\": \"say \\\"hi\\\"\"}", json);
+        JSONObject parsed = new JSONObject(json);
+        assertEquals(45678, parsed.getInt("port"));
+        assertTrue(parsed.isNull("token"));
+        assertEquals(7, parsed.getJSONArray("cpu").getJSONArray(0).getInt(1));
+    }
+
+    @Test
+    public void escapedQuotesInTheTemplateKeepTheStringState() {
+        // \" does not end the string, \\ before a quote does
+        ConfigTemplate template = ConfigTemplate.compile("{\"a\": \"say \\\"$x$\\\"\", \"b\": \"\\\\\", \"c\": $x$}");
+
+        String json = template.render(values("x", "q\""));
+
+        assertEquals("{\"a\": \"say \\\"q\\\"\\\"\", \"b\": \"\\\\\", \"c\": \"q\\\"\"}", json);
+    }
+
+    @Test
+    public void bindThenRender() {
+        ConfigTemplate template = ConfigTemplate.compile("{\"url\": \"$url$\", \"user\": \"$username$\", \"threads\": $threads$}");
+
+        ConfigTemplate bound = template.bind(values("username", "wallet", "threads", 4));
+
+        assertEquals("{\"url\": \"pool:3333\", \"user\": \"wallet\", \"threads\": 4}",
+                bound.render(Collections.singletonMap("url", "pool:3333")));
+        // rendering again reuses the buffer
+        assertEquals("{\"url\": \"other:80\", \"user\": \"wallet\", \"threads\": 4}",
+                bound.render(Collections.singletonMap("url", "other:80")));
+        // the source template is untouched
+        assertEquals("{\"url\": \"$url$\", \"user\": \"$username$\", \"threads\": $threads$}",
+                template.render(Collections.<String, Object>emptyMap()));
+    }
+
+    @Test
+    public void dollarInAValueIsNotASlot() {
+        ConfigTemplate template = ConfigTemplate.compile("{\"user\": \"$username$\", \"pass\": \"$pass$\"}");
+
+        // a bound value that looks like a placeholder stays text
+        ConfigTemplate bound = template.bind(values("username", "$pass$"));
+
+        assertEquals("{\"user\": \"$pass$\", \"pass\": \"x$y\"}", bound.render(values("pass", "x$y")));
+    }
+
+    @Test
+    public void unterminatedPlaceholderIsText() {
+        String source = "{\"note\": \"costs $5\", \"user\": \"$username\", \"x\": \"$$\", \"end\": \"$";
+        ConfigTemplate template = ConfigTemplate.compile(source);
+
+        assertEquals(source, template.render(values("username", "wallet", "5", "five")));
+    }
+
+    @Test
+    public void missingValueLeavesThePlaceholder() {
+        ConfigTemplate template = ConfigTemplate.compile("{\"algo\": \"$algo$\", \"port\": $port$}");
+
+        assertEquals("{\"algo\": \"rx/0\", \"port\": $port$}", template.render(values("algo", "rx/0")));
+    }
+
+    @Test
+    public void quote() {
+        assertEquals("\"a\\\"b\\\\c\"", ConfigTemplate.quote("a\"b\\c"));
+    }
+
+    private static Map<String, Object> values(Object... pairs) {
+        Map<String, Object> values = new HashMap<>();
+        for (int i = 0; i < pairs.length; i += 2) {
+            values.put((String) pairs[i], pairs[i + 1]);
+        }
+        return values;
+    }
+}
@@ -0,0 +1,121 @@
+// Copyright (c) 2019, Mine2Gether.com
+//
+// Please see the included LICENSE file for more information.
+
+package m2g.mine2gether.androidminer;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+public class CpuTopologyTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void bigLittleClustersFastestFirst() throws Exception {
+        CpuTopology topology = CpuTopology.probe(SysfsFixture.bigLittle(folder.getRoot(), true).root);
+
+        assertEquals(8, topology.getCpuCount());
+        CpuTopology.Cluster[] clusters = topology.getClusters();
+        assertEquals(3, clusters.length);
+        assertArrayEquals(new int[]{7}, clusters[0].cpus);
+        assertArrayEquals(new int[]{4, 5, 6}, clusters[1].cpus);
+        assertArrayEquals(new int[]{0, 1, 2, 3}, clusters[2].cpus);
+        assertEquals(1024, clusters[0].capacity);
+        assertEquals(2, topology.getCpu(0).cluster);
+
+        assertArrayEquals(new int[]{7, 4, 5, 6, 0}, topology.getFastestCpus(5));
+        assertArrayEquals(new int[]{7, 4, 5, 6, 0, 1, 2, 3}, topology.getFastestCpus(64));
+    }
+
+    @Test
+    public void bigLittleCaches() throws Exception {
+        CpuTopology topology = CpuTopology.probe(SysfsFixture.bigLittle(folder.getRoot(), true).root);
+
+        // 8 L1d, the shared little L2, 3 big L2s, L3; no instruction caches
+        assertEquals(8 + 1 + 4 + 1, topology.getCaches().length);
+
+        CpuTopology.Cache last = topology.getLastLevelCache(0);
+        assertEquals(3, last.level);
+        assertEquals(2048, last.sizeKb);
+        assertArrayEquals(new int[]{0, 1, 2, 3, 4, 5, 6, 7}, last.cpus);
+    }
+
+    @Test
+    public void withoutL3TheL2IsTheLastLevel() throws Exception {
+        CpuTopology topology = CpuTopology.probe(SysfsFixture.bigLittle(folder.getRoot(), false).root);
+
+        assertEquals(512, topology.getLastLevelCache(2).sizeKb);
+        assertArrayEquals(new int[]{0, 1, 2, 3}, topology.getLastLevelCache(2).cpus);
+        assertEquals(256, topology.getLastLevelCache(5).sizeKb);
+        assertArrayEquals(new int[]{5}, topology.getLastLevelCache(5).cpus);
+    }
+
+    @Test
+    public void missingCachesAndCapacity() throws Exception {
+        SysfsFixture sys = new SysfsFixture(folder.getRoot());
+        sys.write("present", "0-3");
+        sys.cpu(0, 1400000, 0, "0-1").cpu(1, 1400000, 0, "0-1");
+        sys.cpu(2, 2000000, 0, "2-3").cpu(3, 2000000, 0, "2-3");
+
+        CpuTopology topology = CpuTopology.probe(sys.root);
+
+        // ranked by frequency without cpu_capacity
+        CpuTopology.Cluster[] clusters = topology.getClusters();
+        assertEquals(2, clusters.length);
+        assertArrayEquals(new int[]{2, 3}, clusters[0].cpus);
+        assertArrayEquals(new int[]{0, 1}, clusters[1].cpus);
+
+        assertEquals(0, topology.getCaches().length);
+        assertNull(topology.getLastLevelCache(0));
+    }
+
+    @Test
+    public void cpuDirsWithoutPresent() throws Exception {
+        SysfsFixture sys = new SysfsFixture(folder.getRoot());
+        // no present file and no cpufreq: all CPUs in one cluster in index order
+        new File(sys.root, "cpu0").mkdirs();
+        new File(sys.root, "cpu1").mkdirs();
+        new File(sys.root, "cpufreq").mkdirs();
+
+        CpuTopology topology = CpuTopology.probe(sys.root);
+
+        assertEquals(2, topology.getCpuCount());
+        assertEquals(1, topology.getClusters().length);
+        assertArrayEquals(new int[]{0, 1}, topology.getFastestCpus(2));
+    }
+
+    @Test
+    public void parseSizeKb() {
+        assertEquals(512, CpuTopology.parseSizeKb("512K"));
+        assertEquals(2048, CpuTopology.parseSizeKb("2M"));
+        assertEquals(32, CpuTopology.parseSizeKb("32k"));
+        assertEquals(1024, CpuTopology.parseSizeKb("1048576"));
+        assertEquals(0, CpuTopology.parseSizeKb(""));
+        assertEquals(0, CpuTopology.parseSizeKb(null));
+        assertEquals(0, CpuTopology.parseSizeKb("lots"));
+    }
+
+    @Test
+    public void readCpuList() throws Exception {
+        SysfsFixture sys = new SysfsFixture(folder.getRoot());
+        sys.write("a", "0-3,6");
+        sys.write("b", "6,0-1");
+        sys.write("c", "4");
+        sys.write("d", "x-y");
+
+        assertArrayEquals(new int[]{0, 1, 2, 3, 6}, CpuTopology.readCpuList(new File(sys.root, "a")));
+        assertArrayEquals(new int[]{0, 1, 6}, CpuTopology.readCpuList(new File(sys.root, "b")));
+        assertArrayEquals(new int[]{4}, CpuTopology.readCpuList(new File(sys.root, "c")));
+        assertArrayEquals(new int[0], CpuTopology.readCpuList(new File(sys.root, "d")));
+        assertArrayEquals(new int[0], CpuTopology.readCpuList(new File(sys.root, "missing")));
+    }
+}
@@ -0,0 +1,184 @@
+// Copyright (c) 2019, Mine2Gether.com
+//
+// Please see the included LICENSE file for more information.
+
+package m2g.mine2gether.androidminer;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class MinerApiPollerTest {
+
+    private static final String TOKEN = "0123456789abcdef";
+
+    private static final String SUMMARY = "{"
+            + "\"uptime\": 120,"
+            + "\"hashrate\": {\"total\": [812.5, 790.1, null], \"highest\": 830.0},"
+            + "\"results\": {\"diff_current\": 100001, \"shares_good\": 9, \"shares_total\": 10},"
+            + "\"connection\": {\"ping\": 42, \"accepted\": 9, \"rejected\": 1},"
+            + "\"resources\": {\"memory\": {\"resident_set_memory\": 2400000, \"free\": 1000000, \"total\": 4000000}}"
+            + "}";
+
+    private static final String BACKENDS = "["
+            + "{\"type\": \"cpu\", \"threads\": ["
+            + "{\"affinity\": 7, \"hashrate\": [300.0, 290.0, null]},"
+            + "{\"affinity\": 4, \"hashrate\": [200.0, 195.0, null]}]},"
+            + "{\"type\": \"opencl\", \"threads\": [{\"affinity\": -1, \"hashrate\": [1000.0, 1000.0, null]}]}"
+            + "]";
+
+    // xmrig 2.x: no /2/backends, per-thread rates in hashrate.threads
+    private static final String SUMMARY_2X = "{"
+            + "\"hashrate\": {\"total\": [150.0, null, null], \"threads\": [[80.0, null, null], [70.0, null, null]]},"
+            + "\"results\": {\"shares_good\": 3, \"shares_total\": 4}"
+            + "}";
+
+    private HttpServer server;
+    private final Map<String, String> responses = new ConcurrentHashMap<>();
+    private final List<String> authorizations = new ArrayList<>();
+
+    @Before
+    public void startServer() throws IOException {
+        server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 0);
+        server.createContext("/", new HttpHandler() {
+            @Override
+            public void handle(HttpExchange exchange) throws IOException {
+                synchronized (authorizations) {
+                    authorizations.add(exchange.getRequestHeaders().getFirst("Authorization"));
+                }
+                String body = responses.get(exchange.getRequestURI().getPath());
+                if (body == null) {
+                    exchange.sendResponseHeaders(404, -1);
+                } else {
+                    byte[] bytes = body.getBytes("UTF-8");
+                    exchange.sendResponseHeaders(200, bytes.length);
+                    OutputStream out = exchange.getResponseBody();
+                    out.write(bytes);
+                    out.close();
+                }
+                exchange.close();
+            }
+        });
+        server.start();
+    }
+
+    @After
+    public void stopServer() {
+        server.stop(0);
+    }
+
+    @Test
+    public void pollsSummaryAndBackends() {
+        responses.put("/1/summary", SUMMARY);
+        responses.put("/2/backends", BACKENDS);
+        final List<MiningEvent.MinerApiStats> received = new ArrayList<>();
+
+        long delay = newPoller(received).poll();
+
+        assertEquals(1, received.size());
+        MiningEvent.MinerApiStats stats = received.get(0);
+        assertEquals(812.5, stats.hashrate.rate10s, 0);
+        assertEquals(790.1, stats.hashrate.rate60s, 0);
+        assertTrue(Double.isNaN(stats.hashrate.rate15m));
+        assertEquals(830.0, stats.hashrate.max, 0);
+        assertEquals(9, stats.accepted);
+        assertEquals(1, stats.rejected);
+        assertEquals(100001, stats.difficulty);
+        assertEquals(42, stats.latencyMs);
+        assertEquals(120, stats.uptimeSec);
+        assertEquals(2400000, stats.memoryRss);
+
+        // only the CPU backend's threads
+        assertArrayEquals(new int[]{7, 4}, stats.threadAffinity);
+        assertArrayEquals(new double[]{300.0, 200.0}, stats.threadRate10s, 0);
+
+        // nobody on the bus wants stats
+        assertEquals(Config.apiPollIdleMs, delay);
+        synchronized (authorizations) {
+            assertEquals("Bearer " + TOKEN, authorizations.get(0));
+        }
+    }
+
+    @Test
+    public void xmrig2WithoutBackends() {
+        responses.put("/1/summary", SUMMARY_2X);
+        final List<MiningEvent.MinerApiStats> received = new ArrayList<>();
+        MinerApiPoller poller = newPoller(received);
+
+        poller.poll();
+        poller.poll();
+
+        assertEquals(2, received.size());
+        MiningEvent.MinerApiStats stats = received.get(1);
+        assertEquals(150.0, stats.hashrate.current(), 0);
+        assertEquals(3, stats.accepted);
+        assertEquals(1, stats.rejected);
+        assertArrayEquals(new int[]{-1, -1}, stats.threadAffinity);
+        assertArrayEquals(new double[]{80.0, 70.0}, stats.threadRate10s, 0);
+
+        // the 404 is remembered, the second poll only asks for the summary
+        synchronized (authorizations) {
+            assertEquals(3, authorizations.size());
+        }
+    }
+
+    @Test
+    public void notListeningYetWaitsForWarmup() {
+        final List<MiningEvent.MinerApiStats> received = new ArrayList<>();
+        MinerApiPoller poller = newPoller(received);
+        server.stop(0);
+
+        assertEquals(Config.apiPollWarmupMs, poller.poll());
+        assertTrue(received.isEmpty());
+    }
+
+    @Test
+    public void minerThatNeverListensGetsTheBackoff() {
+        final List<MiningEvent.MinerApiStats> received = new ArrayList<>();
+        MinerApiPoller poller = newPoller(received);
+        server.stop(0);
+
+        long warmupPolls = Config.apiPollWarmupLimitMs / Config.apiPollWarmupMs;
+        for (int i = 1; i < warmupPolls; i++) {
+            assertEquals(Config.apiPollWarmupMs, poller.poll());
+        }
+        assertEquals(Config.apiPollIntervalMs << 1, poller.poll());
+        assertEquals(Config.apiPollIntervalMs << 2, poller.poll());
+        assertTrue(received.isEmpty());
+    }
+
+    @Test
+    public void onlyMinersThatBindTheApiToLoopback() {
+        assertTrue(MinerApiPoller.isSupported(Config.asset_xmrig));
+        assertTrue(MinerApiPoller.isSupported(Config.asset_xmrigcc));
+        assertFalse(MinerApiPoller.isSupported(Config.asset_xmrig_upx));
+        assertFalse(MinerApiPoller.isSupported(Config.asset_violetminer));
+    }
+
+    private MinerApiPoller newPoller(final List<MiningEvent.MinerApiStats> received) {
+        return new MinerApiPoller("127.0.0.1", server.getAddress().getPort(), TOKEN, new MiningEventBus(), new MinerApiPoller.Listener() {
+            @Override
+            public void onStats(MiningEvent.MinerApiStats stats) {
+                received.add(stats);
+            }
+        });
+    }
+}
@@ -0,0 +1,87 @@
+// Copyright (c) 2019, Mine2Gether.com
+//
+// Please see the included LICENSE file for more information.
+
+package m2g.mine2gether.androidminer;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class MinerCommandChannelTest {
+
+    @Test
+    public void mergesHashrateTablesOfAllMiners() throws Exception {
+        MinerCommandChannel.Response big = new MinerCommandChannel.Response('h');
+        big.addThread(0, 7, 300, 290, Double.NaN);
+        big.lines.add("| 0 | 7 | 300.0 | 290.0 | n/a |");
+        big.total = new MiningEvent.HashrateSample(300, 290, Double.NaN, 310);
+
+        MinerCommandChannel.Response little = new MinerCommandChannel.Response('h');
+        little.addThread(0, 0, 100, 95, Double.NaN);
+        little.addThread(1, 1, 110, 105, Double.NaN);
+        little.total = new MiningEvent.HashrateSample(210, 200, Double.NaN, 220);
+
+        MinerCommandChannel.Response merged = MinerCommandChannel.merge('h', Arrays.asList(done(big), done(little))).get();
+
+        assertEquals('h', merged.command);
+        assertEquals(3, merged.threadCount);
+        assertArrayEquals(new int[]{7, 0, 1}, Arrays.copyOf(merged.affinity, merged.threadCount));
+        assertEquals(510, merged.total.rate10s, 0);
+        assertEquals(490, merged.total.rate60s, 0);
+        assertTrue(Double.isNaN(merged.total.rate15m));
+        assertEquals(1, merged.lines.size());
+    }
+
+    @Test
+    public void pauseHasNoTotal() throws Exception {
+        MinerCommandChannel.Response a = new MinerCommandChannel.Response('p');
+        a.lines.add("paused, press r to resume");
+        MinerCommandChannel.Response b = new MinerCommandChannel.Response('p');
+        b.lines.add("paused, press r to resume");
+
+        MinerCommandChannel.Response merged = MinerCommandChannel.merge('p', Arrays.asList(done(a), done(b))).get();
+
+        assertEquals(2, merged.lines.size());
+        assertNull(merged.total);
+    }
+
+    @Test(expected = TimeoutException.class)
+    public void waitsForEveryMiner() throws Exception {
+        FutureTask<MinerCommandChannel.Response> silent = new FutureTask<>(new Callable<MinerCommandChannel.Response>() {
+            @Override
+            public MinerCommandChannel.Response call() {
+                return null;
+            }
+        });
+        List<Future<MinerCommandChannel.Response>> parts = Arrays.<Future<MinerCommandChannel.Response>>asList(
+                done(new MinerCommandChannel.Response('r')), silent);
+        Future<MinerCommandChannel.Response> merged = MinerCommandChannel.merge('r', parts);
+
+        assertFalse(merged.isDone());
+        merged.get(10, TimeUnit.MILLISECONDS);
+    }
+
+    private static Future<MinerCommandChannel.Response> done(final MinerCommandChannel.Response response) {
+        FutureTask<MinerCommandChannel.Response> future = new FutureTask<>(new Callable<MinerCommandChannel.Response>() {
+            @Override
+            public MinerCommandChannel.Response call() {
+                return response;
+            }
+        });
+        future.run();
+        return future;
+    }
+}
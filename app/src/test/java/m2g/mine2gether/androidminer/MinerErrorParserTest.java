@@ -0,0 +1,58 @@
+// Copyright (c) 2019, Mine2Gether.com
+//
+// Please see the included LICENSE file for more information.
+
+package m2g.mine2gether.androidminer;
+
+import org.junit.Test;
+
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+public class MinerErrorParserTest {
+
+    @Test
+    public void classifiesStderr() throws Exception {
+        List<MiningEvent> events = MinerOutputFixture.parse(new MinerErrorParser(), ""
+                + "CANNOT LINK EXECUTABLE \"./xmrig\": cannot locate symbol \"__register_atfork\" referenced by \"./xmrig\"...\n"
+                + "Illegal instruction\n"
+                + "[2021-03-14 10:01:02.113]  randomx  failed to allocate RandomX dataset, huge pages unavailable\n"
+                + "[2021-03-14 10:01:02.340]  http     listen error: \"address already in use\"\n"
+                + "terminate called after throwing an instance of 'std::bad_alloc'\n"
+                + "\n"
+                + "  what():  std::bad_alloc\n");
+
+        assertEquals(7, events.size());
+        assertKind(MiningEvent.MinerError.LINKER, events.get(0));
+        assertKind(MiningEvent.MinerError.ILLEGAL_INSTRUCTION, events.get(1));
+        assertKind(MiningEvent.MinerError.HUGE_PAGES, events.get(2));
+        assertKind(MiningEvent.MinerError.BIND_FAILED, events.get(3));
+        assertKind(MiningEvent.MinerError.OUT_OF_MEMORY, events.get(4));
+        assertNull(events.get(5));
+        assertKind(MiningEvent.MinerError.OUT_OF_MEMORY, events.get(6));
+    }
+
+    @Test
+    public void hugePagesReportIsNotAnError() throws Exception {
+        MinerErrorParser parser = new MinerErrorParser();
+
+        assertNull(MinerOutputFixture.parseLine(parser, "[2021-03-14 10:01:02.113]  cpu      huge pages 0% 0/1168 +JIT (12 ms)"));
+        assertNull(MinerOutputFixture.parseLine(parser, " * HUGE PAGES      available, disabled"));
+    }
+
+    @Test
+    public void partialLines() throws Exception {
+        MinerErrorParser parser = new MinerErrorParser();
+
+        assertNull(MinerOutputFixture.parseLine(parser, "Illegal instr"));
+        assertNull(MinerOutputFixture.parseLine(parser, "CANNOT LINK EXEC"));
+        assertKind(MiningEvent.MinerError.ILLEGAL_INSTRUCTION, MinerOutputFixture.parseLine(parser, "SIGILL"));
+    }
+
+    private static void assertKind(int kind, MiningEvent event) {
+        assertEquals(MiningEvent.TYPE_MINER_ERROR, event.getType());
+        assertEquals(kind, ((MiningEvent.MinerError) event).kind);
+    }
+}
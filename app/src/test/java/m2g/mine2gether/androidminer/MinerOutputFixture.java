@@ -0,0 +1,39 @@
+// Copyright (c) 2019, Mine2Gether.com
+//
+// Please see the included LICENSE file for more information.
+
+package m2g.mine2gether.androidminer;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Feeds captured miner output through a {@link LogLineScanner} the same way the
+ * service reads the process streams.
+ */
+class MinerOutputFixture {
+
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+
+    /**
+     * @return the event of every line in order, null for lines that carry none
+     */
+    static List<MiningEvent> parse(final MinerOutputParser parser, String output) throws IOException {
+        final List<MiningEvent> events = new ArrayList<>();
+        new LogLineScanner(new ByteArrayInputStream(output.getBytes(UTF8))).scan(new LogLineScanner.LineHandler() {
+            @Override
+            public void onLine(MinerLogLine line) {
+                events.add(parser.parse(line));
+            }
+        });
+        return events;
+    }
+
+    static MiningEvent parseLine(MinerOutputParser parser, String line) throws IOException {
+        List<MiningEvent> events = parse(parser, line);
+        return events.isEmpty() ? null : events.get(0);
+    }
+}
@@ -0,0 +1,111 @@
+// Copyright (c) 2019, Mine2Gether.com
+//
+// Please see the included LICENSE file for more information.
+
+package m2g.mine2gether.androidminer;
+
+import android.os.SystemClock;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class MinerSupervisorTest {
+
+    private static final long TIMEOUT = Config.supervisorStallTimeoutMs;
+
+    private MinerSupervisor supervisor;
+
+    @Before
+    public void createSupervisor() {
+        supervisor = new MinerSupervisor(new MinerSupervisor.Host() {
+            @Override
+            public void kill() {
+            }
+
+            @Override
+            public void restart() {
+            }
+
+            @Override
+            public void giveUp(String reason) {
+            }
+
+            @Override
+            public void onRestartScheduled(MiningEvent.MinerRestart event) {
+            }
+        });
+    }
+
+    @After
+    public void shutdown() {
+        supervisor.shutdown();
+    }
+
+    @Test
+    public void noProgressIsAStall() {
+        long before = SystemClock.elapsedRealtime();
+        supervisor.onRunning(1);
+        long after = SystemClock.elapsedRealtime();
+
+        assertFalse(supervisor.isStalled(before + TIMEOUT - 1));
+        assertTrue(supervisor.isStalled(after + TIMEOUT));
+    }
+
+    @Test
+    public void oneStalledMinerStallsTheGroup() {
+        supervisor.onRunning(2);
+        long later = SystemClock.elapsedRealtime() + 10 * TIMEOUT;
+
+        // only the second miner keeps hashing
+        supervisor.onProgress(1, later);
+        assertTrue(supervisor.isStalled(later + 1));
+
+        supervisor.onProgress(0, later);
+        assertFalse(supervisor.isStalled(later + 1));
+    }
+
+    @Test
+    public void progressOfAnUnknownMinerIsIgnored() {
+        supervisor.onRunning(1);
+        supervisor.onProgress(3);
+        long now = SystemClock.elapsedRealtime();
+
+        assertTrue(supervisor.isStalled(now + TIMEOUT));
+    }
+
+    @Test
+    public void pausedMinerIsNotStalled() {
+        supervisor.onRunning(1);
+        supervisor.onPaused();
+        long now = SystemClock.elapsedRealtime();
+
+        assertFalse(supervisor.isStalled(now + 10 * TIMEOUT));
+    }
+
+    @Test
+    public void resumeRestartsTheStallTimeout() {
+        supervisor.onRunning(1);
+        supervisor.onPaused();
+        long before = SystemClock.elapsedRealtime();
+        supervisor.onResumed();
+        long after = SystemClock.elapsedRealtime();
+
+        assertFalse(supervisor.isStalled(before + TIMEOUT - 1));
+        assertTrue(supervisor.isStalled(after + TIMEOUT));
+    }
+
+    @Test
+    public void restartedMinerIsNotPaused() {
+        supervisor.onRunning(1);
+        supervisor.onPaused();
+        // the stalled or crashed miner came back as a fresh process
+        supervisor.onRunning(1);
+        long now = SystemClock.elapsedRealtime();
+
+        assertTrue(supervisor.isStalled(now + TIMEOUT));
+    }
+}
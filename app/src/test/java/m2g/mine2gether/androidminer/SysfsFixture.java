@@ -0,0 +1,77 @@
+// Copyright (c) 2019, Mine2Gether.com
+//
+// Please see the included LICENSE file for more information.
+
+package m2g.mine2gether.androidminer;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+
+/**
+ * Writes a tree laid out like /sys/devices/system/cpu for {@link CpuTopology#probe(File)}.
+ */
+class SysfsFixture {
+
+    final File root;
+
+    SysfsFixture(File root) {
+        this.root = root;
+    }
+
+    /**
+     * The big.LITTLE layout of a Snapdragon 855: four little cores, three big
+     * ones and one prime core, each with a clock of its own. L2 is shared by
+     * the little cores and per core on the big ones, L3 spans all eight.
+     */
+    static SysfsFixture bigLittle(File root, boolean withL3) throws IOException {
+        SysfsFixture sys = new SysfsFixture(root);
+        sys.write("present", "0-7");
+        for (int cpu = 0; cpu < 8; cpu++) {
+            if (cpu < 4) {
+                sys.cpu(cpu, 1785600, 325, "0-3");
+                sys.cache(cpu, 2, 2, "512K", "0-3");
+            } else if (cpu < 7) {
+                sys.cpu(cpu, 2419200, 870, "4-6");
+                sys.cache(cpu, 2, 2, "256K", Integer.toString(cpu));
+            } else {
+                sys.cpu(cpu, 2841600, 1024, "7");
+                sys.cache(cpu, 2, 2, "256K", "7");
+            }
+            sys.cache(cpu, 0, 1, "32K", Integer.toString(cpu));
+            sys.write("cpu" + cpu + "/cache/index1/type", "Instruction");
+            sys.write("cpu" + cpu + "/cache/index1/level", "1");
+            sys.write("cpu" + cpu + "/cache/index1/size", "64K");
+            if (withL3) sys.cache(cpu, 3, 3, "2048K", "0-7");
+        }
+        return sys;
+    }
+
+    SysfsFixture cpu(int cpu, int maxFreqKhz, int capacity, String relatedCpus) throws IOException {
+        write("cpu" + cpu + "/cpufreq/cpuinfo_max_freq", Integer.toString(maxFreqKhz));
+        if (capacity > 0) write("cpu" + cpu + "/cpu_capacity", Integer.toString(capacity));
+        if (relatedCpus != null) write("cpu" + cpu + "/cpufreq/related_cpus", relatedCpus);
+        return this;
+    }
+
+    SysfsFixture cache(int cpu, int index, int level, String size, String sharedCpus) throws IOException {
+        String dir = "cpu" + cpu + "/cache/index" + index + "/";
+        write(dir + "type", level == 1 ? "Data" : "Unified");
+        write(dir + "level", Integer.toString(level));
+        write(dir + "size", size);
+        write(dir + "shared_cpu_list", sharedCpus);
+        return this;
+    }
+
+    SysfsFixture write(String path, String value) throws IOException {
+        File file = new File(root, path);
+        file.getParentFile().mkdirs();
+        FileOutputStream out = new FileOutputStream(file);
+        try {
+            out.write((value + "\n").getBytes("UTF-8"));
+        } finally {
+            out.close();
+        }
+        return this;
+    }
+}
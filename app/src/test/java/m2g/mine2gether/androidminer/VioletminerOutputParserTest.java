@@ -0,0 +1,79 @@
+// Copyright (c) 2019, Mine2Gether.com
+//
+// Please see the included LICENSE file for more information.
+
+package m2g.mine2gether.androidminer;
+
+import org.junit.Test;
+
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class VioletminerOutputParserTest {
+
+    private static final String OUTPUT = ""
+            + "[12:00:00] Loading config from disk...\n"
+            + "[12:00:01] Connecting to pool pool.mine2gether.com:3333...\n"
+            + "[12:00:02] Got new job from pool! Difficulty: 35000\n"
+            + "[12:00:30] Share accepted by pool!\n"
+            + "[12:00:31] Total Hashrate: 1.25 KH/s\n"
+            + "[12:00:45] Share rejected by pool: Low difficulty share\n"
+            + "[12:00:52] Share accepted by pool!\n"
+            + "[12:01:00] Lost connection with pool, attempting to reconnect...\n"
+            + "[12:01:05] Failed to connect to pool pool.mine2gether.com:3333\n";
+
+    @Test
+    public void violetminer() throws Exception {
+        List<MiningEvent> events = MinerOutputFixture.parse(new VioletminerOutputParser(), OUTPUT);
+
+        assertEquals(9, events.size());
+        assertNull(events.get(0));
+        assertNull(events.get(1));
+
+        MiningEvent.NewJob job = (MiningEvent.NewJob) events.get(2);
+        assertEquals(35000, job.difficulty);
+        assertEquals(-1, job.height);
+
+        assertEquals(1, ((MiningEvent.ShareAccepted) events.get(3)).accepted);
+
+        MiningEvent.HashrateSample rate = (MiningEvent.HashrateSample) events.get(4);
+        assertEquals(1250, rate.rate10s, 1e-9);
+        assertTrue(Double.isNaN(rate.rate60s));
+        assertTrue(Double.isNaN(rate.max));
+
+        // the parser numbers the shares itself
+        MiningEvent.ShareRejected rejected = (MiningEvent.ShareRejected) events.get(5);
+        assertEquals(1, rejected.accepted);
+        assertEquals(1, rejected.rejected);
+        MiningEvent.ShareAccepted accepted = (MiningEvent.ShareAccepted) events.get(6);
+        assertEquals(2, accepted.accepted);
+        assertEquals(1, accepted.rejected);
+
+        assertEquals(MiningEvent.TYPE_CONNECTION_LOST, events.get(7).getType());
+        assertEquals(MiningEvent.TYPE_CONNECTION_LOST, events.get(8).getType());
+    }
+
+    @Test
+    public void plainHashrateUnit() throws Exception {
+        MiningEvent.HashrateSample rate = (MiningEvent.HashrateSample) MinerOutputFixture.parseLine(
+                new VioletminerOutputParser(), "[12:00:31] Hashrate: 412.7 H/s");
+
+        assertEquals(412.7, rate.current(), 1e-9);
+    }
+
+    @Test
+    public void partialLines() throws Exception {
+        VioletminerOutputParser parser = new VioletminerOutputParser();
+
+        assertNull(MinerOutputFixture.parseLine(parser, "[12:00:31] Total Hashrate: 1.2"));
+        assertNull(MinerOutputFixture.parseLine(parser, "[12:00:30] Share acc"));
+        assertNull(MinerOutputFixture.parseLine(parser, ""));
+
+        // a job without its difficulty is still a job
+        MiningEvent.NewJob job = (MiningEvent.NewJob) MinerOutputFixture.parseLine(parser, "[12:00:02] Got new job from pool! Diff");
+        assertEquals(0, job.difficulty);
+    }
+}
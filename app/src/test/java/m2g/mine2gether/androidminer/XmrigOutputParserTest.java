@@ -0,0 +1,150 @@
+// Copyright (c) 2019, Mine2Gether.com
+//
+// Please see the included LICENSE file for more information.
+
+package m2g.mine2gether.androidminer;
+
+import org.junit.Test;
+
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class XmrigOutputParserTest {
+
+    // xmrig 6.x with "colors": false, as our config.json asks for
+    private static final String XMRIG_6 = ""
+            + "[2021-03-14 10:01:02.113]  cpu      use profile  rx  (4 threads) scratchpad 2048 KB\n"
+            + "[2021-03-14 10:01:02.340]  net      use pool pool.mine2gether.com:3333  51.15.55.162\n"
+            + "[2021-03-14 10:01:02.340]  net      new job from pool.mine2gether.com:3333 diff 120K algo rx/0 height 2301234\n"
+            + "[2021-03-14 10:01:10.463]  randomx  dataset ready (8123 ms)\n"
+            + "[2021-03-14 10:01:41.201]  cpu      accepted (1/0) diff 120000 (42 ms)\n"
+            + "[2021-03-14 10:02:10.004]  miner    speed 10s/60s/15m 812.5 790.1 n/a H/s max 830.0 H/s\n"
+            + "[2021-03-14 10:02:33.870]  cpu      rejected (1/1) diff 120000 \"Low difficulty share\" (57 ms)\n"
+            + "[2021-03-14 10:03:00.000]  net      pool.mine2gether.com:3333 read error: \"end of file\"\n"
+            + "[2021-03-14 10:03:05.000]  net      no active pools, stop mining\n";
+
+    // xmrig 2.x as built into xmrig-upx, no tags and no milliseconds
+    private static final String XMRIG_2 = ""
+            + "[2019-05-01 12:00:00] use pool pool.mine2gether.com:3333 \n"
+            + "[2019-05-01 12:00:00] new job from pool.mine2gether.com:3333 diff 5000 algo cn/r\n"
+            + "[2019-05-01 12:00:31] accepted (1/0) diff 5000 (120 ms)\n"
+            + "[2019-05-01 12:01:00] speed 10s/60s/15m 150.3 n/a n/a H/s max 160.0 H/s\n"
+            + "[2019-05-01 12:01:12] rejected (1/1) diff 5000 \"Low difficulty share\" (130 ms)\n"
+            + "[2019-05-01 12:02:00] [pool.mine2gether.com:3333] connect error: \"connection refused\"\n";
+
+    @Test
+    public void xmrig6() throws Exception {
+        List<MiningEvent> events = MinerOutputFixture.parse(new XmrigOutputParser(), XMRIG_6);
+
+        assertEquals(9, events.size());
+        assertNull(events.get(0));
+        assertNull(events.get(1));
+
+        MiningEvent.NewJob job = (MiningEvent.NewJob) events.get(2);
+        assertEquals(120000, job.difficulty);
+        assertEquals(2301234, job.height);
+
+        assertEquals(8123, ((MiningEvent.DatasetReady) events.get(3)).elapsedMs);
+
+        MiningEvent.ShareAccepted accepted = (MiningEvent.ShareAccepted) events.get(4);
+        assertEquals(1, accepted.accepted);
+        assertEquals(0, accepted.rejected);
+        assertEquals(120000, accepted.difficulty);
+        assertEquals(42, accepted.latencyMs);
+
+        MiningEvent.HashrateSample speed = (MiningEvent.HashrateSample) events.get(5);
+        assertEquals(812.5, speed.rate10s, 0);
+        assertEquals(790.1, speed.rate60s, 0);
+        assertTrue(Double.isNaN(speed.rate15m));
+        assertEquals(830.0, speed.max, 0);
+
+        MiningEvent.ShareRejected rejected = (MiningEvent.ShareRejected) events.get(6);
+        assertEquals(1, rejected.accepted);
+        assertEquals(1, rejected.rejected);
+        assertEquals(57, rejected.latencyMs);
+
+        assertEquals(MiningEvent.TYPE_CONNECTION_LOST, events.get(7).getType());
+        assertEquals(MiningEvent.TYPE_CONNECTION_LOST, events.get(8).getType());
+    }
+
+    @Test
+    public void xmrig2() throws Exception {
+        List<MiningEvent> events = MinerOutputFixture.parse(new XmrigOutputParser(), XMRIG_2);
+
+        assertEquals(6, events.size());
+        assertNull(events.get(0));
+
+        MiningEvent.NewJob job = (MiningEvent.NewJob) events.get(1);
+        assertEquals(5000, job.difficulty);
+        assertEquals(-1, job.height);
+
+        MiningEvent.ShareAccepted accepted = (MiningEvent.ShareAccepted) events.get(2);
+        assertEquals(1, accepted.accepted);
+        assertEquals(5000, accepted.difficulty);
+        assertEquals(120, accepted.latencyMs);
+
+        MiningEvent.HashrateSample speed = (MiningEvent.HashrateSample) events.get(3);
+        assertEquals(150.3, speed.current(), 0);
+        assertTrue(Double.isNaN(speed.rate60s));
+        assertEquals(160.0, speed.max, 0);
+
+        MiningEvent.ShareRejected rejected = (MiningEvent.ShareRejected) events.get(4);
+        assertEquals(1, rejected.rejected);
+        assertEquals(130, rejected.latencyMs);
+
+        assertEquals(MiningEvent.TYPE_CONNECTION_LOST, events.get(5).getType());
+    }
+
+    @Test
+    public void shortenedDifficultyAndMissingMax() throws Exception {
+        XmrigOutputParser parser = new XmrigOutputParser();
+
+        MiningEvent.NewJob job = (MiningEvent.NewJob) MinerOutputFixture.parseLine(parser,
+                "[2021-03-14 10:01:02.340]  net      new job from pool:3333 diff 1M algo rx/0");
+        assertEquals(1000000, job.difficulty);
+        assertEquals(-1, job.height);
+
+        MiningEvent.HashrateSample speed = (MiningEvent.HashrateSample) MinerOutputFixture.parseLine(parser,
+                "[2021-03-14 10:02:10.004]  miner    speed 10s/60s/15m n/a n/a n/a H/s");
+        assertTrue(Double.isNaN(speed.current()));
+        assertTrue(Double.isNaN(speed.max));
+    }
+
+    @Test
+    public void windowsLineEndings() throws Exception {
+        List<MiningEvent> events = MinerOutputFixture.parse(new XmrigOutputParser(),
+                "[2019-05-01 12:00:31] accepted (2/0) diff 5000 (88 ms)\r\n"
+                        + "[2019-05-01 12:01:00] speed 10s/60s/15m 150.3 149.0 n/a H/s max 160.0 H/s\r\n");
+
+        assertEquals(88, ((MiningEvent.ShareAccepted) events.get(0)).latencyMs);
+        assertEquals(160.0, ((MiningEvent.HashrateSample) events.get(1)).max, 0);
+    }
+
+    @Test
+    public void partialLines() throws Exception {
+        XmrigOutputParser parser = new XmrigOutputParser();
+
+        // cut off before the unit, the figures may be incomplete
+        assertNull(MinerOutputFixture.parseLine(parser, "[2021-03-14 10:02:10.004]  miner    speed 10s/60s/15m 812.5 79"));
+        assertNull(MinerOutputFixture.parseLine(parser, "[2021-03-14 10:01:41.201]  cpu      accepted (1/0) diff"));
+        assertNull(MinerOutputFixture.parseLine(parser, "[2021-03-14 10:01:10.463]  randomx  dataset ready ("));
+        assertNull(MinerOutputFixture.parseLine(parser, "[2021-03-14 10:01:41.201]  cpu      acc"));
+        assertNull(MinerOutputFixture.parseLine(parser, ""));
+
+        // the latency is optional, a share cut off before it still counts
+        MiningEvent.ShareAccepted accepted = (MiningEvent.ShareAccepted) MinerOutputFixture.parseLine(parser,
+                "[2021-03-14 10:01:41.201]  cpu      accepted (3/0) diff 120000 (4");
+        assertEquals(3, accepted.accepted);
+        assertEquals(120000, accepted.difficulty);
+        assertEquals(-1, accepted.latencyMs);
+    }
+
+    @Test
+    public void unknownMinersUseTheXmrigFormat() {
+        assertTrue(MinerOutputParsers.forMiner("xmrig-fork").create() instanceof XmrigOutputParser);
+        assertTrue(MinerOutputParsers.forMiner(Config.miner_xmrig_upx).create() instanceof XmrigOutputParser);
+    }
+}